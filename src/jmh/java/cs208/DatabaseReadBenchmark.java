@@ -0,0 +1,62 @@
+package cs208;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the queries of the {@link Database}: point lookups, full lists and the joins of the rosters.
+ *
+ * Run with:
+ *     ./gradlew jmh -Pjmh.includes=DatabaseReadBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DatabaseReadBenchmark
+{
+    @Benchmark
+    public Student getStudentById(SeededDatabase seededDatabase)
+    {
+        return seededDatabase.database.getStudentById(seededDatabase.randomStudentId());
+    }
+
+    @Benchmark
+    public Class getClassWithId(SeededDatabase seededDatabase)
+    {
+        return seededDatabase.database.getClassWithId(seededDatabase.randomClassId());
+    }
+
+    @Benchmark
+    public Class getClassWithCode(SeededDatabase seededDatabase)
+    {
+        return seededDatabase.database.getClassWithCode(seededDatabase.randomClassCode());
+    }
+
+    @Benchmark
+    public List<Class> listAllClasses(SeededDatabase seededDatabase)
+    {
+        return seededDatabase.database.listAllClasses();
+    }
+
+    @Benchmark
+    public List<Student> listAllStudents(SeededDatabase seededDatabase)
+    {
+        return seededDatabase.database.listAllStudents();
+    }
+
+    @Benchmark
+    public List<RegisteredStudentJoinResult> showAllStudentsInClass(SeededDatabase seededDatabase)
+    {
+        return seededDatabase.database.showAllStudentsInClass(seededDatabase.randomClassCode());
+    }
+
+    @Benchmark
+    public List<RegisteredStudentJoinResult> showAllStudentsClasses(SeededDatabase seededDatabase)
+    {
+        return seededDatabase.database.showAllStudentsClasses(seededDatabase.randomStudentId());
+    }
+}
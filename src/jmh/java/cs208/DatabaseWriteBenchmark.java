@@ -0,0 +1,108 @@
+package cs208;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the inserts and the enrollments of the {@link Database}.
+ *
+ * The inserted students and classes stay in the database until the end of the trial,
+ * so the tables grow a little during a run; the enrollments are dropped right after they are made,
+ * so the registered_students table keeps its size.
+ *
+ * Run with:
+ *     ./gradlew jmh -Pjmh.includes=DatabaseWriteBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class DatabaseWriteBenchmark
+{
+    // the number of rows sent to the batch methods at once
+    @Param({"100"})
+    public int batchSize;
+
+    // makes the codes of the inserted classes unique
+    private final AtomicLong classSequence = new AtomicLong();
+
+    @Benchmark
+    public Student addNewStudent(SeededDatabase seededDatabase) throws SQLException
+    {
+        return seededDatabase.database.addNewStudent(new Student("Benchmark", "Student", Date.valueOf("2000-01-01")));
+    }
+
+    @Benchmark
+    public List<String> addNewStudents(SeededDatabase seededDatabase) throws SQLException
+    {
+        List<Student> newStudents = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++)
+        {
+            newStudents.add(new Student("Benchmark", "Student" + i, Date.valueOf("2000-01-01")));
+        }
+        return seededDatabase.database.addNewStudents(newStudents);
+    }
+
+    @Benchmark
+    public Class addNewClass(SeededDatabase seededDatabase) throws SQLException
+    {
+        String code = "JMH " + classSequence.incrementAndGet();
+        return seededDatabase.database.addNewClass(new Class(code, "Benchmark Class", "Inserted by DatabaseWriteBenchmark", 10));
+    }
+
+    /**
+     * Registers a random student in a random class, then drops the registration
+     * (when the student was already registered, only the checks of the registration are measured)
+     */
+    @Benchmark
+    public RegisteredStudentDelta enrollAndDrop(SeededDatabase seededDatabase)
+    {
+        int studentId = seededDatabase.randomStudentId();
+        int classId = seededDatabase.randomClassId();
+
+        RegisteredStudentDelta enrollment = seededDatabase.database.addStudentToClass(studentId, classId);
+        if (enrollment.getOutcome() == EnrollmentOutcome.ENROLLED)
+        {
+            return seededDatabase.database.deleteStudentFromClass(studentId, classId);
+        }
+        return enrollment;
+    }
+
+    /**
+     * Registers a batch of random pairs with {@link Database#addStudentsToClasses(List)},
+     * then drops the new registrations
+     */
+    @Benchmark
+    public List<EnrollmentResult> enrollBatchAndDrop(SeededDatabase seededDatabase) throws SQLException
+    {
+        List<EnrollmentRequest> enrollmentRequests = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++)
+        {
+            EnrollmentRequest enrollmentRequest = new EnrollmentRequest();
+            enrollmentRequest.setStudentId(seededDatabase.randomStudentId());
+            enrollmentRequest.setClassId(seededDatabase.randomClassId());
+            enrollmentRequests.add(enrollmentRequest);
+        }
+
+        List<EnrollmentResult> enrollmentResults = seededDatabase.database.addStudentsToClasses(enrollmentRequests);
+        for (EnrollmentResult enrollmentResult : enrollmentResults)
+        {
+            if (enrollmentResult.getOutcome() == EnrollmentOutcome.ENROLLED)
+            {
+                seededDatabase.database.deleteStudentFromClass(enrollmentResult.getStudentId(), enrollmentResult.getClassId());
+            }
+        }
+        return enrollmentResults;
+    }
+}
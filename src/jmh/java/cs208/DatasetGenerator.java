@@ -0,0 +1,418 @@
+package cs208;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The DatasetGenerator class creates a SQLite database file with realistic amounts of data:
+ * the tables of schema.sql and the sample rows of seeds.sql, followed by N generated classes,
+ * M generated students and their registrations.
+ *
+ * The registrations are skewed like real enrollments: the number of classes of a student varies
+ * around the average, and the popularity of the classes follows a Zipf distribution
+ * (the class of rank r is chosen with a probability proportional to 1 / r^skew),
+ * so a few classes have long rosters while most classes have a handful of students.
+ * The max_students of a generated class leaves room for a few more registrations than it received.
+ *
+ * The rows are inserted in batches through one plain JDBC connection, so millions of rows take seconds, not hours.
+ * The same settings (including the seed) always produce the same dataset.
+ *
+ * Run with:
+ *     ./gradlew generateDataset --args="--classes=2000 --students=1000000 --enrollments-per-student=5 --skew=1.0"
+ * which creates cs208_hw5.sqlite (the file opened by {@link Main}) unless --file is given;
+ * an existing file is only replaced with --overwrite=true.
+ */
+public class DatasetGenerator
+{
+    // the description of the generated classes, which tells them apart from the classes of seeds.sql
+    public static final String GENERATED_DESCRIPTION = "Generated by cs208.DatasetGenerator";
+
+    private static final int BATCH_SIZE = 10000;
+    private static final int PROGRESS_INTERVAL = 100000;
+
+    private static final String[] DEPARTMENTS = {
+            "CS", "MATH", "ENGL", "HIST", "BIOL", "CHEM", "PHYS", "ECON", "ART", "MUSC", "PSYC", "PHIL"
+    };
+    private static final String[] SUBJECTS = {
+            "Foundations of", "Topics in", "Introduction to", "Advanced", "Seminar in", "Applied"
+    };
+    private static final String[] FIRST_NAMES = {
+            "Alice", "Bob", "Carol", "Daniel", "Emmett", "Fiona", "George", "Hannah", "Isaac", "Jessica",
+            "Kevin", "Laura", "Michael", "Nora", "Oscar", "Priya", "Quinn", "Rosa", "Samuel", "Tara",
+            "Umar", "Valerie", "William", "Xena", "Yusuf", "Zoe"
+    };
+    private static final String[] LAST_NAMES = {
+            "Agnesi", "Babbage", "Carson", "Dijkstra", "Einstein", "Faraday", "Galois", "Hamilton", "Ishizaka",
+            "Jackson", "Knuth", "Lovelace", "Meitner", "Noether", "Ohm", "Pascal", "Quillen", "Riemann",
+            "Shannon", "Turing", "Ulam", "Volta", "Wiles", "Xu", "Yang", "Zuse"
+    };
+
+    private final int numberOfClasses;
+    private final int numberOfStudents;
+    private final int enrollmentsPerStudent;
+    private final double skew;
+    private final long seed;
+
+    /**
+     * @param numberOfClasses the number of generated classes (in addition to the classes of seeds.sql)
+     * @param numberOfStudents the number of generated students (in addition to the students of seeds.sql)
+     * @param enrollmentsPerStudent the average number of classes in which a generated student is registered
+     * @param skew the exponent of the Zipf distribution of the popularity of the classes (0 for a uniform distribution)
+     * @param seed the seed of the random choices
+     */
+    public DatasetGenerator(int numberOfClasses, int numberOfStudents, int enrollmentsPerStudent, double skew, long seed)
+    {
+        this.numberOfClasses = Math.max(numberOfClasses, 0);
+        this.numberOfStudents = Math.max(numberOfStudents, 0);
+        this.enrollmentsPerStudent = Math.max(Math.min(enrollmentsPerStudent, numberOfClasses), 0);
+        this.skew = Math.max(skew, 0);
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException, SQLException
+    {
+        ApplicationSettings settings = ApplicationSettings.load(args);
+
+        Path sqliteFile = Paths.get(settings.getString("file", "cs208_hw5.sqlite"));
+        if (Files.exists(sqliteFile) && !settings.getBoolean("overwrite", false))
+        {
+            System.err.println("!!! " + sqliteFile.toAbsolutePath() + " already exists, add --overwrite=true to replace it");
+            System.exit(1);
+        }
+        Files.deleteIfExists(sqliteFile);
+
+        DatasetGenerator datasetGenerator = new DatasetGenerator(
+                settings.getInt("classes", 1000),
+                settings.getInt("students", 100000),
+                settings.getInt("enrollments-per-student", 4),
+                Double.parseDouble(settings.getString("skew", "1.0")),
+                settings.getLong("seed", 208)
+        );
+
+        long startMillis = System.currentTimeMillis();
+        datasetGenerator.generate(sqliteFile);
+        System.out.println("Generated " + sqliteFile.toAbsolutePath() + " in " + (System.currentTimeMillis() - startMillis) + " ms");
+    }
+
+    /**
+     * Creates a temporary database file with the generated dataset (used by the benchmarks)
+     *
+     * @return the path of the new database file, which the caller deletes
+     */
+    public Path generateTemporary() throws IOException, SQLException
+    {
+        Path sqliteFile = Files.createTempFile("cs208_dataset_", ".sqlite");
+        generate(sqliteFile);
+        return sqliteFile;
+    }
+
+    /**
+     * Creates the tables in the given database file, and fills them with the sample rows and the generated rows
+     */
+    public void generate(Path sqliteFile) throws IOException, SQLException
+    {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + sqliteFile))
+        {
+            executeScript(connection, "/sql/schema.sql");
+            executeScript(connection, "/sql/seeds.sql");
+
+            try (Statement statement = connection.createStatement())
+            {
+                // the file is thrown away if the generator fails, so the inserts do not need to survive a crash
+                statement.execute("PRAGMA synchronous = OFF;");
+            }
+
+            connection.setAutoCommit(false);
+            try
+            {
+                int[] registrationsPerClass = countRegistrationsPerClass();
+                int firstClassId = insertClasses(connection, registrationsPerClass);
+                int firstStudentId = insertStudents(connection);
+                insertRegistrations(connection, firstClassId, firstStudentId);
+                connection.commit();
+            }
+            catch (SQLException sqlException)
+            {
+                connection.rollback();
+                throw sqlException;
+            }
+            finally
+            {
+                connection.setAutoCommit(true);
+            }
+
+            try (Statement statement = connection.createStatement())
+            {
+                // fresh statistics for the query planner, as a long-running database would have
+                statement.execute("ANALYZE;");
+            }
+        }
+    }
+
+    /**
+     * Executes the SQL statements of a script from the classpath, in order
+     * (the statements end with a ';' at the end of a line, and the lines starting with '--' are skipped;
+     * the statements in the body of a trigger also end with a ';', so a CREATE TRIGGER ends at its "END;" line)
+     */
+    static void executeScript(Connection connection, String resourceName) throws IOException, SQLException
+    {
+        try (InputStream inputStream = DatasetGenerator.class.getResourceAsStream(resourceName))
+        {
+            if (inputStream == null)
+            {
+                throw new IOException("missing resource " + resourceName);
+            }
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+            try (Statement statement = connection.createStatement())
+            {
+                StringBuilder sql = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    if (line.trim().startsWith("--"))
+                    {
+                        continue;
+                    }
+
+                    sql.append(line).append('\n');
+                    boolean insideTrigger = sql.toString().trim().toUpperCase().startsWith("CREATE TRIGGER");
+                    if (insideTrigger ? line.trim().equalsIgnoreCase("END;") : line.trim().endsWith(";"))
+                    {
+                        statement.execute(sql.toString());
+                        sql.setLength(0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the random choices of the registrations once, only to count the registrations of every class,
+     * so that the max_students of the classes can be set before the registrations are inserted.
+     * {@link #insertRegistrations} makes the same choices again (same seed), instead of keeping them in memory.
+     */
+    private int[] countRegistrationsPerClass()
+    {
+        int[] registrationsPerClass = new int[numberOfClasses];
+        RegistrationChooser registrationChooser = new RegistrationChooser();
+        for (int student = 0; student < numberOfStudents; student++)
+        {
+            int[] classIndexes = registrationChooser.nextStudent();
+            for (int classIndex : classIndexes)
+            {
+                registrationsPerClass[classIndex]++;
+            }
+        }
+        return registrationsPerClass;
+    }
+
+    /**
+     * @return the id of the first generated class
+     */
+    private int insertClasses(Connection connection, int[] registrationsPerClass) throws SQLException
+    {
+        Random random = new Random(seed);
+        String sql = "INSERT INTO classes (code, title, description, max_students) VALUES (?, ?, ?, ?);";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql))
+        {
+            for (int i = 0; i < numberOfClasses; i++)
+            {
+                String department = DEPARTMENTS[i % DEPARTMENTS.length];
+                // 4 digit numbers and above, so the codes never collide with the 3 digit codes of seeds.sql
+                preparedStatement.setString(1, department + " " + (1000 + i / DEPARTMENTS.length));
+                preparedStatement.setString(2, SUBJECTS[random.nextInt(SUBJECTS.length)] + " " + department + " " + (i + 1));
+                preparedStatement.setString(3, GENERATED_DESCRIPTION);
+                // room for a few more students than the class received, as in a real class that is not full yet
+                int registrations = registrationsPerClass[i];
+                preparedStatement.setInt(4, registrations + Math.max(10, registrations / 4));
+                preparedStatement.addBatch();
+
+                if ((i + 1) % BATCH_SIZE == 0)
+                {
+                    preparedStatement.executeBatch();
+                }
+            }
+            preparedStatement.executeBatch();
+        }
+        System.out.println("inserted " + numberOfClasses + " classes");
+
+        return selectLastInsertRowId(connection) - numberOfClasses + 1;
+    }
+
+    /**
+     * @return the id of the first generated student
+     */
+    private int insertStudents(Connection connection) throws SQLException
+    {
+        Random random = new Random(seed + 1);
+        String sql = "INSERT INTO students (first_name, last_name, birth_date) VALUES (?, ?, ?);";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql))
+        {
+            for (int i = 0; i < numberOfStudents; i++)
+            {
+                preparedStatement.setString(1, FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]);
+                // a number after the last name, so the keyset pagination (by last name and first name) sees many ties
+                preparedStatement.setString(2, LAST_NAMES[random.nextInt(LAST_NAMES.length)] + random.nextInt(1000));
+                preparedStatement.setString(3, String.format("%04d-%02d-%02d", 1990 + random.nextInt(17), 1 + random.nextInt(12), 1 + random.nextInt(28)));
+                preparedStatement.addBatch();
+
+                if ((i + 1) % BATCH_SIZE == 0)
+                {
+                    preparedStatement.executeBatch();
+                }
+                if ((i + 1) % PROGRESS_INTERVAL == 0)
+                {
+                    System.out.println("inserted " + (i + 1) + " students");
+                }
+            }
+            preparedStatement.executeBatch();
+        }
+        System.out.println("inserted " + numberOfStudents + " students");
+
+        return selectLastInsertRowId(connection) - numberOfStudents + 1;
+    }
+
+    private void insertRegistrations(Connection connection, int firstClassId, int firstStudentId) throws SQLException
+    {
+        long numberOfRegistrations = 0;
+        RegistrationChooser registrationChooser = new RegistrationChooser();
+        String sql = "INSERT INTO registered_students (class_id, student_id) VALUES (?, ?);";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql))
+        {
+            int pendingRows = 0;
+            for (int student = 0; student < numberOfStudents; student++)
+            {
+                int[] classIndexes = registrationChooser.nextStudent();
+                for (int classIndex : classIndexes)
+                {
+                    preparedStatement.setInt(1, firstClassId + classIndex);
+                    preparedStatement.setInt(2, firstStudentId + student);
+                    preparedStatement.addBatch();
+                    pendingRows++;
+                    numberOfRegistrations++;
+
+                    if (numberOfRegistrations % PROGRESS_INTERVAL == 0)
+                    {
+                        System.out.println("inserted " + numberOfRegistrations + " registrations");
+                    }
+                }
+
+                if (pendingRows >= BATCH_SIZE)
+                {
+                    preparedStatement.executeBatch();
+                    pendingRows = 0;
+                }
+            }
+            preparedStatement.executeBatch();
+        }
+        System.out.println("inserted " + numberOfRegistrations + " registrations");
+    }
+
+    private static int selectLastInsertRowId(Connection connection) throws SQLException
+    {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT last_insert_rowid();"))
+        {
+            return resultSet.next() ? resultSet.getInt(1) : 0;
+        }
+    }
+
+
+    /**
+     * Chooses the classes of the students, one student after the other, always in the same order for the same seed
+     */
+    private class RegistrationChooser
+    {
+        private final Random random = new Random(seed + 2);
+
+        // cumulativeWeights[r] = the sum of 1 / (k + 1)^skew for k = 0..r
+        private final double[] cumulativeWeights = new double[numberOfClasses];
+
+        // the most popular classes are spread over the table, rather than being the first ids
+        private final int[] classIndexOfRank = new int[numberOfClasses];
+
+        RegistrationChooser()
+        {
+            double sum = 0;
+            for (int rank = 0; rank < numberOfClasses; rank++)
+            {
+                sum += 1 / Math.pow(rank + 1, skew);
+                cumulativeWeights[rank] = sum;
+                classIndexOfRank[rank] = rank;
+            }
+
+            Random shuffleRandom = new Random(seed + 3);
+            for (int i = numberOfClasses - 1; i > 0; i--)
+            {
+                int j = shuffleRandom.nextInt(i + 1);
+                int swapped = classIndexOfRank[i];
+                classIndexOfRank[i] = classIndexOfRank[j];
+                classIndexOfRank[j] = swapped;
+            }
+        }
+
+        /**
+         * @return the indexes (0 to numberOfClasses - 1) of the distinct classes of the next student
+         */
+        int[] nextStudent()
+        {
+            if (enrollmentsPerStudent == 0)
+            {
+                return new int[0];
+            }
+
+            // between 1 and 2 * average - 1 classes, so the average is enrollmentsPerStudent
+            int numberOfClassesOfStudent = Math.min(1 + random.nextInt(2 * enrollmentsPerStudent - 1), numberOfClasses);
+            int[] classIndexes = new int[numberOfClassesOfStudent];
+            int chosen = 0;
+            int attempts = 0;
+            while (chosen < numberOfClassesOfStudent)
+            {
+                // with a strong skew, the last classes of a student who takes almost every class are rarely drawn,
+                // so the choice becomes uniform after many draws of classes that the student already has
+                attempts++;
+                int classIndex = attempts <= 32 * numberOfClassesOfStudent
+                        ? classIndexOfRank[chooseRank()]
+                        : random.nextInt(numberOfClasses);
+                boolean alreadyChosen = false;
+                for (int i = 0; i < chosen; i++)
+                {
+                    if (classIndexes[i] == classIndex)
+                    {
+                        alreadyChosen = true;
+                        break;
+                    }
+                }
+
+                if (!alreadyChosen)
+                {
+                    classIndexes[chosen++] = classIndex;
+                }
+            }
+            return classIndexes;
+        }
+
+        private int chooseRank()
+        {
+            double target = random.nextDouble() * cumulativeWeights[numberOfClasses - 1];
+            int rank = Arrays.binarySearch(cumulativeWeights, target);
+            // binarySearch returns (-(insertion point) - 1) when the target is between two weights
+            return rank >= 0 ? rank : Math.min(-rank - 1, numberOfClasses - 1);
+        }
+    }
+}
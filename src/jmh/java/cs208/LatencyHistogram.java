@@ -0,0 +1,113 @@
+package cs208;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies (in microseconds) from many threads without locks, and computes their percentiles.
+ *
+ * The latencies below 1024 microseconds are counted exactly; above, every power of 2 is split into
+ * 128 buckets, so a percentile is off by less than 1% of its value, whatever the range of the latencies.
+ */
+public class LatencyHistogram
+{
+    private static final int EXACT_BUCKETS = 1024;
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 2^10 to 2^63 microseconds
+    private static final int BUCKETS = EXACT_BUCKETS + (63 - 10 + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long micros)
+    {
+        counts.incrementAndGet(bucketOf(Math.max(micros, 0)));
+    }
+
+    /**
+     * Adds the latencies recorded by this histogram to another histogram (e.g., to report all the routes together)
+     */
+    public void addTo(LatencyHistogram latencyHistogram)
+    {
+        for (int bucket = 0; bucket < BUCKETS; bucket++)
+        {
+            long count = counts.get(bucket);
+            if (count > 0)
+            {
+                latencyHistogram.counts.addAndGet(bucket, count);
+            }
+        }
+    }
+
+    public long getCount()
+    {
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++)
+        {
+            count += counts.get(bucket);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100 (e.g., 99.9)
+     * @return the latency (in microseconds) below which the given percentage of the recorded latencies fall,
+     *         or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        long count = getCount();
+        if (count == 0)
+        {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(count * Math.min(percentile, 100) / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++)
+        {
+            seen += counts.get(bucket);
+            if (seen >= Math.max(rank, 1))
+            {
+                return highestValueOf(bucket);
+            }
+        }
+        return highestValueOf(BUCKETS - 1);
+    }
+
+    public long getMax()
+    {
+        for (int bucket = BUCKETS - 1; bucket >= 0; bucket--)
+        {
+            if (counts.get(bucket) > 0)
+            {
+                return highestValueOf(bucket);
+            }
+        }
+        return 0;
+    }
+
+    private static int bucketOf(long micros)
+    {
+        if (micros < EXACT_BUCKETS)
+        {
+            return (int) micros;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) ((micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return EXACT_BUCKETS + (exponent - 10) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueOf(int bucket)
+    {
+        if (bucket < EXACT_BUCKETS)
+        {
+            return bucket;
+        }
+
+        int exponent = 10 + (bucket - EXACT_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (bucket - EXACT_BUCKETS) % SUB_BUCKETS;
+        long lowestValue = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowestValue + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,383 @@
+package cs208;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The LoadDriver class replays a mix of the REST routes against a server that is already running
+ * (e.g., started with ./gradlew bootRun on a database created by {@link DatasetGenerator}),
+ * and reports the throughput and the p50/p99/p999 latencies of every route.
+ *
+ * Every worker thread sends one request after the other (a closed loop), so the latencies are those seen by
+ * --concurrency clients that wait for their answer before asking again.
+ * The requests sent during the warmup are not counted.
+ *
+ * The routes of the mix are separated by ';', each one is "weight METHOD /path", and the path can use
+ * the placeholders {studentId}, {classId} and {classCode}, replaced by random rows read from the server at startup.
+ *
+ * Run with:
+ *     ./gradlew loadTest --args="--concurrency=32 --duration-seconds=60"
+ *     ./gradlew loadTest --args="--mix='90 GET /students/{studentId};10 GET /registered_students/{classCode}'"
+ */
+public class LoadDriver
+{
+    public static final String DEFAULT_MIX =
+            "30 GET /students/{studentId};" +
+            "20 GET /classes/{classId};" +
+            "10 GET /classes?limit=50;" +
+            "15 GET /registered_students/{classCode};" +
+            "15 GET /classes_in_which_student_is_enrolled/{studentId};" +
+            "5 POST /registered_students/add?response=delta&idOfStudentToAdd={studentId}&idOfClassToAddTo={classId};" +
+            "5 DELETE /registered_students/delete?response=delta&idOfStudentToDelete={studentId}&idOfClassToDeleteFrom={classId}";
+
+    private final String baseUrl;
+    private final List<Route> routes;
+    private final int totalWeight;
+
+    // the rows that the placeholders of the routes are replaced with
+    private int[] studentIds;
+    private int[] classIds;
+    private String[] classCodes;
+
+    public LoadDriver(String baseUrl, List<Route> routes)
+    {
+        this.baseUrl = baseUrl;
+        this.routes = routes;
+
+        int weights = 0;
+        for (Route route : routes)
+        {
+            weights += route.weight;
+        }
+        this.totalWeight = weights;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        ApplicationSettings settings = ApplicationSettings.load(args);
+
+        String mix = settings.getString("mix", DEFAULT_MIX);
+        // the quotes around the mix are kept by some shells
+        if (mix.startsWith("'") && mix.endsWith("'") && mix.length() > 1)
+        {
+            mix = mix.substring(1, mix.length() - 1);
+        }
+
+        LoadDriver loadDriver = new LoadDriver(settings.getString("base-url", "http://localhost:8080"), Route.parseMix(mix));
+        loadDriver.loadRows();
+        loadDriver.run(
+                settings.getInt("concurrency", 16),
+                settings.getInt("warmup-seconds", 5),
+                settings.getInt("duration-seconds", 30)
+        );
+    }
+
+    /**
+     * Reads the ids of the students and the ids and codes of the classes from the server
+     */
+    public void loadRows() throws IOException
+    {
+        List<Integer> ids = new ArrayList<>();
+        List<String> codes = new ArrayList<>();
+        readRows("/classes?stream=true", ids, codes);
+        classIds = toIntArray(ids);
+        classCodes = codes.toArray(new String[0]);
+
+        ids.clear();
+        readRows("/students?stream=true", ids, null);
+        studentIds = toIntArray(ids);
+
+        System.out.println("The routes use " + classIds.length + " classes and " + studentIds.length + " students");
+        if (classIds.length == 0 || studentIds.length == 0)
+        {
+            throw new IOException("the database has no classes or no students, see cs208.DatasetGenerator");
+        }
+    }
+
+    /**
+     * Sends the requests for the warmup and the duration, then prints the report
+     */
+    public void run(int concurrency, int warmupSeconds, int durationSeconds) throws InterruptedException
+    {
+        System.out.println("Sending requests to " + baseUrl + " from " + concurrency + " threads: "
+                + warmupSeconds + " s of warmup, then " + durationSeconds + " s measured...");
+
+        long measureFromNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long stopAtNanos = measureFromNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(concurrency);
+        for (int i = 0; i < concurrency; i++)
+        {
+            executorService.execute(() -> sendRequestsUntil(measureFromNanos, stopAtNanos));
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(warmupSeconds + durationSeconds + 60, TimeUnit.SECONDS);
+
+        printReport(durationSeconds);
+    }
+
+    private void sendRequestsUntil(long measureFromNanos, long stopAtNanos)
+    {
+        long startNanos;
+        while ((startNanos = System.nanoTime()) < stopAtNanos)
+        {
+            Route route = chooseRoute();
+            int status;
+            try
+            {
+                status = send(route.method, expand(route.path));
+            }
+            catch (IOException ioException)
+            {
+                status = -1;
+            }
+            long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+
+            if (startNanos >= measureFromNanos)
+            {
+                route.record(status, latencyMicros);
+            }
+        }
+    }
+
+    private Route chooseRoute()
+    {
+        int target = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Route route : routes)
+        {
+            target -= route.weight;
+            if (target < 0)
+            {
+                return route;
+            }
+        }
+        return routes.get(routes.size() - 1);
+    }
+
+    private String expand(String path) throws IOException
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String expandedPath = path;
+        if (expandedPath.contains("{studentId}"))
+        {
+            expandedPath = expandedPath.replace("{studentId}", Integer.toString(studentIds[random.nextInt(studentIds.length)]));
+        }
+        if (expandedPath.contains("{classId}"))
+        {
+            expandedPath = expandedPath.replace("{classId}", Integer.toString(classIds[random.nextInt(classIds.length)]));
+        }
+        if (expandedPath.contains("{classCode}"))
+        {
+            // the codes contain spaces (e.g., "CS 410"), which are encoded as %20 in a path
+            String classCode = classCodes[random.nextInt(classCodes.length)];
+            expandedPath = expandedPath.replace("{classCode}", URLEncoder.encode(classCode, "UTF-8").replace("+", "%20"));
+        }
+        return expandedPath;
+    }
+
+    /**
+     * @return the HTTP status of the response, whose body is read to the end so the connection can be reused
+     */
+    private int send(String method, String path) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(60000);
+
+        int status = connection.getResponseCode();
+        InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (body != null)
+        {
+            try (InputStream inputStream = body)
+            {
+                byte[] buffer = new byte[8192];
+                while (inputStream.read(buffer) != -1)
+                {
+                    // the body is not needed
+                }
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Reads the "id" (and the "code") of every object of the JSON array returned by the path
+     */
+    private void readRows(String path, List<Integer> ids, List<String> codes) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        if (connection.getResponseCode() != 200)
+        {
+            throw new IOException("GET " + path + " returned HTTP " + connection.getResponseCode());
+        }
+
+        try (JsonParser jsonParser = new JsonFactory().createParser(connection.getInputStream()))
+        {
+            int depth = 0;
+            JsonToken token;
+            while ((token = jsonParser.nextToken()) != null)
+            {
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY)
+                {
+                    depth++;
+                }
+                else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY)
+                {
+                    depth--;
+                }
+                else if (token == JsonToken.FIELD_NAME && depth == 2)
+                {
+                    // the fields of the objects of the top-level array
+                    String fieldName = jsonParser.getCurrentName();
+                    jsonParser.nextToken();
+                    if ("id".equals(fieldName))
+                    {
+                        ids.add(jsonParser.getIntValue());
+                    }
+                    else if ("code".equals(fieldName) && codes != null)
+                    {
+                        codes.add(jsonParser.getText());
+                    }
+                    else
+                    {
+                        jsonParser.skipChildren();
+                    }
+                }
+            }
+        }
+    }
+
+    private void printReport(int durationSeconds)
+    {
+        System.out.println();
+        System.out.println(String.format("%-100s %10s %8s %8s %10s %9s %9s %9s %9s",
+                "route", "requests", "4xx", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+
+        long totalRequests = 0;
+        LatencyHistogram allRoutes = new LatencyHistogram();
+        for (Route route : routes)
+        {
+            long requests = route.latencies.getCount();
+            totalRequests += requests;
+            route.latencies.addTo(allRoutes);
+            System.out.println(String.format("%-100s %10d %8d %8d %10.1f %9.2f %9.2f %9.2f %9.2f",
+                    route.method + " " + route.path,
+                    requests,
+                    route.clientErrors.get(),
+                    route.errors.get(),
+                    (double) requests / durationSeconds,
+                    route.latencies.getPercentile(50) / 1000.0,
+                    route.latencies.getPercentile(99) / 1000.0,
+                    route.latencies.getPercentile(99.9) / 1000.0,
+                    route.latencies.getMax() / 1000.0));
+        }
+
+        System.out.println(String.format("%-100s %10d %8s %8s %10.1f %9.2f %9.2f %9.2f %9.2f",
+                "all routes",
+                totalRequests,
+                "",
+                "",
+                (double) totalRequests / durationSeconds,
+                allRoutes.getPercentile(50) / 1000.0,
+                allRoutes.getPercentile(99) / 1000.0,
+                allRoutes.getPercentile(99.9) / 1000.0,
+                allRoutes.getMax() / 1000.0));
+    }
+
+    private static int[] toIntArray(List<Integer> values)
+    {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++)
+        {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+
+    /**
+     * One route of the mix, with its measurements
+     */
+    public static class Route
+    {
+        private final int weight;
+        private final String method;
+        private final String path;
+
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        // the 4xx responses (e.g., a student who is already registered in the class), which are expected in a random mix
+        private final AtomicLong clientErrors = new AtomicLong();
+        // the 5xx responses and the requests that failed (e.g., connection refused or timed out)
+        private final AtomicLong errors = new AtomicLong();
+
+        public Route(int weight, String method, String path)
+        {
+            this.weight = weight;
+            this.method = method;
+            this.path = path;
+        }
+
+        /**
+         * @param mix the routes separated by ';', e.g., "90 GET /students/{studentId};10 GET /classes"
+         */
+        public static List<Route> parseMix(String mix)
+        {
+            List<Route> routes = new ArrayList<>();
+            for (String entry : mix.split(";"))
+            {
+                String trimmedEntry = entry.trim();
+                if (trimmedEntry.isEmpty())
+                {
+                    continue;
+                }
+
+                String[] parts = trimmedEntry.split("\\s+");
+                if (parts.length != 3)
+                {
+                    throw new IllegalArgumentException("expected 'weight METHOD /path' but got '" + trimmedEntry + "'");
+                }
+
+                int weight = Integer.parseInt(parts[0]);
+                if (weight <= 0)
+                {
+                    throw new IllegalArgumentException("the weight must be positive in '" + trimmedEntry + "'");
+                }
+                routes.add(new Route(weight, parts[1].toUpperCase(), parts[2]));
+            }
+
+            if (routes.isEmpty())
+            {
+                throw new IllegalArgumentException("the mix has no route");
+            }
+            return routes;
+        }
+
+        void record(int status, long latencyMicros)
+        {
+            latencies.record(latencyMicros);
+            if (status < 0 || status >= 500)
+            {
+                errors.incrementAndGet();
+            }
+            else if (status >= 400)
+            {
+                clientErrors.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package cs208;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The JMH state shared by the benchmarks of the {@link Database}: a temporary SQLite database file
+ * seeded from schema.sql and seeds.sql, scaled up to the sizes given by the parameters
+ * (see {@link DatasetGenerator}), and a {@link Database} opened on it.
+ *
+ * The parameters can be changed from the command line, for example:
+ *     ./gradlew jmh -Pjmh.students=100000 -Pjmh.storageMode=rollback-journal,wal -Pjmh.storageProfile=durable,throughput
+ */
+@State(Scope.Benchmark)
+public class SeededDatabase
+{
+    @Param({"100"})
+    public int classes;
+
+    @Param({"10000"})
+    public int students;
+
+    @Param({"4"})
+    public int enrollmentsPerStudent;
+
+    // the exponent of the Zipf distribution of the popularity of the classes (0 for a uniform distribution)
+    @Param({"1.0"})
+    public double skew;
+
+    @Param({"rollback-journal"})
+    public String storageMode;
+
+    // durable, balanced or throughput (see StorageProfile)
+    @Param({"balanced"})
+    public String storageProfile;
+
+    // 0 disables the class cache, so the point lookups of classes are measured against the database
+    @Param({"0"})
+    public int classCacheSize;
+
+    public Database database;
+
+    // the rows that exist before the first benchmark runs, from which the benchmarks pick at random
+    private int[] studentIds;
+    private int[] classIds;
+    private String[] classCodes;
+
+    private Path sqliteFile;
+    private PrintStream standardOutput;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException, SQLException
+    {
+        sqliteFile = new DatasetGenerator(classes, students, enrollmentsPerStudent, skew, 208).generateTemporary();
+
+        ApplicationSettings settings = ApplicationSettings.load(new String[]{
+                "--cs208.cache.classes.maximum-size=" + classCacheSize,
+                "--cs208.database.storage-profile=" + storageProfile,
+                "--cs208.trace.mode=off"
+        });
+        database = new Database(sqliteFile.toString(), StorageMode.fromSetting(storageMode), settings);
+        database.getWriterConnection().close();
+        database.seedSeatCounters();
+
+        studentIds = selectIds("SELECT id FROM students ORDER BY id;");
+        // the generated classes only, which have room for the benchmarks that register more students
+        classIds = selectIds("SELECT id FROM classes WHERE description = '" + DatasetGenerator.GENERATED_DESCRIPTION + "' ORDER BY id;");
+        if (classIds.length == 0)
+        {
+            classIds = selectIds("SELECT id FROM classes ORDER BY id;");
+        }
+        classCodes = new String[classIds.length];
+        for (int i = 0; i < classIds.length; i++)
+        {
+            classCodes[i] = database.getClassWithId(classIds[i]).getCode();
+        }
+
+        // the Database methods print every inserted row to the console,
+        // which would measure the speed of the terminal rather than the speed of the database
+        standardOutput = System.out;
+        System.setOut(new PrintStream(new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length)
+            {
+            }
+        }));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException
+    {
+        System.setOut(standardOutput);
+        database.close();
+        Files.deleteIfExists(sqliteFile);
+        Files.deleteIfExists(sqliteFile.resolveSibling(sqliteFile.getFileName() + "-wal"));
+        Files.deleteIfExists(sqliteFile.resolveSibling(sqliteFile.getFileName() + "-shm"));
+    }
+
+    public int randomStudentId()
+    {
+        return studentIds[ThreadLocalRandom.current().nextInt(studentIds.length)];
+    }
+
+    public int randomClassId()
+    {
+        return classIds[ThreadLocalRandom.current().nextInt(classIds.length)];
+    }
+
+    public String randomClassCode()
+    {
+        return classCodes[ThreadLocalRandom.current().nextInt(classCodes.length)];
+    }
+
+    private int[] selectIds(String sql) throws SQLException
+    {
+        List<Integer> ids = new ArrayList<>();
+        try (Connection connection = database.getDatabaseConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(sql))
+        {
+            while (resultSet.next())
+            {
+                ids.add(resultSet.getInt(1));
+            }
+        }
+
+        int[] idArray = new int[ids.size()];
+        for (int i = 0; i < idArray.length; i++)
+        {
+            idArray[i] = ids.get(i);
+        }
+        return idArray;
+    }
+}
@@ -0,0 +1,116 @@
+package cs208;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * The ApplicationSettings class reads the settings from the application.properties file
+ * (on the classpath), which can be overridden with JVM system properties (-Dkey=value)
+ * or with command line arguments (--key=value).
+ *
+ * We need this class because {@link Main} creates the {@link Database} before
+ * the Spring framework starts, so the Spring environment is not available yet.
+ * The Spring framework reads the same application.properties file, so a setting
+ * has the same value in both places.
+ */
+public class ApplicationSettings
+{
+    private final Properties properties;
+
+    public ApplicationSettings(Properties properties)
+    {
+        this.properties = properties;
+    }
+
+    /**
+     * Loads the settings from the application.properties file, the system properties
+     * and the given command line arguments (in this order, the last one wins)
+     *
+     * @param commandLineArguments the arguments passed to {@link Main#main(String[])}
+     * @return the loaded settings
+     */
+    public static ApplicationSettings load(String[] commandLineArguments)
+    {
+        Properties properties = new Properties();
+
+        try (InputStream inputStream = ApplicationSettings.class.getResourceAsStream("/application.properties"))
+        {
+            if (inputStream != null)
+            {
+                properties.load(inputStream);
+            }
+        }
+        catch (IOException ioException)
+        {
+            System.err.println("!!! IOException: failed to read application.properties, using the default settings");
+            System.err.println(ioException.getMessage());
+        }
+
+        properties.putAll(System.getProperties());
+
+        for (String argument : commandLineArguments)
+        {
+            // Spring style arguments, e.g., --cs208.database.pool.maximum-size=16
+            int indexOfEquals = argument.indexOf('=');
+            if (argument.startsWith("--") && indexOfEquals > 2)
+            {
+                properties.setProperty(argument.substring(2, indexOfEquals), argument.substring(indexOfEquals + 1));
+            }
+        }
+
+        return new ApplicationSettings(properties);
+    }
+
+    /**
+     * @return the default settings (i.e., the settings used when there is no application.properties file)
+     */
+    public static ApplicationSettings defaults()
+    {
+        return new ApplicationSettings(new Properties());
+    }
+
+    public String getString(String key, String defaultValue)
+    {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty())
+        {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    public int getInt(String key, int defaultValue)
+    {
+        return (int) getLong(key, defaultValue);
+    }
+
+    public long getLong(String key, long defaultValue)
+    {
+        String value = getString(key, null);
+        if (value == null)
+        {
+            return defaultValue;
+        }
+
+        try
+        {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException numberFormatException)
+        {
+            System.err.println("!!! invalid number '" + value + "' for the setting " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue)
+    {
+        String value = getString(key, null);
+        if (value == null)
+        {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,231 @@
+package cs208;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The row trace sink of the "async-file" mode (see {@link RowTraceSink}).
+ *
+ * The request threads only put the values of the rows in a bounded ring buffer;
+ * a background thread formats them and writes them to a file.
+ * When the ring buffer is full, the oldest rows are dropped (and counted), so the
+ * request threads never wait for the disk.
+ *
+ * When the file grows over maxFileSizeBytes, it is renamed to file.1 (file.1 to file.2, and so on),
+ * and at most maxFiles old files are kept.
+ */
+public class AsyncFileRowTraceSink implements RowTraceSink
+{
+    private final Path traceFile;
+    private final long maxFileSizeBytes;
+    private final int maxFiles;
+
+    private final ArrayBlockingQueue<TraceEvent> ringBuffer;
+    private final AtomicLong droppedRows = new AtomicLong();
+    private final ThreadLocal<String[]> currentColumnNames = new ThreadLocal<>();
+    private final Thread writerThread;
+
+    private volatile boolean closed = false;
+    private BufferedWriter writer;
+    private long currentFileSizeBytes;
+
+    public AsyncFileRowTraceSink(String traceFileName, int bufferSize, long maxFileSizeBytes, int maxFiles)
+    {
+        this.traceFile = Paths.get(traceFileName);
+        this.maxFileSizeBytes = maxFileSizeBytes;
+        this.maxFiles = Math.max(maxFiles, 1);
+        this.ringBuffer = new ArrayBlockingQueue<>(Math.max(bufferSize, 1));
+
+        this.writerThread = new Thread(this::writeRows, "row-trace-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+
+        System.out.println("The rows read from the database are traced to " + traceFile.toAbsolutePath());
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return true;
+    }
+
+    @Override
+    public void header(String... columnNames)
+    {
+        currentColumnNames.set(columnNames);
+    }
+
+    @Override
+    public void row(Object... values)
+    {
+        TraceEvent traceEvent = new TraceEvent(System.currentTimeMillis(), Thread.currentThread().getName(), currentColumnNames.get(), values);
+
+        // a ring buffer: when it is full, we drop the oldest row to make room for the newest one
+        while (!ringBuffer.offer(traceEvent))
+        {
+            if (ringBuffer.poll() != null)
+            {
+                droppedRows.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return the number of rows dropped because the ring buffer was full
+     */
+    public long getDroppedRows()
+    {
+        return droppedRows.get();
+    }
+
+    private void writeRows()
+    {
+        List<TraceEvent> batch = new ArrayList<>();
+        long droppedRowsReported = 0;
+
+        while (!closed || !ringBuffer.isEmpty())
+        {
+            try
+            {
+                TraceEvent first = ringBuffer.poll(1, TimeUnit.SECONDS);
+                if (first == null)
+                {
+                    continue;
+                }
+
+                batch.add(first);
+                ringBuffer.drainTo(batch);
+
+                long droppedRowsSoFar = droppedRows.get();
+                if (droppedRowsSoFar > droppedRowsReported)
+                {
+                    writeLine("!!! " + (droppedRowsSoFar - droppedRowsReported) + " rows dropped (the ring buffer was full)");
+                    droppedRowsReported = droppedRowsSoFar;
+                }
+
+                for (TraceEvent traceEvent : batch)
+                {
+                    writeLine(Instant.ofEpochMilli(traceEvent.timestampMillis) + " [" + traceEvent.threadName + "] " +
+                            RowTraceSink.format(traceEvent.columnNames, traceEvent.values));
+                }
+                writer.flush();
+            }
+            catch (InterruptedException interruptedException)
+            {
+                // the loop still writes whatever is left in the ring buffer
+                closed = true;
+            }
+            catch (IOException ioException)
+            {
+                System.err.println("!!! IOException: failed to write the row trace to " + traceFile);
+                System.err.println(ioException.getMessage());
+            }
+            finally
+            {
+                batch.clear();
+            }
+        }
+
+        closeWriter();
+    }
+
+    private void writeLine(String line) throws IOException
+    {
+        if (writer == null || currentFileSizeBytes >= maxFileSizeBytes)
+        {
+            rollFile();
+        }
+
+        writer.write(line);
+        writer.newLine();
+        currentFileSizeBytes += line.length() + 1;
+    }
+
+    private void rollFile() throws IOException
+    {
+        if (writer != null)
+        {
+            closeWriter();
+
+            // file.(maxFiles - 1) -> file.maxFiles, ..., file -> file.1
+            for (int i = maxFiles - 1; i >= 0; i--)
+            {
+                Path source = i == 0 ? traceFile : Paths.get(traceFile + "." + i);
+                if (Files.exists(source))
+                {
+                    Files.move(source, Paths.get(traceFile + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+
+        writer = Files.newBufferedWriter(traceFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        currentFileSizeBytes = Files.size(traceFile);
+    }
+
+    private void closeWriter()
+    {
+        if (writer == null)
+        {
+            return;
+        }
+
+        try
+        {
+            writer.close();
+        }
+        catch (IOException ioException)
+        {
+            System.err.println("!!! IOException: failed to close the row trace file " + traceFile);
+            System.err.println(ioException.getMessage());
+        }
+        writer = null;
+    }
+
+    /**
+     * Stops the background thread after it has written the rows left in the ring buffer
+     */
+    @Override
+    public void close()
+    {
+        // we do not interrupt the thread, because an interrupted thread cannot write to a file channel;
+        // it notices the flag within a second (see the poll timeout in writeRows)
+        closed = true;
+        try
+        {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException interruptedException)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static class TraceEvent
+    {
+        private final long timestampMillis;
+        private final String threadName;
+        private final String[] columnNames;
+        private final Object[] values;
+
+        TraceEvent(long timestampMillis, String threadName, String[] columnNames, Object[] values)
+        {
+            this.timestampMillis = timestampMillis;
+            this.threadName = threadName;
+            this.columnNames = columnNames;
+            this.values = values;
+        }
+    }
+}
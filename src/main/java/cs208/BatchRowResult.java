@@ -0,0 +1,54 @@
+package cs208;
+
+/**
+ * The BatchRowResult class reports what happened to one row of a bulk request, for example
+ *    POST /classes/batch
+ * returns one BatchRowResult for every element of the JSON array in the body of the request:
+ * {
+ *   "index": 3,
+ *   "id": 42,
+ *   "error": null
+ * }
+ *
+ * index is the position of the row in the request (starting from 0),
+ * id is the id generated for the inserted row (or null if the row was rejected), and
+ * error is the reason why the row was rejected (or null if the row was inserted).
+ */
+public class BatchRowResult
+{
+    private final int index;
+    private final Integer id;
+    private final String error;
+
+    private BatchRowResult(int index, Integer id, String error)
+    {
+        this.index = index;
+        this.id = id;
+        this.error = error;
+    }
+
+    public static BatchRowResult inserted(int index, int id)
+    {
+        return new BatchRowResult(index, id, null);
+    }
+
+    public static BatchRowResult rejected(int index, String error)
+    {
+        return new BatchRowResult(index, null, error);
+    }
+
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public Integer getId()
+    {
+        return id;
+    }
+
+    public String getError()
+    {
+        return error;
+    }
+}
@@ -8,6 +8,16 @@ public class Class
     private String description;
     private int maxStudents;
 
+    // the default of the max_students column (see schema.sql)
+    public static final int DEFAULT_MAX_STUDENTS = 10;
+
+    // used by the Spring framework to create the classes sent as JSON (e.g., to POST /classes/batch);
+    // a class sent without "maxStudents" gets the default of the classes table
+    public Class()
+    {
+        this.maxStudents = DEFAULT_MAX_STUDENTS;
+    }
+
     public Class(String code, String title, String description, int maxStudents)
     {
         this.code = code;
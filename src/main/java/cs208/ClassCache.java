@@ -0,0 +1,249 @@
+package cs208;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ClassCache class keeps recently read {@link Class} objects in memory, by id and by code,
+ * so that the routes that look up the same classes over and over do not have to query the database.
+ *
+ * - at most maximumSize classes are kept; the least recently used class is evicted first
+ * - a class is reloaded from the database after timeToLiveMillis
+ * - the {@link Database} methods that modify the classes table invalidate the cache
+ *
+ * The cache stores its own copies of the classes and returns new copies,
+ * so the callers can modify the returned objects (e.g., before an update) without changing the cache.
+ */
+public class ClassCache
+{
+    private final int maximumSize;
+    private final long timeToLiveMillis;
+
+    // accessOrder = true turns the LinkedHashMap into an LRU list (the least recently used entry is first)
+    private final LinkedHashMap<Integer, CachedClass> classesById = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, Integer> idsByCode = new HashMap<>();
+
+    // incremented by every invalidation; a class loaded before an invalidation is not cached (see put)
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maximumSize the maximum number of classes kept in memory (0 disables the cache)
+     * @param timeToLiveMillis how long a class is kept before it is read again from the database
+     */
+    public ClassCache(int maximumSize, long timeToLiveMillis)
+    {
+        this.maximumSize = maximumSize;
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    public boolean isEnabled()
+    {
+        return maximumSize > 0;
+    }
+
+    /**
+     * @return the generation to pass to {@link #put(Class, long)} after loading a class from the database
+     */
+    public long currentGeneration()
+    {
+        return generation.get();
+    }
+
+    /**
+     * @return a copy of the cached class with the given id, or null if it is not cached (or expired)
+     */
+    public Class getById(int id)
+    {
+        if (!isEnabled())
+        {
+            return null;
+        }
+
+        synchronized (this)
+        {
+            return lookUp(id);
+        }
+    }
+
+    /**
+     * @return a copy of the cached class with the given code, or null if it is not cached (or expired)
+     */
+    public Class getByCode(String code)
+    {
+        if (!isEnabled())
+        {
+            return null;
+        }
+
+        synchronized (this)
+        {
+            return lookUp(idsByCode.get(code));
+        }
+    }
+
+    // must be called while holding the lock of this object
+    private Class lookUp(Integer id)
+    {
+        CachedClass cachedClass = id == null ? null : classesById.get(id);
+        if (cachedClass == null || isExpired(cachedClass))
+        {
+            if (cachedClass != null)
+            {
+                remove(cachedClass.classObject);
+            }
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        hitCount.incrementAndGet();
+        return copyOf(cachedClass.classObject);
+    }
+
+    /**
+     * Caches a class loaded from the database
+     *
+     * @param classObject the class loaded from the database
+     * @param generationBeforeLoading the value of {@link #currentGeneration()} before the class was loaded;
+     *                                if the cache was invalidated in the meantime, the class may be stale and is not cached
+     */
+    public void put(Class classObject, long generationBeforeLoading)
+    {
+        if (!isEnabled())
+        {
+            return;
+        }
+
+        synchronized (this)
+        {
+            if (generation.get() != generationBeforeLoading)
+            {
+                return;
+            }
+
+            CachedClass previous = classesById.get(classObject.getId());
+            if (previous != null)
+            {
+                idsByCode.remove(previous.classObject.getCode(), previous.classObject.getId());
+            }
+
+            classesById.put(classObject.getId(), new CachedClass(copyOf(classObject), System.currentTimeMillis()));
+            if (classObject.getCode() != null)
+            {
+                idsByCode.put(classObject.getCode(), classObject.getId());
+            }
+
+            Iterator<CachedClass> leastRecentlyUsed = classesById.values().iterator();
+            while (classesById.size() > maximumSize && leastRecentlyUsed.hasNext())
+            {
+                CachedClass evicted = leastRecentlyUsed.next();
+                leastRecentlyUsed.remove();
+                idsByCode.remove(evicted.classObject.getCode(), evicted.classObject.getId());
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes the class with the given id (called after the class was updated or deleted)
+     */
+    public synchronized void invalidate(int id)
+    {
+        generation.incrementAndGet();
+
+        CachedClass cachedClass = classesById.get(id);
+        if (cachedClass != null)
+        {
+            remove(cachedClass.classObject);
+        }
+    }
+
+    /**
+     * Removes the class with the given code (called after a class was inserted, because
+     * a class with the same code could have been cached before it was deleted)
+     */
+    public synchronized void invalidate(String code)
+    {
+        generation.incrementAndGet();
+
+        Integer id = idsByCode.get(code);
+        if (id != null)
+        {
+            invalidate(id);
+        }
+    }
+
+    /**
+     * Removes all the classes
+     */
+    public synchronized void invalidateAll()
+    {
+        generation.incrementAndGet();
+        classesById.clear();
+        idsByCode.clear();
+    }
+
+    private void remove(Class classObject)
+    {
+        classesById.remove(classObject.getId());
+        idsByCode.remove(classObject.getCode(), classObject.getId());
+    }
+
+    private boolean isExpired(CachedClass cachedClass)
+    {
+        return System.currentTimeMillis() - cachedClass.loadedAtMillis > timeToLiveMillis;
+    }
+
+    private static Class copyOf(Class classObject)
+    {
+        return new Class(classObject.getId(), classObject.getCode(), classObject.getTitle(), classObject.getDescription(), classObject.getMaxStudents());
+    }
+
+    public synchronized int size()
+    {
+        return classesById.size();
+    }
+
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return the fraction of the lookups answered from the cache (0 if there were no lookups)
+     */
+    public double getHitRatio()
+    {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+
+    private static class CachedClass
+    {
+        private final Class classObject;
+        private final long loadedAtMillis;
+
+        CachedClass(Class classObject, long loadedAtMillis)
+        {
+            this.classObject = classObject;
+            this.loadedAtMillis = loadedAtMillis;
+        }
+    }
+}
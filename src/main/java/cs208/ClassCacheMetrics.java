@@ -0,0 +1,42 @@
+package cs208;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the statistics of the {@link ClassCache} of {@link Main#database}
+ * to the actuator, for example:
+ *    http://localhost:8080/actuator/metrics/cs208.cache.classes.hit.ratio
+ */
+@Component
+public class ClassCacheMetrics implements MeterBinder
+{
+    @Override
+    public void bindTo(MeterRegistry meterRegistry)
+    {
+        ClassCache classCache = Main.database.getClassCache();
+
+        Gauge.builder("cs208.cache.classes.hit.ratio", classCache, ClassCache::getHitRatio)
+                .description("fraction of the class lookups answered from the cache")
+                .register(meterRegistry);
+
+        Gauge.builder("cs208.cache.classes.size", classCache, ClassCache::size)
+                .description("number of classes in the cache")
+                .register(meterRegistry);
+
+        FunctionCounter.builder("cs208.cache.classes.hits", classCache, ClassCache::getHitCount)
+                .description("number of class lookups answered from the cache")
+                .register(meterRegistry);
+
+        FunctionCounter.builder("cs208.cache.classes.misses", classCache, ClassCache::getMissCount)
+                .description("number of class lookups that had to query the database")
+                .register(meterRegistry);
+
+        FunctionCounter.builder("cs208.cache.classes.evictions", classCache, ClassCache::getEvictionCount)
+                .description("number of least recently used classes removed to make room in the cache")
+                .register(meterRegistry);
+    }
+}
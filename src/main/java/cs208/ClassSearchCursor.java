@@ -0,0 +1,80 @@
+package cs208;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * The ClassSearchCursor is the position of a row in the results of a search of the classes
+ * (see {@link Database#searchClassesPage(String, ClassSearchCursor, int)}), which are sorted by
+ *      rank (the bm25 score of the class, the best match first)
+ * and by classes.id, to tell apart the classes with the same rank.
+ *
+ * The cursor is sent to the clients as an opaque, URL-safe string (see {@link #encode()}),
+ * which they pass back in the "after" parameter to get the next page.
+ */
+public class ClassSearchCursor
+{
+    private final double rank;
+    private final int classId;
+
+    public ClassSearchCursor(double rank, int classId)
+    {
+        this.rank = rank;
+        this.classId = classId;
+    }
+
+    public double getRank()
+    {
+        return rank;
+    }
+
+    public int getClassId()
+    {
+        return classId;
+    }
+
+    /**
+     * @return the cursor as a URL-safe string
+     */
+    public String encode()
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            // the exact bits of the rank, so the next page starts exactly after this row
+            output.writeDouble(rank);
+            output.writeInt(classId);
+            output.flush();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        }
+        catch (IOException ioException)
+        {
+            // cannot happen when writing to a ByteArrayOutputStream
+            throw new IllegalStateException(ioException);
+        }
+    }
+
+    /**
+     * @param encodedCursor a string returned by {@link #encode()}
+     * @return the decoded cursor
+     * @throws IllegalArgumentException if the string is not a valid cursor
+     */
+    public static ClassSearchCursor decode(String encodedCursor)
+    {
+        try
+        {
+            byte[] bytes = Base64.getUrlDecoder().decode(encodedCursor);
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+            return new ClassSearchCursor(input.readDouble(), input.readInt());
+        }
+        catch (IOException | IllegalArgumentException exception)
+        {
+            throw new IllegalArgumentException("invalid cursor '" + encodedCursor + "'", exception);
+        }
+    }
+}
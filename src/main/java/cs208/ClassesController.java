@@ -2,18 +2,22 @@ package cs208;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.sql.Date;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -28,16 +32,39 @@ import java.util.List;
 @RestController
 public class ClassesController
 {
+    private final JsonRowStreamer jsonRowStreamer;
+
+    public ClassesController(JsonRowStreamer jsonRowStreamer)
+    {
+        this.jsonRowStreamer = jsonRowStreamer;
+    }
 
     /**
      * http://localhost:8080/classes
      * GET /classes
+     * with the following optional query parameters:
+     *      after (the id of the last class of the previous page)
+     *      limit (the maximum number of classes in the page)
+     *
+     * Without the query parameters, all the classes are returned.
+     * With any of them, one page of classes (sorted by id) is returned,
+     * and the link to the next page is in the Link header (see {@link Pagination}).
      *
      * @return a list of classes (extracted from the classes table in the database) as JSON
      */
     @GetMapping(value = "/classes", produces = MediaType.APPLICATION_JSON_VALUE)
-    List<Class> index()
+    ResponseEntity<List<Class>> index(
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit
+    )
     {
+        if (after != null || limit != null)
+        {
+            int pageLimit = Pagination.limitOrDefault(limit);
+            Page<Class> pageOfClasses = Main.database.listClassesPage(Pagination.idCursorOrFirst(after), pageLimit);
+            return Pagination.toResponseEntity(pageOfClasses, pageLimit);
+        }
+
         List<Class> listOfClasses = Main.database.listAllClasses();
 
         // because we used the following annotation:
@@ -46,7 +73,88 @@ public class ClassesController
         // the internal libraries of the Spring framework will automatically
         // convert the listOfClasses object to a JSON array of class objects
         // and return it to the client
-        return listOfClasses;
+        return ResponseEntity.ok(listOfClasses);
+    }
+
+
+    /**
+     * http://localhost:8080/classes?stream=true
+     * GET /classes?stream=true
+     *
+     * Same as {@link #index(String, Integer)} without pagination, but the classes are written
+     * to the response while they are read from the database (see {@link JsonRowStreamer}),
+     * which is meant for exporting the whole table.
+     *
+     * @return all the classes (extracted from the classes table in the database) as a JSON array
+     */
+    @GetMapping(value = "/classes", params = "stream=true", produces = MediaType.APPLICATION_JSON_VALUE)
+    StreamingResponseBody streamAllClasses()
+    {
+        return jsonRowStreamer.streamAsJsonArray(Main.database::streamAllClasses);
+    }
+
+
+    /**
+     * http://localhost:8080/classes/search?q=intro+programming
+     * GET /classes/search
+     * with the following query parameters:
+     *      q (the words to search for in the titles and the descriptions of the classes)
+     *      after (optional, the X-Next-Cursor header of the previous page)
+     *      limit (optional, the maximum number of classes in the page)
+     *
+     * Returns one page of the classes that match all the words of q, the best match first
+     * (see {@link Database#searchClassesPage(String, ClassSearchCursor, int)}),
+     * and the link to the next page is in the Link header (see {@link Pagination}).
+     *
+     * @return a list of classes (found through the classes_search full-text index) as JSON
+     *
+     * @throws ResponseStatusException: a 400 status code if q is blank or the cursor is not valid,
+     *                                  a 503 status code if the full-text index could not be created at startup
+     */
+    @GetMapping(value = "/classes/search", produces = MediaType.APPLICATION_JSON_VALUE)
+    ResponseEntity<List<Class>> search(
+            @RequestParam("q") String q,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit
+    )
+    {
+        System.out.println("q = " + q);
+
+        if (!Main.database.isSearchIndexAvailable())
+        {
+            throw new ResponseStatusException(
+                    HttpStatus.SERVICE_UNAVAILABLE,
+                    "the search is not available (the full-text index could not be created)"
+            );
+        }
+
+        if (q.trim().isEmpty())
+        {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST,
+                    "q should contain the words to search for"
+            );
+        }
+
+        ClassSearchCursor cursor = null;
+        if (after != null)
+        {
+            try
+            {
+                cursor = ClassSearchCursor.decode(after);
+            }
+            catch (IllegalArgumentException illegalArgumentException)
+            {
+                throw new ResponseStatusException(
+                        HttpStatus.BAD_REQUEST,
+                        "after should be the X-Next-Cursor header of the previous page"
+                );
+            }
+        }
+
+        int pageLimit = Pagination.limitOrDefault(limit);
+        Page<Class> pageOfClasses = Main.database.searchClassesPage(q, cursor, pageLimit);
+        return Pagination.toResponseEntity(pageOfClasses, pageLimit);
     }
 
 
@@ -130,6 +238,114 @@ public class ClassesController
     }
 
 
+    /**
+     * POST /classes/batch
+     * with a JSON array of classes in the body of the request, for example:
+     * [
+     *   {"code": "CS 101", "title": "Intro to CS Principles", "description": "...", "maxStudents": 40},
+     *   {"code": "CS 121", "title": "Computer Science I", "description": "...", "maxStudents": 35}
+     * ]
+     *
+     * A class without "maxStudents" gets the default of the classes table ({@link Class#DEFAULT_MAX_STUDENTS});
+     * a class with a "maxStudents" that is null, 0 or negative is rejected.
+     *
+     * All the valid classes are inserted into the classes table in one transaction
+     * (see {@link Database#addNewClasses(List)}), which is much faster than one POST /classes per class.
+     *
+     * @return one {@link BatchRowResult} per class of the request (in the same order), as JSON,
+     *         with the generated id of every inserted class, and the reason why every other class was rejected
+     */
+    @PostMapping(value = "/classes/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    List<BatchRowResult> createBatch(@RequestBody List<Class> newClasses)
+    {
+        System.out.println("newClasses.size() = " + newClasses.size());
+
+        String[] rejectionReasons = new String[newClasses.size()];
+        List<Class> validClasses = new ArrayList<>();
+        for (int i = 0; i < newClasses.size(); i++)
+        {
+            rejectionReasons[i] = validate(newClasses.get(i));
+            if (rejectionReasons[i] == null)
+            {
+                validClasses.add(newClasses.get(i));
+            }
+        }
+
+        List<String> databaseRejectionReasons;
+        try
+        {
+            databaseRejectionReasons = Main.database.addNewClasses(validClasses);
+        }
+        catch (SQLException e)
+        {
+            throw new ResponseStatusException(
+                    HttpStatus.UNPROCESSABLE_ENTITY, // 422 error code
+                    "failed to add the batch of classes to the database"
+            );
+        }
+
+        List<BatchRowResult> results = new ArrayList<>();
+        int validClassIndex = 0;
+        for (int i = 0; i < newClasses.size(); i++)
+        {
+            if (rejectionReasons[i] == null)
+            {
+                rejectionReasons[i] = databaseRejectionReasons.get(validClassIndex++);
+            }
+
+            if (rejectionReasons[i] == null)
+            {
+                results.add(BatchRowResult.inserted(i, newClasses.get(i).getId()));
+            }
+            else
+            {
+                results.add(BatchRowResult.rejected(i, rejectionReasons[i]));
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * @return the reason why the class cannot be inserted, or null if it is valid
+     */
+    private static String validate(Class newClass)
+    {
+        if (newClass == null)
+        {
+            return "the class is null";
+        }
+
+        if (newClass.getCode() == null || newClass.getCode().isEmpty())
+        {
+            return "the class code is missing";
+        }
+
+        if (newClass.getCode().length() > 10)
+        {
+            return "class code should be less than 10 characters";
+        }
+
+        if (newClass.getTitle() == null || newClass.getTitle().isEmpty())
+        {
+            return "the class title is missing";
+        }
+
+        // a "maxStudents": null is read as 0
+        if (newClass.getMaxStudents() == 0)
+        {
+            return "maxStudents is null or 0";
+        }
+
+        if (newClass.getMaxStudents() < 0)
+        {
+            return "maxStudents should be a positive number";
+        }
+
+        return null;
+    }
+
+
     /**
      * PUT /classes/{id}
      * with the following form parameters:
@@ -317,7 +533,7 @@ public class ClassesController
      *
      * NOTE:
      *  - this is not the preferred way to return JSON, this is just for demonstration purposes
-     *  - see method {@link #index()} for the preferred way, which uses the
+     *  - see method {@link #index(String, Integer)} for the preferred way, which uses the
      *    internal libraries of the Spring framework to automatically convert the returned object
      *    to JSON format and return it to the client
      *
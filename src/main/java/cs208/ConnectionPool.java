@@ -0,0 +1,583 @@
+package cs208;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ConnectionPool class keeps a bounded number of open connections to the SQLite database,
+ * so that we do not have to open a new connection (and parse the connection settings) for every request.
+ *
+ * A connection borrowed with {@link #getConnection()} is returned to the pool when it is closed,
+ * so the usual try-with-resources blocks in the {@link Database} class work without any changes.
+ *
+ * Connections that were idle for a while are validated before they are handed out again,
+ * and connections that were idle for longer than the idle timeout are closed by a background thread.
+ *
+ * Each connection keeps its own {@link StatementCache}, so the prepared statements
+ * survive when the connection is returned to the pool and borrowed again.
+ */
+public class ConnectionPool implements AutoCloseable
+{
+    // connections that were used less than this many milliseconds ago are not validated again
+    private static final long VALIDATION_BYPASS_WINDOW_MILLIS = 500;
+
+    private final String name;
+    private final String databaseConnectionURL;
+    private final Properties connectionProperties;
+    private final int maximumPoolSize;
+    private final int minimumIdle;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    // one permit per connection that can be borrowed; waiting for a permit is how we bound the pool
+    private final Semaphore permits;
+
+    // the most recently returned connection is at the front, so the warmest connection is reused first
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+
+    private final ScheduledExecutorService idleConnectionEvictor;
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger borrowedConnections = new AtomicInteger();
+    private final AtomicInteger pendingAcquires = new AtomicInteger();
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong acquireTimeNanos = new AtomicLong();
+    private final AtomicLong acquireTimeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong validationFailureCount = new AtomicLong();
+    private final AtomicLong statementCacheHitCount = new AtomicLong();
+    private final AtomicLong statementCacheMissCount = new AtomicLong();
+    private final AtomicLong statementCacheEvictionCount = new AtomicLong();
+
+    private volatile boolean closed = false;
+
+    public ConnectionPool(
+            String name,
+            String databaseConnectionURL,
+            Properties connectionProperties,
+            int maximumPoolSize,
+            int minimumIdle,
+            long acquireTimeoutMillis,
+            long idleTimeoutMillis,
+            int validationTimeoutSeconds,
+            int statementCacheSize
+    )
+    {
+        if (maximumPoolSize < 1)
+        {
+            throw new IllegalArgumentException("the maximum pool size should be at least 1, but was " + maximumPoolSize);
+        }
+
+        this.name = name;
+        this.databaseConnectionURL = databaseConnectionURL;
+        this.connectionProperties = connectionProperties;
+        this.maximumPoolSize = maximumPoolSize;
+        this.minimumIdle = Math.min(Math.max(minimumIdle, 0), maximumPoolSize);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+
+        // a fair semaphore hands out connections in the order in which the requests asked for them
+        this.permits = new Semaphore(maximumPoolSize, true);
+
+        this.idleConnectionEvictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-idle-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long evictionPeriodMillis = Math.max(1000, idleTimeoutMillis / 2);
+        this.idleConnectionEvictor.scheduleWithFixedDelay(this::evictIdleConnections, evictionPeriodMillis, evictionPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if there is no idle connection
+     *
+     * @return a connection that is returned to the pool when its close() method is called
+     * @throws SQLTimeoutException if no connection became available within the acquire timeout
+     * @throws SQLException if we cannot connect to the database (e.g., missing driver)
+     */
+    public Connection getConnection() throws SQLException
+    {
+        if (closed)
+        {
+            throw new SQLException("the connection pool '" + name + "' is closed");
+        }
+
+        long startTime = System.nanoTime();
+        pendingAcquires.incrementAndGet();
+        try
+        {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS))
+            {
+                acquireTimeoutCount.incrementAndGet();
+                throw new SQLTimeoutException(
+                        "timed out after " + acquireTimeoutMillis + " ms waiting for a connection from the pool '" + name + "' " +
+                        "(" + borrowedConnections.get() + " of " + maximumPoolSize + " connections in use)"
+                );
+            }
+        }
+        catch (InterruptedException interruptedException)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection from the pool '" + name + "'", interruptedException);
+        }
+        finally
+        {
+            pendingAcquires.decrementAndGet();
+        }
+
+        try
+        {
+            PooledConnection pooledConnection = takeIdleConnection();
+            if (pooledConnection == null)
+            {
+                pooledConnection = openConnection();
+            }
+
+            pooledConnection.lend();
+            borrowedConnections.incrementAndGet();
+            acquireCount.incrementAndGet();
+            acquireTimeNanos.addAndGet(System.nanoTime() - startTime);
+            return pooledConnection.proxy;
+        }
+        catch (SQLException | RuntimeException exception)
+        {
+            permits.release();
+            throw exception;
+        }
+    }
+
+    private PooledConnection takeIdleConnection()
+    {
+        PooledConnection pooledConnection;
+        while ((pooledConnection = idleConnections.pollFirst()) != null)
+        {
+            if (isStillValid(pooledConnection))
+            {
+                return pooledConnection;
+            }
+
+            validationFailureCount.incrementAndGet();
+            closePhysicalConnection(pooledConnection);
+        }
+        return null;
+    }
+
+    private boolean isStillValid(PooledConnection pooledConnection)
+    {
+        if (System.currentTimeMillis() - pooledConnection.lastReturnedAtMillis < VALIDATION_BYPASS_WINDOW_MILLIS)
+        {
+            return true;
+        }
+
+        try
+        {
+            return pooledConnection.physicalConnection.isValid(validationTimeoutSeconds);
+        }
+        catch (SQLException sqlException)
+        {
+            System.out.println("!!! SQLException: failed to validate a connection from the pool '" + name + "'");
+            System.out.println(sqlException.getMessage());
+            return false;
+        }
+    }
+
+    private PooledConnection openConnection() throws SQLException
+    {
+        try
+        {
+            Connection physicalConnection = DriverManager.getConnection(databaseConnectionURL, connectionProperties);
+            openConnections.incrementAndGet();
+            createdCount.incrementAndGet();
+            return new PooledConnection(physicalConnection);
+        }
+        catch (SQLException sqlException)
+        {
+            System.err.println("SQLException was thrown while trying to connect using the '" + databaseConnectionURL + "' connection URL");
+            System.err.println(sqlException.getMessage());
+            throw sqlException;
+        }
+    }
+
+    /**
+     * Called when the borrower closes the connection
+     */
+    private void returnConnection(PooledConnection pooledConnection)
+    {
+        borrowedConnections.decrementAndGet();
+        try
+        {
+            if (closed || !pooledConnection.resetForReuse())
+            {
+                closePhysicalConnection(pooledConnection);
+            }
+            else
+            {
+                pooledConnection.lastReturnedAtMillis = System.currentTimeMillis();
+                idleConnections.offerFirst(pooledConnection);
+            }
+        }
+        finally
+        {
+            permits.release();
+        }
+    }
+
+    private void evictIdleConnections()
+    {
+        long now = System.currentTimeMillis();
+
+        // the oldest idle connections are at the back of the deque
+        Iterator<PooledConnection> iterator = idleConnections.descendingIterator();
+        while (iterator.hasNext() && idleConnections.size() > minimumIdle)
+        {
+            PooledConnection pooledConnection = iterator.next();
+            if (now - pooledConnection.lastReturnedAtMillis < idleTimeoutMillis)
+            {
+                break;
+            }
+
+            // the connection could have been borrowed in the meantime, in which case remove() returns false
+            if (idleConnections.remove(pooledConnection))
+            {
+                evictedCount.incrementAndGet();
+                closePhysicalConnection(pooledConnection);
+            }
+        }
+    }
+
+    private void closePhysicalConnection(PooledConnection pooledConnection)
+    {
+        openConnections.decrementAndGet();
+        try
+        {
+            if (pooledConnection.statementCache != null)
+            {
+                pooledConnection.statementCache.close();
+            }
+            pooledConnection.physicalConnection.close();
+        }
+        catch (SQLException sqlException)
+        {
+            System.out.println("!!! SQLException: failed to close a connection from the pool '" + name + "'");
+            System.out.println(sqlException.getMessage());
+        }
+    }
+
+    /**
+     * Closes all the idle connections; the borrowed connections are closed when they are returned
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        idleConnectionEvictor.shutdownNow();
+
+        PooledConnection pooledConnection;
+        while ((pooledConnection = idleConnections.pollFirst()) != null)
+        {
+            closePhysicalConnection(pooledConnection);
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getMaximumPoolSize()
+    {
+        return maximumPoolSize;
+    }
+
+    public int getOpenConnections()
+    {
+        return openConnections.get();
+    }
+
+    public int getBorrowedConnections()
+    {
+        return borrowedConnections.get();
+    }
+
+    public int getIdleConnections()
+    {
+        return idleConnections.size();
+    }
+
+    public int getPendingAcquires()
+    {
+        return pendingAcquires.get();
+    }
+
+    public long getAcquireCount()
+    {
+        return acquireCount.get();
+    }
+
+    public long getAcquireTimeNanos()
+    {
+        return acquireTimeNanos.get();
+    }
+
+    public long getAcquireTimeoutCount()
+    {
+        return acquireTimeoutCount.get();
+    }
+
+    public long getCreatedCount()
+    {
+        return createdCount.get();
+    }
+
+    public long getEvictedCount()
+    {
+        return evictedCount.get();
+    }
+
+    public long getValidationFailureCount()
+    {
+        return validationFailureCount.get();
+    }
+
+    public long getStatementCacheHitCount()
+    {
+        return statementCacheHitCount.get();
+    }
+
+    public long getStatementCacheMissCount()
+    {
+        return statementCacheMissCount.get();
+    }
+
+    public long getStatementCacheEvictionCount()
+    {
+        return statementCacheEvictionCount.get();
+    }
+
+
+    /**
+     * A physical connection owned by the pool, together with the proxy that is handed out to the borrowers.
+     *
+     * The proxy forwards every call to the physical connection, except close(), which returns
+     * the connection to the pool. After close() the proxy behaves like a closed connection,
+     * even though the physical connection stays open for the next borrower.
+     */
+    private class PooledConnection implements InvocationHandler
+    {
+        private final Connection physicalConnection;
+        private final Connection proxy;
+        // null when the statement cache is disabled (cs208.database.pool.statement-cache-size=0)
+        private final StatementCache statementCache;
+        // statements opened by the current borrower and not closed yet,
+        // closed when the connection is returned (like a real close() would)
+        private final Set<Statement> openStatements = Collections.newSetFromMap(new IdentityHashMap<>());
+        private volatile boolean borrowed = false;
+        private volatile long lastReturnedAtMillis = System.currentTimeMillis();
+
+        PooledConnection(Connection physicalConnection)
+        {
+            this.physicalConnection = physicalConnection;
+            this.statementCache = statementCacheSize > 0
+                    ? new StatementCache(physicalConnection, statementCacheSize, statementCacheHitCount, statementCacheMissCount, statementCacheEvictionCount)
+                    : null;
+            this.proxy = (Connection) Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(),
+                    new java.lang.Class<?>[]{Connection.class},
+                    this
+            );
+        }
+
+        void lend()
+        {
+            borrowed = true;
+        }
+
+        /**
+         * Undoes whatever the borrower changed on the connection
+         *
+         * @return false if the connection cannot be reused (e.g., it was broken)
+         */
+        boolean resetForReuse()
+        {
+            for (Statement statement : new ArrayList<>(openStatements))
+            {
+                try
+                {
+                    statement.close();
+                }
+                catch (SQLException sqlException)
+                {
+                    System.out.println("!!! SQLException: failed to close a statement left open on the pool '" + name + "'");
+                    System.out.println(sqlException.getMessage());
+                }
+            }
+            openStatements.clear();
+
+            try
+            {
+                if (physicalConnection.isClosed())
+                {
+                    return false;
+                }
+
+                if (!physicalConnection.getAutoCommit())
+                {
+                    // the borrower did not commit, so we discard the unfinished transaction
+                    physicalConnection.rollback();
+                    physicalConnection.setAutoCommit(true);
+                }
+                return true;
+            }
+            catch (SQLException sqlException)
+            {
+                System.out.println("!!! SQLException: failed to reset a connection returned to the pool '" + name + "'");
+                System.out.println(sqlException.getMessage());
+                return false;
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable
+        {
+            switch (method.getName())
+            {
+                case "close":
+                    // closing a connection more than once is allowed, and does nothing the second time
+                    synchronized (this)
+                    {
+                        if (!borrowed)
+                        {
+                            return null;
+                        }
+                        borrowed = false;
+                    }
+                    returnConnection(this);
+                    return null;
+
+                case "isClosed":
+                    return !borrowed || physicalConnection.isClosed();
+
+                case "equals":
+                    return proxy == arguments[0];
+
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+
+                case "toString":
+                    return "PooledConnection[" + name + "]";
+
+                default:
+                    if (!borrowed)
+                    {
+                        throw new SQLException("the connection was already closed (returned to the pool '" + name + "')");
+                    }
+
+                    try
+                    {
+                        Object result = isCacheablePrepareStatement(method, arguments)
+                                ? statementCache.prepareStatement((String) arguments[0], arguments.length == 2 ? (Integer) arguments[1] : Statement.NO_GENERATED_KEYS)
+                                : method.invoke(physicalConnection, arguments);
+                        if (result instanceof Statement)
+                        {
+                            openStatements.add((Statement) result);
+                            return trackClose((Statement) result, method.getReturnType());
+                        }
+                        return result;
+                    }
+                    catch (InvocationTargetException invocationTargetException)
+                    {
+                        throw invocationTargetException.getCause();
+                    }
+            }
+        }
+
+        /**
+         * Wraps a statement handed out to the borrower, so that it is removed from the open statements
+         * as soon as the borrower closes it (a long borrow, e.g., a journal replay, creates many statements)
+         *
+         * @param statement the statement created by the connection or by the statement cache
+         * @param statementInterface Statement, PreparedStatement or CallableStatement
+         * @return the statement, as seen by the borrower
+         */
+        private Object trackClose(Statement statement, java.lang.Class<?> statementInterface)
+        {
+            InvocationHandler closeTracker = (statementProxy, method, arguments) ->
+            {
+                switch (method.getName())
+                {
+                    case "close":
+                        openStatements.remove(statement);
+                        break;
+
+                    case "getConnection":
+                        return proxy;
+
+                    case "equals":
+                        return statementProxy == arguments[0];
+
+                    case "hashCode":
+                        return System.identityHashCode(statementProxy);
+
+                    default:
+                        break;
+                }
+
+                try
+                {
+                    return method.invoke(statement, arguments);
+                }
+                catch (InvocationTargetException invocationTargetException)
+                {
+                    throw invocationTargetException.getCause();
+                }
+            };
+
+            return Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(),
+                    new java.lang.Class<?>[]{statementInterface},
+                    closeTracker
+            );
+        }
+
+        /**
+         * @return true for prepareStatement(String sql) and prepareStatement(String sql, int autoGeneratedKeys)
+         */
+        private boolean isCacheablePrepareStatement(Method method, Object[] arguments)
+        {
+            if (statementCache == null || !method.getName().equals("prepareStatement"))
+            {
+                return false;
+            }
+
+            java.lang.Class<?>[] parameterTypes = method.getParameterTypes();
+            return parameterTypes.length == 1
+                    || (parameterTypes.length == 2 && parameterTypes[1] == int.class);
+        }
+    }
+}
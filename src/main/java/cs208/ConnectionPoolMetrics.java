@@ -0,0 +1,110 @@
+package cs208;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the statistics of the {@link ConnectionPool}s of {@link Main#database}
+ * to the actuator, for example:
+ *    http://localhost:8080/actuator/metrics/cs208.db.pool.connections.borrowed
+ */
+@Component
+public class ConnectionPoolMetrics implements MeterBinder
+{
+    @Override
+    public void bindTo(MeterRegistry meterRegistry)
+    {
+        for (ConnectionPool connectionPool : Main.database.getConnectionPools())
+        {
+            bindTo(meterRegistry, connectionPool);
+        }
+    }
+
+    static void bindTo(MeterRegistry meterRegistry, ConnectionPool connectionPool)
+    {
+        String pool = connectionPool.getName();
+
+        Gauge.builder("cs208.db.pool.connections.max", connectionPool, ConnectionPool::getMaximumPoolSize)
+                .description("maximum number of connections in the pool")
+                .tag("pool", pool)
+                .register(meterRegistry);
+
+        Gauge.builder("cs208.db.pool.connections.open", connectionPool, ConnectionPool::getOpenConnections)
+                .description("number of physical connections currently open")
+                .tag("pool", pool)
+                .register(meterRegistry);
+
+        Gauge.builder("cs208.db.pool.connections.borrowed", connectionPool, ConnectionPool::getBorrowedConnections)
+                .description("number of connections currently in use")
+                .tag("pool", pool)
+                .register(meterRegistry);
+
+        Gauge.builder("cs208.db.pool.connections.idle", connectionPool, ConnectionPool::getIdleConnections)
+                .description("number of open connections waiting to be borrowed")
+                .tag("pool", pool)
+                .register(meterRegistry);
+
+        Gauge.builder("cs208.db.pool.connections.pending", connectionPool, ConnectionPool::getPendingAcquires)
+                .description("number of threads waiting for a connection")
+                .tag("pool", pool)
+                .register(meterRegistry);
+
+        FunctionTimer.builder("cs208.db.pool.acquire", connectionPool, ConnectionPool::getAcquireCount, ConnectionPool::getAcquireTimeNanos, TimeUnit.NANOSECONDS)
+                .description("time spent waiting for a connection from the pool")
+                .tag("pool", pool)
+                .register(meterRegistry);
+
+        FunctionCounter.builder("cs208.db.pool.acquire.timeouts", connectionPool, ConnectionPool::getAcquireTimeoutCount)
+                .description("number of requests that gave up waiting for a connection")
+                .tag("pool", pool)
+                .register(meterRegistry);
+
+        FunctionCounter.builder("cs208.db.pool.connections.created", connectionPool, ConnectionPool::getCreatedCount)
+                .description("number of physical connections opened")
+                .tag("pool", pool)
+                .register(meterRegistry);
+
+        FunctionCounter.builder("cs208.db.pool.connections.evicted", connectionPool, ConnectionPool::getEvictedCount)
+                .description("number of idle connections closed after the idle timeout")
+                .tag("pool", pool)
+                .register(meterRegistry);
+
+        FunctionCounter.builder("cs208.db.pool.connections.validation.failures", connectionPool, ConnectionPool::getValidationFailureCount)
+                .description("number of idle connections that failed validation")
+                .tag("pool", pool)
+                .register(meterRegistry);
+
+        FunctionCounter.builder("cs208.db.statement.cache.hits", connectionPool, ConnectionPool::getStatementCacheHitCount)
+                .description("number of prepared statements reused from the statement cache")
+                .tag("pool", pool)
+                .register(meterRegistry);
+
+        FunctionCounter.builder("cs208.db.statement.cache.misses", connectionPool, ConnectionPool::getStatementCacheMissCount)
+                .description("number of prepared statements that SQLite had to parse")
+                .tag("pool", pool)
+                .register(meterRegistry);
+
+        FunctionCounter.builder("cs208.db.statement.cache.evictions", connectionPool, ConnectionPool::getStatementCacheEvictionCount)
+                .description("number of least recently used statements closed to make room in the statement cache")
+                .tag("pool", pool)
+                .register(meterRegistry);
+
+        Gauge.builder("cs208.db.statement.cache.hit.ratio", connectionPool, ConnectionPoolMetrics::statementCacheHitRatio)
+                .description("fraction of the prepared statements reused from the statement cache")
+                .tag("pool", pool)
+                .register(meterRegistry);
+    }
+
+    private static double statementCacheHitRatio(ConnectionPool connectionPool)
+    {
+        long hits = connectionPool.getStatementCacheHitCount();
+        long total = hits + connectionPool.getStatementCacheMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
@@ -1,16 +1,25 @@
 package cs208;
 
+import io.micrometer.core.instrument.Metrics;
 import org.sqlite.SQLiteConfig;
 
+import java.io.IOException;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.Date;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
 
 
 /**
@@ -20,40 +29,436 @@ import java.util.List;
  * with the SQLite database.
  */
 public class Database {
+    // the maximum number of ids in one IN list (older versions of SQLite accept at most 999 parameters per statement)
+    private static final int MAXIMUM_IN_LIST_SIZE = 512;
+    // the number of rows read with one connection by the streaming exports (e.g., GET /classes?stream=true)
+    private static final int STREAM_PAGE_SIZE = Pagination.MAXIMUM_LIMIT;
+
     private final String sqliteFileName;
+    private final StorageMode storageMode;
+
+    // the tuning of every connection (see cs208.database.storage-profile in application.properties)
+    private final StorageProfile storageProfile;
+
+    // in the ROLLBACK_JOURNAL storage mode, readerPool and writerPool are the same pool
+    private final ConnectionPool readerPool;
+    private final ConnectionPool writerPool;
+
+    // the classes read recently (see cs208.cache.classes.* in application.properties)
+    private final ClassCache classCache;
+
+    // the number of changes made to each table (see TableVersions)
+    private final TableVersions tableVersions = new TableVersions();
+
+    // the seats taken in every class, which enforce classes.max_students (seeded by seedSeatCounters)
+    private final SeatCounters seatCounters = new SeatCounters();
+
+    // hands out the ids of the new students (see cs208.database.id-block-size in application.properties)
+    private final IdBlockAllocator studentIdAllocator;
+
+    // receives the rows read by the queries, for debugging (see cs208.trace.mode in application.properties)
+    private final RowTraceSink rowTraceSink;
+
+    // measures every operation (see cs208.metrics.database.enabled in application.properties)
+    private final DatabaseMetrics databaseMetrics;
+
+    // the settings of the write-behind pipeline
+    // (see cs208.database.write-coalescer.* and cs208.journal.* in application.properties)
+    private final boolean writeCoalescerEnabled;
+    private final int writeCoalescerMaximumBatchSize;
+    private final long writeCoalescerWindowMillis;
+    private final long writeCoalescerSubmitTimeoutMillis;
+    private final boolean journalEnabled;
+    private final String journalFileName;
+    private final long journalCompactBytes;
+
+    // applies the mutations in groups, once started by startWriteBehindPipeline (null until then)
+    private volatile WriteBehindPipeline writeBehindPipeline;
+
+    // set by createMissingSearchIndex once the classes_search full-text index exists
+    private volatile boolean searchIndexAvailable;
+
+    // the undo actions of the transaction of mutateInTransaction running in this thread, without the write-behind pipeline
+    private final ThreadLocal<List<Runnable>> transactionUndoActions = new ThreadLocal<>();
 
     public Database(String sqliteFileName) {
-        this.sqliteFileName = sqliteFileName;
+        this(sqliteFileName, StorageMode.ROLLBACK_JOURNAL, ApplicationSettings.defaults());
     }
 
     /**
-     * Creates a connection to the SQLite database file specified in the {@link #Database(String) constructor}
-     *
-     * @return a connection to the database, which can be used to execute SQL statements against in the database
-     * @throws SQLException if we cannot connect to the database (e.g., missing driver)
+     * @param sqliteFileName the name of the SQLite database file
+     * @param storageMode how the SQLite database file is opened (see {@link StorageMode})
+     * @param settings the settings used to configure the connection pools, for example:
+     *                 cs208.database.storage-profile (see {@link StorageProfile}),
+     *                 cs208.database.pool.maximum-size,
+     *                 cs208.database.pool.minimum-idle,
+     *                 cs208.database.pool.acquire-timeout-ms,
+     *                 cs208.database.pool.idle-timeout-ms,
+     *                 cs208.database.pool.validation-timeout-seconds,
+     *                 cs208.database.pool.statement-cache-size and
+     *                 cs208.database.writer.acquire-timeout-ms (WAL storage mode only);
+     *                 and the settings of the row trace sink (see {@link RowTraceSink})
+     *                 and of the class cache (cs208.cache.classes.maximum-size and cs208.cache.classes.ttl-ms),
+     *                 the number of ids reserved at once for new students (cs208.database.id-block-size),
+     *                 whether the operations are measured (cs208.metrics.database.enabled, see {@link DatabaseMetrics}),
+     *                 and the settings of the write coalescer and of the mutation journal
+     *                 (cs208.database.write-coalescer.* and cs208.journal.*, see {@link #startWriteBehindPipeline()})
      */
-    public Connection getDatabaseConnection() throws SQLException {
+    public Database(String sqliteFileName, StorageMode storageMode, ApplicationSettings settings) {
+        this.sqliteFileName = sqliteFileName;
+        this.storageMode = storageMode;
+        this.storageProfile = StorageProfile.fromSetting(settings.getString("cs208.database.storage-profile", "balanced"));
+        this.rowTraceSink = RowTraceSink.fromSettings(settings);
+        this.databaseMetrics = new DatabaseMetrics(Metrics.globalRegistry, settings.getBoolean("cs208.metrics.database.enabled", true));
+        this.studentIdAllocator = new IdBlockAllocator(
+                "students",
+                settings.getInt("cs208.database.id-block-size", 100),
+                blockSize -> reserveIdBlock("students", blockSize)
+        );
+        this.classCache = new ClassCache(
+                settings.getInt("cs208.cache.classes.maximum-size", 1000),
+                settings.getLong("cs208.cache.classes.ttl-ms", 60000)
+        );
+        this.writeCoalescerEnabled = settings.getBoolean("cs208.database.write-coalescer.enabled", false);
+        this.writeCoalescerMaximumBatchSize = settings.getInt("cs208.database.write-coalescer.maximum-batch-size", 256);
+        this.writeCoalescerWindowMillis = settings.getLong("cs208.database.write-coalescer.window-ms", 1);
+        this.writeCoalescerSubmitTimeoutMillis = settings.getLong("cs208.database.write-coalescer.submit-timeout-ms", 30000);
+        this.journalEnabled = settings.getBoolean("cs208.journal.enabled", false);
+        this.journalFileName = settings.getString("cs208.journal.file", sqliteFileName + ".journal");
+        this.journalCompactBytes = settings.getLong("cs208.journal.compact-bytes", 64L * 1024 * 1024);
+
         // NOTE:
         // 'jdbc' is the protocol or API for connecting from a Java application to a database (SQLite, PostgreSQL, etc.)
         // 'sqlite' is the format of the database (for PostgreSQL, we would use the 'postgresql' format)
         String databaseConnectionURL = "jdbc:sqlite:" + sqliteFileName;
         System.out.println("databaseConnectionURL = " + databaseConnectionURL);
+        System.out.println("storageMode = " + storageMode);
+        System.out.println("storageProfile = " + storageProfile);
+
+        int maximumPoolSize = settings.getInt("cs208.database.pool.maximum-size", 8);
+        int minimumIdle = settings.getInt("cs208.database.pool.minimum-idle", 1);
+        long acquireTimeoutMillis = settings.getLong("cs208.database.pool.acquire-timeout-ms", 5000);
+        long idleTimeoutMillis = settings.getLong("cs208.database.pool.idle-timeout-ms", 600000);
+        int validationTimeoutSeconds = settings.getInt("cs208.database.pool.validation-timeout-seconds", 2);
+        int statementCacheSize = settings.getInt("cs208.database.pool.statement-cache-size", 64);
+
+        if (storageMode == StorageMode.WAL) {
+            SQLiteConfig writerConfig = createSQLiteConfig();
+            writerConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+
+            // a pool with exactly one connection: its fair semaphore is the queue in which the writers wait their turn,
+            // so only one write transaction is ever open and the writers never fail with SQLITE_BUSY
+            this.writerPool = new ConnectionPool(
+                    "sqlite-writer",
+                    databaseConnectionURL,
+                    writerConfig.toProperties(),
+                    1,
+                    1,
+                    settings.getLong("cs208.database.writer.acquire-timeout-ms", acquireTimeoutMillis),
+                    idleTimeoutMillis,
+                    validationTimeoutSeconds,
+                    statementCacheSize
+            );
+
+            SQLiteConfig readerConfig = createSQLiteConfig();
+            readerConfig.setReadOnly(true);
+
+            this.readerPool = new ConnectionPool(
+                    "sqlite-reader",
+                    databaseConnectionURL,
+                    readerConfig.toProperties(),
+                    maximumPoolSize,
+                    minimumIdle,
+                    acquireTimeoutMillis,
+                    idleTimeoutMillis,
+                    validationTimeoutSeconds,
+                    statementCacheSize
+            );
+        } else {
+            this.readerPool = new ConnectionPool(
+                    "sqlite",
+                    databaseConnectionURL,
+                    createSQLiteConfig().toProperties(),
+                    maximumPoolSize,
+                    minimumIdle,
+                    acquireTimeoutMillis,
+                    idleTimeoutMillis,
+                    validationTimeoutSeconds,
+                    statementCacheSize
+            );
+            this.writerPool = readerPool;
+        }
+    }
 
-        Connection connection;
-        try {
-            SQLiteConfig sqLiteConfig = new SQLiteConfig();
-            // Enables enforcement of foreign keys constraints in the SQLite database every time we start the application
-            sqLiteConfig.enforceForeignKeys(true);
+    private SQLiteConfig createSQLiteConfig() {
+        SQLiteConfig sqLiteConfig = new SQLiteConfig();
+        // Enables enforcement of foreign keys constraints in the SQLite database every time we start the application
+        sqLiteConfig.enforceForeignKeys(true);
+        // the page cache, memory-mapped I/O, synchronous level, temp_store and busy timeout of every connection
+        storageProfile.applyTo(sqLiteConfig, storageMode);
+        return sqLiteConfig;
+    }
 
-            connection = DriverManager.getConnection(databaseConnectionURL, sqLiteConfig.toProperties());
-            return connection;
-        } catch (SQLException sqlException) {
-            System.err.println("SQLException was thrown while trying to connect using the '" + databaseConnectionURL + "' connection URL");
-            System.err.println(sqlException.getMessage());
-            throw sqlException;
+    /**
+     * Borrows a connection to the SQLite database file specified in the {@link #Database(String) constructor}
+     * from the connection pool. Closing the connection returns it to the pool.
+     *
+     * In the WAL storage mode, the connection is read-only; use {@link #getWriterConnection()} to modify the data.
+     *
+     * @return a connection to the database, which can be used to execute SQL statements against in the database
+     * @throws SQLException if we cannot connect to the database (e.g., missing driver),
+     *                      or if no connection became available within the acquire timeout
+     */
+    public Connection getDatabaseConnection() throws SQLException {
+        return getDatabaseConnection("other");
+    }
+
+    /**
+     * Same as {@link #getDatabaseConnection()}, for the given operation of the metrics (see {@link DatabaseMetrics})
+     */
+    private Connection getDatabaseConnection(String operation) throws SQLException {
+        return databaseMetrics.acquire(operation, readerPool.getName(), readerPool::getConnection);
+    }
+
+    /**
+     * Borrows the connection used to modify the data (INSERT, UPDATE, DELETE statements).
+     *
+     * In the WAL storage mode, there is only one writer connection, so this method waits
+     * until the previous writer returned it. In the ROLLBACK_JOURNAL storage mode,
+     * this is the same as {@link #getDatabaseConnection()}.
+     *
+     * @return a connection that can modify the database
+     * @throws SQLException if we cannot connect to the database,
+     *                      or if the writer connection did not become available within the acquire timeout
+     */
+    public Connection getWriterConnection() throws SQLException {
+        return getWriterConnection("other");
+    }
+
+    /**
+     * Same as {@link #getWriterConnection()}, for the given operation of the metrics (see {@link DatabaseMetrics})
+     */
+    private Connection getWriterConnection(String operation) throws SQLException {
+        return databaseMetrics.acquire(operation, writerPool.getName(), writerPool::getConnection);
+    }
+
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    public StorageProfile getStorageProfile() {
+        return storageProfile;
+    }
+
+    /**
+     * Reads the storage settings in effect on a connection of every pool (the pragmas set by the {@link StorageProfile},
+     * and the journal mode and page size of the database file), as reported by SQLite itself
+     *
+     * @return the settings of every pool, by the name of the pool (e.g., "sqlite-reader")
+     * @throws SQLException if a connection cannot be borrowed or a pragma cannot be read
+     */
+    public Map<String, Map<String, Object>> readEffectiveStorageSettings() throws SQLException {
+        Map<String, Map<String, Object>> settingsByPool = new LinkedHashMap<>();
+        try (Connection connection = getDatabaseConnection("readEffectiveStorageSettings")) {
+            settingsByPool.put(readerPool.getName(), readStorageSettings(connection));
+        }
+        if (writerPool != readerPool) {
+            try (Connection connection = getWriterConnection("readEffectiveStorageSettings")) {
+                settingsByPool.put(writerPool.getName(), readStorageSettings(connection));
+            }
+        }
+        return settingsByPool;
+    }
+
+    private static Map<String, Object> readStorageSettings(Connection connection) throws SQLException {
+        // the values of PRAGMA synchronous and PRAGMA temp_store are numbers
+        String[] synchronousNames = {"OFF", "NORMAL", "FULL", "EXTRA"};
+        String[] tempStoreNames = {"DEFAULT", "FILE", "MEMORY"};
+
+        Map<String, Object> storageSettings = new LinkedHashMap<>();
+        storageSettings.put("journal_mode", readPragma(connection, "journal_mode"));
+        storageSettings.put("synchronous", synchronousNames[Integer.parseInt(readPragma(connection, "synchronous"))]);
+        storageSettings.put("cache_size", Long.parseLong(readPragma(connection, "cache_size")));
+        storageSettings.put("page_size", Long.parseLong(readPragma(connection, "page_size")));
+        storageSettings.put("mmap_size", Long.parseLong(readPragma(connection, "mmap_size")));
+        storageSettings.put("temp_store", tempStoreNames[Integer.parseInt(readPragma(connection, "temp_store"))]);
+        storageSettings.put("busy_timeout", Long.parseLong(readPragma(connection, "busy_timeout")));
+        storageSettings.put("foreign_keys", "1".equals(readPragma(connection, "foreign_keys")));
+        return storageSettings;
+    }
+
+    private static String readPragma(Connection connection, String pragma) throws SQLException {
+        try (
+                Statement sqlStatement = connection.createStatement();
+                ResultSet resultSet = sqlStatement.executeQuery("PRAGMA " + pragma + ";");
+        ) {
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+
+    public TableVersions getTableVersions() {
+        return tableVersions;
+    }
+
+    public SeatCounters getSeatCounters() {
+        return seatCounters;
+    }
+
+    public ClassCache getClassCache() {
+        return classCache;
+    }
+
+    /**
+     * @return the connection pools used by this database (one in the ROLLBACK_JOURNAL storage mode, two in the WAL storage mode)
+     */
+    public List<ConnectionPool> getConnectionPools() {
+        List<ConnectionPool> connectionPools = new ArrayList<>();
+        connectionPools.add(readerPool);
+        if (writerPool != readerPool) {
+            connectionPools.add(writerPool);
+        }
+        return connectionPools;
+    }
+
+    /**
+     * Starts the {@link WriteBehindPipeline}, if the write coalescer (cs208.database.write-coalescer.enabled=true)
+     * or the mutation journal (cs208.journal.enabled=true) is enabled: from then on, the mutations
+     * (addNewClass, updateExistingClassInformation, deleteExistingClass, addNewStudent,
+     * UpdateExistingStudentInformation, deleteExistingStudent, addStudentToClass and deleteStudentFromClass,
+     * and the batches addNewClasses, addNewStudents and addStudentsToClasses, one mutation each)
+     * of the concurrent requests are applied in groups, with one commit per group.
+     *
+     * With the journal, the mutations that the journal holds but the database does not (e.g., after a crash)
+     * are replayed first, and every group costs one fsync of the journal. The journal needs the WAL storage mode,
+     * where it replaces the fsync of the SQLite commits (with synchronous=NORMAL); in the rollback-journal
+     * storage mode, every commit waits for the disk anyway, so the journal would only add a second fsync per group.
+     *
+     * Called once at startup, before the server accepts requests; does nothing if both are disabled.
+     *
+     * @throws SQLException if the journal cannot be replayed
+     * @throws IOException if the journal file cannot be opened or read
+     * @throws IllegalStateException if the journal is enabled in the rollback-journal storage mode
+     */
+    public void startWriteBehindPipeline() throws SQLException, IOException {
+        if ((!writeCoalescerEnabled && !journalEnabled) || writeBehindPipeline != null) {
+            return;
+        }
+
+        if (journalEnabled && storageMode != StorageMode.WAL) {
+            String message = "cs208.journal.enabled=true needs cs208.database.storage-mode=wal";
+            System.out.println("!!! " + message + " (the storage mode is " + storageMode + ")");
+            throw new IllegalStateException(message);
+        }
+
+        WriteBehindPipeline pipeline = new WriteBehindPipeline(
+                journalEnabled ? new MutationJournal(journalFileName) : null,
+                () -> getWriterConnection("writeBehindGroup"),
+                storageMode == StorageMode.WAL,
+                writeCoalescerMaximumBatchSize,
+                writeCoalescerWindowMillis,
+                journalCompactBytes,
+                writeCoalescerSubmitTimeoutMillis
+        );
+        pipeline.start();
+        writeBehindPipeline = pipeline;
+    }
+
+    // registers the undo of a change made to the seat counters by a mutation, for when the mutation or its group
+    // is rolled back (see WriteBehindPipeline#onRollback); without the pipeline, only the transactions of
+    // mutateInTransaction can be rolled back (every statement of the other mutations commits by itself)
+    private void onRollback(Runnable undoAction) {
+        WriteBehindPipeline pipeline = writeBehindPipeline;
+        if (pipeline != null) {
+            pipeline.onRollback(undoAction);
+            return;
+        }
+
+        List<Runnable> undoActions = transactionUndoActions.get();
+        if (undoActions != null) {
+            undoActions.add(undoAction);
         }
     }
 
+    /**
+     * Applies a mutation with the writer connection: directly, or in the next group of the write-behind pipeline
+     * if it was started (see {@link #startWriteBehindPipeline()}).
+     *
+     * The committed step runs once the mutation is committed, before the writer connection is returned
+     * (or in the order of the group), so the changes made in memory that readers can see (e.g., the table versions)
+     * follow the order of the commits.
+     *
+     * @param operation the name of the operation, for the metrics
+     * @param mutation the SQL statements of the mutation (it must not commit or roll back, and only PreparedStatement batches are allowed)
+     * @param committed the part of the mutation that runs once it is committed
+     * @return the result of the committed step
+     */
+    private <T> T mutate(String operation, WriteBehindPipeline.Mutation<T> mutation, UnaryOperator<T> committed) throws SQLException {
+        WriteBehindPipeline pipeline = writeBehindPipeline;
+        if (pipeline == null) {
+            try (Connection connection = getWriterConnection(operation)) {
+                return committed.apply(mutation.apply(connection));
+            }
+        }
+
+        return pipeline.submit(
+                groupConnection -> {
+                    try (Connection connection = databaseMetrics.acquire(operation, writerPool.getName(), () -> groupConnection)) {
+                        return mutation.apply(connection);
+                    }
+                },
+                committed
+        );
+    }
+
+    /**
+     * Same as {@link #mutate(String, WriteBehindPipeline.Mutation, UnaryOperator)}, for the mutations of many rows
+     * (the batches): without the write-behind pipeline, the mutation runs in a transaction of its own, so it is
+     * inserted all at once or not at all, and its undo actions (see {@link #onRollback(Runnable)}) run if it is
+     * rolled back. With the pipeline, it is one mutation of a group, like the others: it is journaled, and it does not
+     * hold the writer connection outside of the groups.
+     */
+    private <T> T mutateInTransaction(String operation, WriteBehindPipeline.Mutation<T> mutation, UnaryOperator<T> committed) throws SQLException {
+        if (writeBehindPipeline != null) {
+            return mutate(operation, mutation, committed);
+        }
+
+        List<Runnable> undoActions = new ArrayList<>();
+        T result;
+        try (Connection connection = getWriterConnection(operation)) {
+            connection.setAutoCommit(false);
+            transactionUndoActions.set(undoActions);
+            try {
+                result = mutation.apply(connection);
+                connection.commit();
+            } catch (SQLException | RuntimeException exception) {
+                connection.rollback();
+                for (int i = undoActions.size() - 1; i >= 0; i--) {
+                    undoActions.get(i).run();
+                }
+                throw exception;
+            } finally {
+                transactionUndoActions.remove();
+                connection.setAutoCommit(true);
+            }
+            return committed.apply(result);
+        }
+    }
+
+    /**
+     * Stops the write-behind pipeline (after its last group), and closes the connections kept in the connection pools,
+     * and the row trace sink
+     */
+    public void close() {
+        if (writeBehindPipeline != null) {
+            writeBehindPipeline.close();
+        }
+        for (ConnectionPool connectionPool : getConnectionPools()) {
+            connectionPool.close();
+        }
+        rowTraceSink.close();
+    }
+
     /**
      * Tests the connection to the database by running a simple SQL SELECT statement
      * to return the driver version used to connect to the database
@@ -67,7 +472,7 @@ public class Database {
 
         try
                 (
-                        Connection connection = getDatabaseConnection();
+                        Connection connection = getDatabaseConnection("testConnection");
                         Statement sqlStatement = connection.createStatement();
                         ResultSet resultSet = sqlStatement.executeQuery(sql);
                 ) {
@@ -86,6 +491,113 @@ public class Database {
         return sql;
     }
 
+    /**
+     * Creates the indexes from schema.sql that are missing in the database file
+     * (e.g., a database file created with an older version of schema.sql),
+     * without having to reset the database
+     *
+     * @throws SQLException if an index cannot be created
+     */
+    public void createMissingIndexes() throws SQLException {
+        String[] listOfCreateIndexStatements = {
+                // used by the keyset pagination of the registered students (sorted by last name and first name)
+                "CREATE INDEX IF NOT EXISTS students_last_name_first_name ON students (last_name, first_name);",
+                // covers the registrations of a student (GET /classes_in_which_student_is_enrolled/{studentId})
+                "CREATE INDEX IF NOT EXISTS registered_students_student_id_class_id ON registered_students (student_id, class_id);",
+        };
+
+        try
+                (
+                        Connection connection = getWriterConnection("createMissingIndexes");
+                        Statement sqlStatement = connection.createStatement();
+                ) {
+            for (String createIndexStatement : listOfCreateIndexStatements) {
+                sqlStatement.executeUpdate(createIndexStatement);
+            }
+        } catch (SQLException sqlException) {
+            System.out.println("!!! SQLException: failed to create the missing indexes. Make sure you executed the schema.sql script");
+            System.out.println(sqlException.getMessage());
+            throw sqlException;
+        }
+    }
+
+    /**
+     * Creates the classes_search full-text index from schema.sql, and the triggers that keep it in sync
+     * with the classes table, if they are missing in the database file (e.g., a database file created
+     * with an older version of schema.sql), and fills the new index with the existing classes.
+     *
+     * Because the index is updated by the triggers, every statement that changes the classes table
+     * (addNewClass, addNewClasses, updateExistingClassInformation, deleteExistingClass,
+     * and the mutations replayed from the journal) updates the index in the same transaction.
+     *
+     * If the index cannot be created (e.g., the SQLite library was built without FTS5), the failure is logged
+     * and the server starts without the search (see {@link #isSearchIndexAvailable()}).
+     */
+    public void createMissingSearchIndex() {
+        String[] listOfCreateSearchIndexStatements = {
+                // an external content table: the index only stores the terms, the text stays in the classes table
+                "CREATE VIRTUAL TABLE IF NOT EXISTS classes_search USING fts5(title, description, content = 'classes', content_rowid = 'id', tokenize = 'porter unicode61');",
+                "CREATE TRIGGER IF NOT EXISTS classes_search_after_insert AFTER INSERT ON classes\n" +
+                        "BEGIN\n" +
+                        "    INSERT INTO classes_search (rowid, title, description) VALUES (new.id, new.title, new.description);\n" +
+                        "END;",
+                // the 'delete' command needs the old values, to find the terms to remove from the index
+                "CREATE TRIGGER IF NOT EXISTS classes_search_after_delete AFTER DELETE ON classes\n" +
+                        "BEGIN\n" +
+                        "    INSERT INTO classes_search (classes_search, rowid, title, description) VALUES ('delete', old.id, old.title, old.description);\n" +
+                        "END;",
+                "CREATE TRIGGER IF NOT EXISTS classes_search_after_update AFTER UPDATE OF title, description ON classes\n" +
+                        "BEGIN\n" +
+                        "    INSERT INTO classes_search (classes_search, rowid, title, description) VALUES ('delete', old.id, old.title, old.description);\n" +
+                        "    INSERT INTO classes_search (rowid, title, description) VALUES (new.id, new.title, new.description);\n" +
+                        "END;",
+        };
+
+        try (Connection connection = getWriterConnection("createMissingSearchIndex")) {
+            boolean searchIndexExists;
+            try (
+                    PreparedStatement sqlStatement = connection.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'classes_search';");
+                    ResultSet resultSet = sqlStatement.executeQuery();
+            ) {
+                searchIndexExists = resultSet.next();
+            }
+
+            connection.setAutoCommit(false);
+            try (Statement sqlStatement = connection.createStatement()) {
+                for (String createSearchIndexStatement : listOfCreateSearchIndexStatements) {
+                    sqlStatement.executeUpdate(createSearchIndexStatement);
+                }
+
+                if (!searchIndexExists) {
+                    // reads all the classes into the new index
+                    sqlStatement.executeUpdate("INSERT INTO classes_search (classes_search) VALUES ('rebuild');");
+                    System.out.println("Created the classes_search full-text index");
+                }
+
+                connection.commit();
+            } catch (SQLException sqlException) {
+                connection.rollback();
+                throw sqlException;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException sqlException) {
+            System.out.println("!!! SQLException: failed to create the classes_search full-text index, GET /classes/search is disabled");
+            System.out.println(sqlException.getMessage());
+            return;
+        }
+
+        searchIndexAvailable = true;
+    }
+
+    /**
+     * @return true if the classes_search full-text index exists (see {@link #createMissingSearchIndex()}),
+     * so the classes can be searched with {@link #searchClassesPage(String, ClassSearchCursor, int)}
+     */
+    public boolean isSearchIndexAvailable() {
+        return searchIndexAvailable;
+    }
+
     public List<Class> listAllClasses() {
         String sql =
                 "SELECT id, code, title, description, max_students\n" +
@@ -94,12 +606,12 @@ public class Database {
         ArrayList<Class> listOfClasses = new ArrayList<>();
         try
                 (
-                        Connection connection = getDatabaseConnection();
-                        Statement sqlStatement = connection.createStatement();
-                        ResultSet resultSet = sqlStatement.executeQuery(sql);
+                        Connection connection = getDatabaseConnection("listAllClasses");
+                        PreparedStatement sqlStatement = connection.prepareStatement(sql);
+                        ResultSet resultSet = sqlStatement.executeQuery();
                 ) {
-            //print table header
-            printTableHeader(new String[]{"id", "code", "title", "description", "max_students"});
+            // column names of the rows traced below (see cs208.trace.mode)
+            rowTraceSink.header("id", "code", "title", "description", "max_students");
 
             // resultSet.next() either
             // advances to the next returned record (row)
@@ -113,8 +625,10 @@ public class Database {
                 String description = resultSet.getString("description");
                 int maxStudents = resultSet.getInt("max_students");
 
-                // print the results of the current row
-                System.out.printf("| %d | %s | %s | %s | %d |%n", id, code, title, description, maxStudents);
+                // trace the current row (nothing is formatted when the tracing is off)
+                if (rowTraceSink.isEnabled()) {
+                    rowTraceSink.row(id, code, title, description, maxStudents);
+                }
 
                 Class classForCurrentRow = new Class(id, code, title, description, maxStudents);
                 listOfClasses.add(classForCurrentRow);
@@ -127,77 +641,423 @@ public class Database {
         return listOfClasses;
     }
 
-    public Class addNewClass(Class newClass) throws SQLException {
+    /**
+     * Passes every class to the given row handler, instead of collecting them in a list (see {@link JsonRowStreamer}).
+     *
+     * The classes are read one page at a time (see {@link #streamPageByPage(PageQuery, RowHandler)}),
+     * so a slow client does not hold a connection (and the lock of an open read) while it receives the rows.
+     *
+     * @param rowHandler receives the classes, one at a time
+     * @return the number of classes
+     * @throws SQLException if the query fails
+     * @throws IOException if the row handler fails (e.g., the client disconnected)
+     */
+    public int streamAllClasses(RowHandler<Class> rowHandler) throws SQLException, IOException {
+        return streamPageByPage(
+                (cursor, limit) -> queryClassesPage(Pagination.idCursorOrFirst(cursor), limit),
+                rowHandler
+        );
+    }
+
+    /**
+     * Reads the page of a list that starts after the cursor (null for the first page)
+     */
+    @FunctionalInterface
+    private interface PageQuery<T> {
+        Page<T> query(String cursor, int limit) throws SQLException;
+    }
+
+    /**
+     * Passes the rows of all the pages of a list to the row handler. Every page is read with its own connection,
+     * which is returned to the pool before the rows of the page are passed to the row handler, so:
+     *  - a slow client does not keep a connection of the pool for the whole export
+     *  - in the ROLLBACK_JOURNAL storage mode, the SHARED lock of the read is released between the pages,
+     *    so the writers are not blocked (SQLITE_BUSY) until the export ends
+     *
+     * Unlike a single query, the export is not a snapshot: a row changed between two pages
+     * is exported with the values it has when its page is read.
+     */
+    private static <T> int streamPageByPage(PageQuery<T> pageQuery, RowHandler<T> rowHandler) throws SQLException, IOException {
+        int numberOfRows = 0;
+        String cursor = null;
+        do {
+            Page<T> page = pageQuery.query(cursor, STREAM_PAGE_SIZE);
+            for (T row : page.getItems()) {
+                rowHandler.handle(row);
+                numberOfRows++;
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        return numberOfRows;
+    }
+
+    /**
+     * Lists one page of classes, sorted by id (keyset pagination: the query walks the primary key
+     * from the given id, so the cost of a page does not depend on how many classes there are)
+     *
+     * @param afterId only the classes with an id greater than this id are returned (0 for the first page)
+     * @param limit the maximum number of classes in the page
+     * @return the page of classes, and the cursor (the last id) of the next page, if there is one
+     */
+    public Page<Class> listClassesPage(int afterId, int limit) {
+        try {
+            return queryClassesPage(afterId, limit);
+        } catch (SQLException sqlException) {
+            // already logged by queryClassesPage
+            return new Page<>(new ArrayList<>(), null);
+        }
+    }
+
+    /**
+     * Same as {@link #listClassesPage(int, int)}, but the SQLException is thrown
+     * (e.g., so that a streaming export ends with an incomplete array instead of a truncated one)
+     */
+    private Page<Class> queryClassesPage(int afterId, int limit) throws SQLException {
         String sql =
-                "INSERT INTO classes (code, title, description, max_students)\n" +
-                        "VALUES (?, ?, ?, ?);";
+                "SELECT id, code, title, description, max_students\n" +
+                        "FROM classes\n" +
+                        "WHERE id > ?\n" +
+                        "ORDER BY id\n" +
+                        "LIMIT ?;";
 
+        ArrayList<Class> listOfClasses = new ArrayList<>();
         try
                 (
-                        Connection connection = getDatabaseConnection();
-                        PreparedStatement sqlStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                        Connection connection = getDatabaseConnection("listClassesPage");
+                        PreparedStatement sqlStatement = connection.prepareStatement(sql);
                 ) {
-            sqlStatement.setString(1, newClass.getCode());
-            sqlStatement.setString(2, newClass.getTitle());
-            sqlStatement.setString(3, newClass.getDescription());
-            sqlStatement.setInt(4, newClass.getMaxStudents());
+            sqlStatement.setInt(1, afterId);
+            // we ask for one more row than needed, to find out if there is a next page
+            sqlStatement.setInt(2, limit + 1);
 
-            int numberOfRowsAffected = sqlStatement.executeUpdate();
-            System.out.println("numberOfRowsAffected = " + numberOfRowsAffected);
+            try (ResultSet resultSet = sqlStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    int id = resultSet.getInt("id");
+                    String code = resultSet.getString("code");
+                    String title = resultSet.getString("title");
+                    String description = resultSet.getString("description");
+                    int maxStudents = resultSet.getInt("max_students");
 
-            if (numberOfRowsAffected > 0) {
-                ResultSet resultSet = sqlStatement.getGeneratedKeys();
+                    listOfClasses.add(new Class(id, code, title, description, maxStudents));
+                }
+            }
+        } catch (SQLException sqlException) {
+            System.out.println("!!! SQLException: failed to query the classes table. Make sure you executed the schema.sql and seeds.sql scripts");
+            System.out.println(sqlException.getMessage());
+            throw sqlException;
+        }
 
-                while (resultSet.next()) {
-                    // "last_insert_rowid()" is the column name that contains the id of the last inserted row
-                    // alternatively, we could have used resultSet.getInt(1); to get the id of the first column returned
-                    int generatedIdForTheNewlyInsertedClass = resultSet.getInt("last_insert_rowid()");
-                    System.out.println("SUCCESSFULLY inserted a new class with id = " + generatedIdForTheNewlyInsertedClass);
+        if (listOfClasses.size() <= limit) {
+            return new Page<>(listOfClasses, null);
+        }
+
+        listOfClasses.remove(limit);
+        String nextCursor = String.valueOf(listOfClasses.get(limit - 1).getId());
+        return new Page<>(listOfClasses, nextCursor);
+    }
+
+    /**
+     * Searches the titles and the descriptions of the classes through the classes_search full-text index
+     * (see {@link #createMissingSearchIndex()}), and lists one page of the matching classes,
+     * the best match first (by the bm25 rank, where a term in the title counts more than in the description).
+     *
+     * Every word of the query must match (as a prefix, e.g., "data" matches "database"), and
+     * the words are stemmed (e.g., "programs" matches "programming"). The words are quoted before
+     * they are passed to SQLite, so the characters of the FTS5 query syntax are not interpreted.
+     *
+     * @param query the words to search for
+     * @param after the position of the last row of the previous page, or null for the first page
+     * @param limit the maximum number of classes in the page
+     * @return the page of matching classes, and the cursor of the next page, if there is one
+     */
+    public Page<Class> searchClassesPage(String query, ClassSearchCursor after, int limit) {
+        String sql =
+                "SELECT id, code, title, description, max_students, search_rank\n" +
+                        "FROM (\n" +
+                        "    SELECT classes.id, classes.code, classes.title, classes.description, classes.max_students,\n" +
+                        "           bm25(classes_search, 5.0, 1.0) AS search_rank\n" +
+                        "    FROM classes_search\n" +
+                        "    INNER JOIN classes ON classes.id = classes_search.rowid\n" +
+                        "    WHERE classes_search MATCH ?\n" +
+                        ")\n" +
+                        "WHERE (search_rank, id) > (?, ?)\n" +
+                        "ORDER BY search_rank, id\n" +
+                        "LIMIT ?;";
 
-                    // this can be useful if we need to make additional processing on the newClass object
-                    newClass.setId(generatedIdForTheNewlyInsertedClass);
+        ArrayList<Class> listOfClasses = new ArrayList<>();
+        String matchExpression = toMatchExpression(query);
+        if (matchExpression == null) {
+            return new Page<>(listOfClasses, null);
+        }
+
+        if (after == null) {
+            // the bm25 ranks are negative (the lower, the better), so the first page starts before any rank
+            after = new ClassSearchCursor(Double.NEGATIVE_INFINITY, 0);
+        }
+
+        ClassSearchCursor lastCursor = null;
+        try
+                (
+                        Connection connection = getDatabaseConnection("searchClassesPage");
+                        PreparedStatement sqlStatement = connection.prepareStatement(sql);
+                ) {
+            sqlStatement.setString(1, matchExpression);
+            sqlStatement.setDouble(2, after.getRank());
+            sqlStatement.setInt(3, after.getClassId());
+            // we ask for one more row than needed, to find out if there is a next page
+            sqlStatement.setInt(4, limit + 1);
+
+            try (ResultSet resultSet = sqlStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    if (listOfClasses.size() == limit) {
+                        // the extra row exists, so the last row of this page is the cursor of the next page
+                        return new Page<>(listOfClasses, lastCursor.encode());
+                    }
+
+                    int id = resultSet.getInt("id");
+                    String code = resultSet.getString("code");
+                    String title = resultSet.getString("title");
+                    String description = resultSet.getString("description");
+                    int maxStudents = resultSet.getInt("max_students");
+
+                    listOfClasses.add(new Class(id, code, title, description, maxStudents));
+                    lastCursor = new ClassSearchCursor(resultSet.getDouble("search_rank"), id);
                 }
+            }
+        } catch (SQLException sqlException) {
+            System.out.println("!!! SQLException: failed to search the classes_search table. Make sure you executed the schema.sql and seeds.sql scripts");
+            System.out.println(sqlException.getMessage());
+        }
+
+        return new Page<>(listOfClasses, null);
+    }
 
-                resultSet.close();
+    /**
+     * Converts the words typed by a user into an FTS5 query: every word is quoted (with its quotes doubled)
+     * and followed by a '*' to match it as a prefix, and the words are implicitly joined by AND, e.g.,
+     *      intro data  ->  "intro"* "data"*
+     *
+     * @return the FTS5 query, or null if the query has no word to search for
+     */
+    private static String toMatchExpression(String query) {
+        StringBuilder matchExpression = new StringBuilder();
+        for (String word : query.trim().split("\\s+")) {
+            // a word without letters or digits (e.g., "-") has no term in the index
+            if (word.codePoints().noneMatch(Character::isLetterOrDigit)) {
+                continue;
             }
+
+            if (matchExpression.length() > 0) {
+                matchExpression.append(' ');
+            }
+            matchExpression.append('"').append(word.replace("\"", "\"\"")).append("\"*");
+        }
+
+        return matchExpression.length() == 0 ? null : matchExpression.toString();
+    }
+
+    public Class addNewClass(Class newClass) throws SQLException {
+        String sql =
+                "INSERT INTO classes (code, title, description, max_students)\n" +
+                        "VALUES (?, ?, ?, ?);";
+
+        try {
+            mutate("addNewClass", connection -> {
+                try (PreparedStatement sqlStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    sqlStatement.setString(1, newClass.getCode());
+                    sqlStatement.setString(2, newClass.getTitle());
+                    sqlStatement.setString(3, newClass.getDescription());
+                    sqlStatement.setInt(4, newClass.getMaxStudents());
+
+                    int numberOfRowsAffected = sqlStatement.executeUpdate();
+                    System.out.println("numberOfRowsAffected = " + numberOfRowsAffected);
+
+                    if (numberOfRowsAffected > 0) {
+                        ResultSet resultSet = sqlStatement.getGeneratedKeys();
+
+                        while (resultSet.next()) {
+                            // "last_insert_rowid()" is the column name that contains the id of the last inserted row
+                            // alternatively, we could have used resultSet.getInt(1); to get the id of the first column returned
+                            int generatedIdForTheNewlyInsertedClass = resultSet.getInt("last_insert_rowid()");
+                            System.out.println("SUCCESSFULLY inserted a new class with id = " + generatedIdForTheNewlyInsertedClass);
+
+                            // this can be useful if we need to make additional processing on the newClass object
+                            newClass.setId(generatedIdForTheNewlyInsertedClass);
+                            seatCounters.put(generatedIdForTheNewlyInsertedClass, newClass.getMaxStudents(), 0);
+                            onRollback(() -> seatCounters.remove(generatedIdForTheNewlyInsertedClass));
+                        }
+
+                        resultSet.close();
+                    }
+                    return numberOfRowsAffected;
+                }
+            }, numberOfRowsAffected -> {
+                if (numberOfRowsAffected > 0) {
+                    tableVersions.increment(TableVersions.Table.CLASSES);
+                }
+                return numberOfRowsAffected;
+            });
         } catch (SQLException sqlException) {
             System.out.println("!!! SQLException: failed to insert into the classes table");
             System.out.println(sqlException.getMessage());
             throw sqlException;
+        } finally {
+            classCache.invalidate(newClass.getCode());
         }
 
         return newClass;
     }
 
+    /**
+     * Inserts all the given classes in one transaction, with JDBC batching, so the whole batch
+     * costs one commit (and one fsync) instead of one per class.
+     *
+     * If any class violates a constraint (e.g., a duplicated code), the batch is rolled back to a savepoint and
+     * the classes are inserted again one by one, still in one transaction, to find out which rows fail.
+     *
+     * @param newClasses the classes to insert; the id of every inserted class is set to its generated id
+     * @return the reason why each class was rejected, in the same order as newClasses (null for the inserted classes)
+     * @throws SQLException if the transaction fails (in which case no class is inserted)
+     */
+    public List<String> addNewClasses(List<Class> newClasses) throws SQLException {
+        String sql =
+                "INSERT INTO classes (code, title, description, max_students)\n" +
+                        "VALUES (?, ?, ?, ?);";
+
+        List<String> rejectionReasons = new ArrayList<>(Collections.nCopies(newClasses.size(), (String) null));
+        if (newClasses.isEmpty()) {
+            return rejectionReasons;
+        }
+
+        try {
+            return mutateInTransaction("addNewClasses", connection -> {
+                try (Statement savepointStatement = connection.createStatement()) {
+                    // the batch can be undone alone, without undoing the other mutations of the transaction
+                    savepointStatement.executeUpdate("SAVEPOINT batch;");
+                    try {
+                        try (PreparedStatement sqlStatement = connection.prepareStatement(sql)) {
+                            for (Class newClass : newClasses) {
+                                setClassParameters(sqlStatement, newClass);
+                                sqlStatement.addBatch();
+                            }
+                            sqlStatement.executeBatch();
+                        }
+
+                        // the rows inserted in one transaction by the only writer get consecutive AUTOINCREMENT ids,
+                        // so the ids of the batch end with the id of the last inserted row
+                        int firstId = selectLastInsertRowId(connection) - newClasses.size() + 1;
+                        for (int i = 0; i < newClasses.size(); i++) {
+                            newClasses.get(i).setId(firstId + i);
+                        }
+                        savepointStatement.executeUpdate("RELEASE batch;");
+                    } catch (BatchUpdateException batchUpdateException) {
+                        System.out.println("!!! BatchUpdateException: " + batchUpdateException.getMessage() + ", inserting the classes one by one");
+                        savepointStatement.executeUpdate("ROLLBACK TO batch;");
+                        savepointStatement.executeUpdate("RELEASE batch;");
+                        insertClassesOneByOne(connection, sql, newClasses, rejectionReasons);
+                    }
+                }
+                return rejectionReasons;
+            }, committedRejectionReasons -> {
+                System.out.println("SUCCESSFULLY inserted a batch of " + newClasses.size() + " classes");
+                if (committedRejectionReasons.contains(null)) {
+                    tableVersions.increment(TableVersions.Table.CLASSES);
+                }
+
+                for (int i = 0; i < newClasses.size(); i++) {
+                    if (committedRejectionReasons.get(i) == null) {
+                        // a later mutation of the same group may have counted the seats of the class already
+                        seatCounters.putIfAbsent(newClasses.get(i).getId(), newClasses.get(i).getMaxStudents(), 0);
+                    }
+                }
+                return committedRejectionReasons;
+            });
+        } catch (SQLException sqlException) {
+            System.out.println("!!! SQLException: failed to insert a batch of " + newClasses.size() + " classes into the classes table");
+            System.out.println(sqlException.getMessage());
+            throw sqlException;
+        } finally {
+            for (Class newClass : newClasses) {
+                classCache.invalidate(newClass.getCode());
+            }
+        }
+    }
+
+    // a failed INSERT only undoes its own changes, so the other rows stay in the transaction
+    private void insertClassesOneByOne(Connection connection, String sql, List<Class> newClasses, List<String> rejectionReasons) throws SQLException {
+        try (PreparedStatement sqlStatement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < newClasses.size(); i++) {
+                Class newClass = newClasses.get(i);
+                try {
+                    setClassParameters(sqlStatement, newClass);
+                    sqlStatement.executeUpdate();
+                    newClass.setId(selectLastInsertRowId(connection));
+                } catch (SQLException sqlException) {
+                    newClass.setId(0);
+                    rejectionReasons.set(i, sqlException.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void setClassParameters(PreparedStatement sqlStatement, Class newClass) throws SQLException {
+        sqlStatement.setString(1, newClass.getCode());
+        sqlStatement.setString(2, newClass.getTitle());
+        sqlStatement.setString(3, newClass.getDescription());
+        sqlStatement.setInt(4, newClass.getMaxStudents());
+    }
+
+    private static int selectLastInsertRowId(Connection connection) throws SQLException {
+        try (
+                PreparedStatement sqlStatement = connection.prepareStatement("SELECT last_insert_rowid();");
+                ResultSet resultSet = sqlStatement.executeQuery();
+        ) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
     public void updateExistingClassInformation(Class classToUpdate) throws SQLException {
         String sql =
                 "UPDATE classes\n" +
                         "SET code = ?, title = ?, description = ?, max_students = ?\n" +
                         "WHERE id = ?;";
 
-        try
-                (
-                        Connection connection = getDatabaseConnection();
-                        PreparedStatement sqlStatement = connection.prepareStatement(sql);
-                ) {
-            sqlStatement.setString(1, classToUpdate.getCode());
-            sqlStatement.setString(2, classToUpdate.getTitle());
-            sqlStatement.setString(3, classToUpdate.getDescription());
-            sqlStatement.setInt(4, classToUpdate.getMaxStudents());
-            sqlStatement.setInt(5, classToUpdate.getId());
-
-            int numberOfRowsAffected = sqlStatement.executeUpdate();
-            System.out.println("numberOfRowsAffected = " + numberOfRowsAffected);
-
-            if (numberOfRowsAffected > 0) {
-                System.out.println("SUCCESSFULLY updated the class with id = " + classToUpdate.getId());
-            } else {
-                System.out.println("!!! WARNING: failed to update the class with id = " + classToUpdate.getId());
-            }
+        try {
+            mutate("updateExistingClassInformation", connection -> {
+                try (PreparedStatement sqlStatement = connection.prepareStatement(sql)) {
+                    sqlStatement.setString(1, classToUpdate.getCode());
+                    sqlStatement.setString(2, classToUpdate.getTitle());
+                    sqlStatement.setString(3, classToUpdate.getDescription());
+                    sqlStatement.setInt(4, classToUpdate.getMaxStudents());
+                    sqlStatement.setInt(5, classToUpdate.getId());
+
+                    int numberOfRowsAffected = sqlStatement.executeUpdate();
+                    System.out.println("numberOfRowsAffected = " + numberOfRowsAffected);
+
+                    if (numberOfRowsAffected > 0) {
+                        System.out.println("SUCCESSFULLY updated the class with id = " + classToUpdate.getId());
+                        int capacityBefore = seatCounters.getCapacity(classToUpdate.getId());
+                        seatCounters.setCapacity(classToUpdate.getId(), classToUpdate.getMaxStudents());
+                        onRollback(() -> seatCounters.setCapacity(classToUpdate.getId(), capacityBefore));
+                    } else {
+                        System.out.println("!!! WARNING: failed to update the class with id = " + classToUpdate.getId());
+                    }
+                    return numberOfRowsAffected;
+                }
+            }, numberOfRowsAffected -> {
+                if (numberOfRowsAffected > 0) {
+                    tableVersions.increment(TableVersions.Table.CLASSES);
+                }
+                return numberOfRowsAffected;
+            });
         } catch (SQLException sqlException) {
             System.out.println("!!! SQLException: failed to update the class with id = " + classToUpdate.getId());
             System.out.println(sqlException.getMessage());
             throw sqlException;
+        } finally {
+            classCache.invalidate(classToUpdate.getId());
         }
     }
 
@@ -206,25 +1066,39 @@ public class Database {
                 "DELETE FROM classes\n" +
                         "WHERE id = ?;";
 
-        try
-                (
-                        Connection connection = getDatabaseConnection();
-                        PreparedStatement sqlStatement = connection.prepareStatement(sql);
-                ) {
-            sqlStatement.setInt(1, idOfClassToDelete);
-
-            int numberOfRowsAffected = sqlStatement.executeUpdate();
-            System.out.println("numberOfRowsAffected = " + numberOfRowsAffected);
-
-            if (numberOfRowsAffected > 0) {
-                System.out.println("SUCCESSFULLY deleted the class with id = " + idOfClassToDelete);
-            } else {
-                System.out.println("!!! WARNING: failed to delete the class with id = " + idOfClassToDelete);
-            }
+        try {
+            mutate("deleteExistingClass", connection -> {
+                try (PreparedStatement sqlStatement = connection.prepareStatement(sql)) {
+                    sqlStatement.setInt(1, idOfClassToDelete);
+
+                    int numberOfRowsAffected = sqlStatement.executeUpdate();
+                    System.out.println("numberOfRowsAffected = " + numberOfRowsAffected);
+
+                    if (numberOfRowsAffected > 0) {
+                        System.out.println("SUCCESSFULLY deleted the class with id = " + idOfClassToDelete);
+                        if (seatCounters.contains(idOfClassToDelete)) {
+                            int capacityBefore = seatCounters.getCapacity(idOfClassToDelete);
+                            int takenBefore = seatCounters.getTaken(idOfClassToDelete);
+                            onRollback(() -> seatCounters.putIfAbsent(idOfClassToDelete, capacityBefore, takenBefore));
+                        }
+                        seatCounters.remove(idOfClassToDelete);
+                    } else {
+                        System.out.println("!!! WARNING: failed to delete the class with id = " + idOfClassToDelete);
+                    }
+                    return numberOfRowsAffected;
+                }
+            }, numberOfRowsAffected -> {
+                if (numberOfRowsAffected > 0) {
+                    tableVersions.increment(TableVersions.Table.CLASSES);
+                }
+                return numberOfRowsAffected;
+            });
         } catch (SQLException sqlException) {
             System.out.println("!!! SQLException: failed to delete the class with id = " + idOfClassToDelete);
             System.out.println(sqlException.getMessage());
             throw sqlException;
+        } finally {
+            classCache.invalidate(idOfClassToDelete);
         }
     }
 
@@ -236,11 +1110,11 @@ public class Database {
         ArrayList<Student> listOfStudents = new ArrayList<>();
         try
                 (
-                        Connection connection = getDatabaseConnection();
-                        Statement sqlStatement = connection.createStatement();
-                        ResultSet resultSet = sqlStatement.executeQuery(sql);
+                        Connection connection = getDatabaseConnection("listAllStudents");
+                        PreparedStatement sqlStatement = connection.prepareStatement(sql);
+                        ResultSet resultSet = sqlStatement.executeQuery();
                 ) {
-            printTableHeader(new String[]{"id", "first_name", "last_name", "birth_date"});
+            rowTraceSink.header("id", "first_name", "last_name", "birth_date");
 
             while (resultSet.next()) {
                 int id = resultSet.getInt("id");
@@ -250,7 +1124,9 @@ public class Database {
                 // the resultSet.getDate() does not work in this case, so we're using the getString() method instead
                 String birthDate = resultSet.getString("birth_date");
 
-                System.out.printf("| %d | %s | %s | %s |%n", id, firstName, lastName, birthDate);
+                if (rowTraceSink.isEnabled()) {
+                    rowTraceSink.row(id, firstName, lastName, birthDate);
+                }
 
                 Student studentForCurrentRow = new Student(id, firstName, lastName, Date.valueOf(birthDate));
                 listOfStudents.add(studentForCurrentRow);
@@ -263,6 +1139,87 @@ public class Database {
         return listOfStudents;
     }
 
+    /**
+     * Passes every student to the given row handler, one page at a time, instead of collecting them in a list
+     * (see {@link #streamAllClasses(RowHandler)})
+     *
+     * @param rowHandler receives the students, one at a time
+     * @return the number of students
+     * @throws SQLException if the query fails
+     * @throws IOException if the row handler fails (e.g., the client disconnected)
+     */
+    public int streamAllStudents(RowHandler<Student> rowHandler) throws SQLException, IOException {
+        return streamPageByPage(
+                (cursor, limit) -> queryStudentsPage(Pagination.idCursorOrFirst(cursor), limit),
+                rowHandler
+        );
+    }
+
+    /**
+     * Lists one page of students, sorted by id (keyset pagination, see {@link #listClassesPage(int, int)})
+     *
+     * @param afterId only the students with an id greater than this id are returned (0 for the first page)
+     * @param limit the maximum number of students in the page
+     * @return the page of students, and the cursor (the last id) of the next page, if there is one
+     */
+    public Page<Student> listStudentsPage(int afterId, int limit) {
+        try {
+            return queryStudentsPage(afterId, limit);
+        } catch (SQLException sqlException) {
+            // already logged by queryStudentsPage
+            return new Page<>(new ArrayList<>(), null);
+        }
+    }
+
+    /**
+     * Same as {@link #listStudentsPage(int, int)}, but the SQLException is thrown
+     * (e.g., so that a streaming export ends with an incomplete array instead of a truncated one)
+     */
+    private Page<Student> queryStudentsPage(int afterId, int limit) throws SQLException {
+        String sql =
+                "SELECT id, first_name, last_name, birth_date\n" +
+                        "FROM students\n" +
+                        "WHERE id > ?\n" +
+                        "ORDER BY id\n" +
+                        "LIMIT ?;";
+
+        ArrayList<Student> listOfStudents = new ArrayList<>();
+        try
+                (
+                        Connection connection = getDatabaseConnection("listStudentsPage");
+                        PreparedStatement sqlStatement = connection.prepareStatement(sql);
+                ) {
+            sqlStatement.setInt(1, afterId);
+            // we ask for one more row than needed, to find out if there is a next page
+            sqlStatement.setInt(2, limit + 1);
+
+            try (ResultSet resultSet = sqlStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    int id = resultSet.getInt("id");
+                    String firstName = resultSet.getString("first_name");
+                    String lastName = resultSet.getString("last_name");
+
+                    // the resultSet.getDate() does not work in this case, so we're using the getString() method instead
+                    String birthDate = resultSet.getString("birth_date");
+
+                    listOfStudents.add(new Student(id, firstName, lastName, Date.valueOf(birthDate)));
+                }
+            }
+        } catch (SQLException sqlException) {
+            System.out.println("!!! SQLException: failed to query the students table. Make sure you executed the schema.sql and seeds.sql scripts");
+            System.out.println(sqlException.getMessage());
+            throw sqlException;
+        }
+
+        if (listOfStudents.size() <= limit) {
+            return new Page<>(listOfStudents, null);
+        }
+
+        listOfStudents.remove(limit);
+        String nextCursor = String.valueOf(listOfStudents.get(limit - 1).getId());
+        return new Page<>(listOfStudents, nextCursor);
+    }
+
     public Student getStudentById(int id)
     {
         String firstName = null;
@@ -273,7 +1230,7 @@ public class Database {
                         "From students\n" +
                         "Where id = ?";
         try (
-                Connection connection = getDatabaseConnection();
+                Connection connection = getDatabaseConnection("getStudentById");
                 PreparedStatement sqlStatement = connection.prepareStatement(sql);
         ) {
             sqlStatement.setInt(1, id);
@@ -284,13 +1241,15 @@ public class Database {
                 System.out.println("No student with id = " + id);
                 return null;
             }
-                printTableHeader(new String[]{"id", "first_name", "last_name", "birth_date"});
+                rowTraceSink.header("id", "first_name", "last_name", "birth_date");
                 id = resultSet.getInt("id");
                 firstName = resultSet.getString("first_name");
                 lastName = resultSet.getString("last_name");
                 // the resultSet.getDate() does not work in this case, so we're using the getString() method instead
                 birthDate = resultSet.getString("birth_date");
-                System.out.printf("| %d | %s | %s | %s |%n", id, firstName, lastName, birthDate);
+                if (rowTraceSink.isEnabled()) {
+                    rowTraceSink.row(id, firstName, lastName, birthDate);
+                }
                 return new Student(id, firstName, lastName, Date.valueOf(birthDate));
         }catch (SQLException sqlException)
         {
@@ -302,6 +1261,11 @@ public class Database {
     }
 
 
+    /**
+     * Lists all the registered students, in the same order as the pages of
+     * {@link #listRegisteredStudentsPage(RegisteredStudentCursor, int)}: students.id and classes.id break the ties
+     * (e.g., two students with the same name in a class, or a student in two classes without a code)
+     */
     public ArrayList<RegisteredStudentJoinResult> listAllRegisteredStudents()
     {
         String sql =
@@ -309,17 +1273,17 @@ public class Database {
                 "FROM students\n" +
                 "INNER JOIN registered_students ON students.id = registered_students.student_id\n" +
                 "INNER JOIN classes ON classes.id = registered_students.class_id\n" +
-                "ORDER BY students.last_name, students.first_name, classes.code;";
+                "ORDER BY students.last_name, students.first_name, classes.code, students.id, classes.id;";
 
         ArrayList<RegisteredStudentJoinResult> listOfRegisteredStudentJoinResults = new ArrayList<>();
         try
         (
-            Connection connection = getDatabaseConnection();
-            Statement sqlStatement = connection.createStatement();
-            ResultSet resultSet = sqlStatement.executeQuery(sql);
+            Connection connection = getDatabaseConnection("listAllRegisteredStudents");
+            PreparedStatement sqlStatement = connection.prepareStatement(sql);
+            ResultSet resultSet = sqlStatement.executeQuery();
         )
         {
-            printTableHeader(new String[]{"students.id", "student_full_name", "classes.code", "classes.title"});
+            rowTraceSink.header("students.id", "student_full_name", "classes.code", "classes.title");
 
             while (resultSet.next())
             {
@@ -328,7 +1292,10 @@ public class Database {
                 String code = resultSet.getString("code");
                 String title = resultSet.getString("title");
 
-                System.out.printf("| %d | %s | %s | %s |%n", studentId, studentFullName, code, title);
+                if (rowTraceSink.isEnabled())
+                {
+                    rowTraceSink.row(studentId, studentFullName, code, title);
+                }
 
                 RegisteredStudentJoinResult registeredStudentJoinResultForCurrentRow = new RegisteredStudentJoinResult(studentId, studentFullName, code, title);
                 listOfRegisteredStudentJoinResults.add(registeredStudentJoinResultForCurrentRow);
@@ -336,39 +1303,219 @@ public class Database {
         }
         catch (SQLException sqlException)
         {
-            System.out.println("!!! SQLException: failed to query the registered_students table. Make sure you executed the schema.sql and seeds.sql scripts");
-            System.out.println(sqlException.getMessage());
+            System.out.println("!!! SQLException: failed to query the registered_students table. Make sure you executed the schema.sql and seeds.sql scripts");
+            System.out.println(sqlException.getMessage());
+        }
+
+        return listOfRegisteredStudentJoinResults;
+    }
+
+
+
+
+
+
+
+
+    /**
+     * Passes every registered student to the given row handler, in the order of
+     * {@link #listRegisteredStudentsPage(RegisteredStudentCursor, int)}, one page at a time,
+     * instead of collecting them in a list (see {@link #streamAllClasses(RowHandler)})
+     *
+     * @param rowHandler receives the registered students, one at a time
+     * @return the number of registered students
+     * @throws SQLException if the query fails
+     * @throws IOException if the row handler fails (e.g., the client disconnected)
+     */
+    public int streamAllRegisteredStudents(RowHandler<RegisteredStudentJoinResult> rowHandler) throws SQLException, IOException
+    {
+        return streamPageByPage(
+                (cursor, limit) -> queryRegisteredStudentsPage(cursor == null ? null : RegisteredStudentCursor.decode(cursor), limit),
+                rowHandler
+        );
+    }
+
+    /**
+     * Lists one page of registered students, in the same order as {@link #listAllRegisteredStudents()}
+     * (students.last_name, students.first_name, classes.code), with students.id and classes.id as the tie breakers.
+     *
+     * classes.code can be NULL, and a row-value comparison with a NULL is never true, so the ORDER BY and
+     * the cursor predicate both compare COALESCE(classes.code, '') (the classes without a code come first,
+     * as with ORDER BY classes.code).
+     *
+     * The (last_name, first_name) prefix of the cursor is matched through the
+     * students_last_name_first_name index, so SQLite starts reading at the cursor
+     * instead of sorting the whole join.
+     *
+     * @param after the position of the last row of the previous page, or null for the first page
+     * @param limit the maximum number of rows in the page
+     * @return the page of registered students, and the cursor of the next page, if there is one
+     */
+    public Page<RegisteredStudentJoinResult> listRegisteredStudentsPage(RegisteredStudentCursor after, int limit)
+    {
+        try
+        {
+            return queryRegisteredStudentsPage(after, limit);
+        }
+        catch (SQLException sqlException)
+        {
+            // already logged by queryRegisteredStudentsPage
+            return new Page<>(new ArrayList<>(), null);
+        }
+    }
+
+    /**
+     * Same as {@link #listRegisteredStudentsPage(RegisteredStudentCursor, int)}, but the SQLException is thrown
+     * (e.g., so that a streaming export ends with an incomplete array instead of a truncated one)
+     */
+    private Page<RegisteredStudentJoinResult> queryRegisteredStudentsPage(RegisteredStudentCursor after, int limit) throws SQLException
+    {
+        String sql =
+                "SELECT students.id, students.first_name, students.last_name, students.first_name || ' ' || students.last_name AS student_full_name, classes.id AS class_id, classes.code, classes.title\n" +
+                "FROM students\n" +
+                "INNER JOIN registered_students ON students.id = registered_students.student_id\n" +
+                "INNER JOIN classes ON classes.id = registered_students.class_id\n" +
+                "WHERE (students.last_name, students.first_name) >= (?, ?)\n" +
+                "  AND (students.last_name, students.first_name, COALESCE(classes.code, ''), students.id, classes.id) > (?, ?, ?, ?, ?)\n" +
+                "ORDER BY students.last_name, students.first_name, COALESCE(classes.code, ''), students.id, classes.id\n" +
+                "LIMIT ?;";
+
+        if (after == null)
+        {
+            // the empty string sorts before any name, and '' <= any code
+            after = new RegisteredStudentCursor("", "", null, 0, 0);
+        }
+
+        ArrayList<RegisteredStudentJoinResult> listOfRegisteredStudentJoinResults = new ArrayList<>();
+        RegisteredStudentCursor lastCursor = null;
+        try
+        (
+            Connection connection = getDatabaseConnection("listRegisteredStudentsPage");
+            PreparedStatement sqlStatement = connection.prepareStatement(sql);
+        )
+        {
+            sqlStatement.setString(1, after.getLastName());
+            sqlStatement.setString(2, after.getFirstName());
+            sqlStatement.setString(3, after.getLastName());
+            sqlStatement.setString(4, after.getFirstName());
+            sqlStatement.setString(5, after.getCode() == null ? "" : after.getCode());
+            sqlStatement.setInt(6, after.getStudentId());
+            sqlStatement.setInt(7, after.getClassId());
+            // we ask for one more row than needed, to find out if there is a next page
+            sqlStatement.setInt(8, limit + 1);
+
+            try (ResultSet resultSet = sqlStatement.executeQuery())
+            {
+                while (resultSet.next())
+                {
+                    if (listOfRegisteredStudentJoinResults.size() == limit)
+                    {
+                        // the extra row exists, so the last row of this page is the cursor of the next page
+                        return new Page<>(listOfRegisteredStudentJoinResults, lastCursor.encode());
+                    }
+
+                    int studentId = resultSet.getInt("id");
+                    String studentFullName = resultSet.getString("student_full_name");
+                    String code = resultSet.getString("code");
+                    String title = resultSet.getString("title");
+
+                    listOfRegisteredStudentJoinResults.add(new RegisteredStudentJoinResult(studentId, studentFullName, code, title));
+                    lastCursor = new RegisteredStudentCursor(resultSet.getString("last_name"), resultSet.getString("first_name"), code, studentId, resultSet.getInt("class_id"));
+                }
+            }
+        }
+        catch (SQLException sqlException)
+        {
+            System.out.println("!!! SQLException: failed to query the registered_students table. Make sure you executed the schema.sql and seeds.sql scripts");
+            System.out.println(sqlException.getMessage());
+            throw sqlException;
+        }
+
+        return new Page<>(listOfRegisteredStudentJoinResults, null);
+    }
+
+    /**
+     * Returns the class with the given id, from the {@link ClassCache} if possible
+     *
+     * @param id the id of the class
+     * @return the class (a copy that the caller can modify), or null if there is no class with the given id
+     */
+    public Class getClassWithId(int id)
+    {
+        Class cachedClass = classCache.getById(id);
+        if (cachedClass != null)
+        {
+            return cachedClass;
         }
 
-        return listOfRegisteredStudentJoinResults;
-    }
-
+        String sql =
+                "SELECT id, code, title, description, max_students\n" +
+                "FROM classes\n" +
+                "WHERE id = ?;";
 
+        long generationBeforeLoading = classCache.currentGeneration();
+        Class classWithId = queryOneClass("getClassWithId", sql, id);
+        if (classWithId == null)
+        {
+            System.out.println("No class with id = " + id);
+            return null;
+        }
 
+        classCache.put(classWithId, generationBeforeLoading);
+        return classWithId;
+    }
 
+    /**
+     * Returns the class with the given code, from the {@link ClassCache} if possible
+     *
+     * @param code the code of the class (e.g., "CS 410")
+     * @return the class (a copy that the caller can modify), or null if there is no class with the given code
+     */
+    public Class getClassWithCode(String code)
+    {
+        Class cachedClass = classCache.getByCode(code);
+        if (cachedClass != null)
+        {
+            return cachedClass;
+        }
 
+        String sql =
+                "SELECT id, code, title, description, max_students\n" +
+                "FROM classes\n" +
+                "WHERE code = ?;";
 
+        long generationBeforeLoading = classCache.currentGeneration();
+        Class classWithCode = queryOneClass("getClassWithCode", sql, code);
+        if (classWithCode == null)
+        {
+            System.out.println("No class with code = " + code);
+            return null;
+        }
 
+        classCache.put(classWithCode, generationBeforeLoading);
+        return classWithCode;
+    }
 
-    public Class getClassWithId(int id)
+    /**
+     * @param operation the name of the operation in the metrics (see {@link DatabaseMetrics})
+     * @param sql a SELECT statement on the classes table with one parameter
+     * @param parameter the value of the parameter (e.g., the id or the code of the class)
+     * @return the first class returned by the query, or null if there is none (or if the query failed)
+     */
+    private Class queryOneClass(String operation, String sql, Object parameter)
     {
-        String sql =
-                "SELECT id, code, title, description, max_students\n" +
-                "FROM classes\n" +
-                "WHERE id = ?;";
         try
         (
-            Connection connection = getDatabaseConnection();
+            Connection connection = getDatabaseConnection(operation);
             PreparedStatement sqlStatement = connection.prepareStatement(sql);
         )
         {
-            sqlStatement.setInt(1, id);
+            sqlStatement.setObject(1, parameter);
 
             ResultSet resultSet = sqlStatement.executeQuery();
 
             if (!resultSet.next())
             {
-                System.out.println("No class with id = " + id);
                 return null;
             }
 
@@ -389,7 +1536,16 @@ public class Database {
         }
     }
 
-    public void addNewStudent(Student newStudent)
+    /**
+     * Inserts a new student, with an id handed out by the {@link IdBlockAllocator} of the students table
+     * (instead of computing max(students.id) + 1, which scans the table and hands out the same id
+     * to concurrent requests)
+     *
+     * @param newStudent the student to insert; its id is set to the id of the inserted row
+     * @return the inserted student
+     * @throws SQLException if the student cannot be inserted
+     */
+    public Student addNewStudent(Student newStudent) throws SQLException
     {
         // 💡 HINT: in a prepared statement
         // to set the date parameter in the format "YYYY-MM-DD", use the code:
@@ -398,49 +1554,213 @@ public class Database {
         // to set the date parameter in the unix format (i.e., milliseconds since 1970), use this code:
         // sqlStatement.setDate(columnIndexTBD, newStudent.getBirthDate());
 
-        // TODO: add your code here
         String sql =
                 "INSERT INTO students (id, first_name,last_name,birth_date)\n" +
                         "VALUES (?, ?, ?, ?);";
-        String sql1 =
-                "SELECT max(students.id)\n" +
-                        "FROM students;\n";
+
+        // the id is allocated before borrowing the writer connection,
+        // because reserving a new block of ids needs the writer connection too
+        int id = (int) studentIdAllocator.nextId();
+        newStudent.setId(id);
 
         try
-                (
-                        Connection connection = getDatabaseConnection();
-                        PreparedStatement sqlStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-                        Statement res = connection.createStatement();
-                        ResultSet resultSet = res.executeQuery(sql1);
-                )
         {
-            int id = resultSet.getInt(1)+1;
-            newStudent.setId(id);
-            sqlStatement.setInt(1, newStudent.getId());
-            sqlStatement.setString(2, newStudent.getFirstName());
-            sqlStatement.setString(3, newStudent.getLastName());
-            sqlStatement.setString(4, newStudent.getBirthDate().toString());
+            mutate("addNewStudent", connection ->
+            {
+                try (PreparedStatement sqlStatement = connection.prepareStatement(sql))
+                {
+                    setStudentParameters(sqlStatement, newStudent);
+
+                    int numberOfRowsAffected = sqlStatement.executeUpdate();
+                    System.out.println("numberOfRowsAffected = " + numberOfRowsAffected);
+                    System.out.println("SUCCESSFULLY inserted a new student with id = " + id);
+                    return numberOfRowsAffected;
+                }
+            }, numberOfRowsAffected ->
+            {
+                tableVersions.increment(TableVersions.Table.STUDENTS);
+                return numberOfRowsAffected;
+            });
+        }
+        catch (SQLException sqlException)
+        {
+            System.out.println("!!! SQLException: failed to insert into the students table");
+            System.out.println(sqlException.getMessage());
+            throw sqlException;
+        }
+
+        return newStudent;
+    }
+
+    /**
+     * Inserts all the given students in one transaction, with JDBC batching
+     * (used by the CSV import, see {@link StudentCsvImporter}).
+     *
+     * If any student violates a constraint, the batch is rolled back to a savepoint and
+     * the students are inserted again one by one, still in one transaction, to find out which rows fail.
+     *
+     * @param newStudents the students to insert; the id of every inserted student is set to its id
+     * @return the reason why each student was rejected, in the same order as newStudents (null for the inserted students)
+     * @throws SQLException if the transaction fails (in which case no student is inserted)
+     */
+    public List<String> addNewStudents(List<Student> newStudents) throws SQLException
+    {
+        String sql =
+                "INSERT INTO students (id, first_name,last_name,birth_date)\n" +
+                        "VALUES (?, ?, ?, ?);";
+
+        List<String> rejectionReasons = new ArrayList<>(Collections.nCopies(newStudents.size(), (String) null));
+        if (newStudents.isEmpty())
+        {
+            return rejectionReasons;
+        }
+
+        // the ids are allocated before borrowing the writer connection (see addNewStudent)
+        for (Student newStudent : newStudents)
+        {
+            newStudent.setId((int) studentIdAllocator.nextId());
+        }
 
-            int numberOfRowsAffected = sqlStatement.executeUpdate();
-            System.out.println("numberOfRowsAffected = " + numberOfRowsAffected);
+        try
+        {
+            return mutateInTransaction("addNewStudents", connection -> {
+                try (Statement savepointStatement = connection.createStatement())
+                {
+                    // the batch can be undone alone, without undoing the other mutations of the transaction
+                    savepointStatement.executeUpdate("SAVEPOINT batch;");
+                    try (PreparedStatement sqlStatement = connection.prepareStatement(sql))
+                    {
+                        for (Student newStudent : newStudents)
+                        {
+                            setStudentParameters(sqlStatement, newStudent);
+                            sqlStatement.addBatch();
+                        }
+                        sqlStatement.executeBatch();
+                        savepointStatement.executeUpdate("RELEASE batch;");
+                    }
+                    catch (BatchUpdateException batchUpdateException)
+                    {
+                        System.out.println("!!! BatchUpdateException: " + batchUpdateException.getMessage() + ", inserting the students one by one");
+                        savepointStatement.executeUpdate("ROLLBACK TO batch;");
+                        savepointStatement.executeUpdate("RELEASE batch;");
+                        insertStudentsOneByOne(connection, sql, newStudents, rejectionReasons);
+                    }
+                }
+                return rejectionReasons;
+            }, committedRejectionReasons -> {
+                System.out.println("SUCCESSFULLY inserted a batch of " + newStudents.size() + " students");
+                if (committedRejectionReasons.contains(null))
+                {
+                    tableVersions.increment(TableVersions.Table.STUDENTS);
+                }
+                return committedRejectionReasons;
+            });
         }
         catch (SQLException sqlException)
         {
-            System.out.println("!!! SQLException: failed to insert into the classes table");
+            System.out.println("!!! SQLException: failed to insert a batch of " + newStudents.size() + " students into the students table");
             System.out.println(sqlException.getMessage());
+            throw sqlException;
         }
     }
 
-    private void printTableHeader(String[] listOfColumnNames)
+    // a failed INSERT only undoes its own changes, so the other rows stay in the transaction
+    private void insertStudentsOneByOne(Connection connection, String sql, List<Student> newStudents, List<String> rejectionReasons) throws SQLException
     {
-        System.out.print("| ");
-        for (String columnName : listOfColumnNames)
+        try (PreparedStatement sqlStatement = connection.prepareStatement(sql))
         {
-            System.out.print(columnName + " | ");
+            for (int i = 0; i < newStudents.size(); i++)
+            {
+                try
+                {
+                    setStudentParameters(sqlStatement, newStudents.get(i));
+                    sqlStatement.executeUpdate();
+                }
+                catch (SQLException sqlException)
+                {
+                    newStudents.get(i).setId(0);
+                    rejectionReasons.set(i, sqlException.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void setStudentParameters(PreparedStatement sqlStatement, Student newStudent) throws SQLException
+    {
+        sqlStatement.setInt(1, newStudent.getId());
+        sqlStatement.setString(2, newStudent.getFirstName());
+        sqlStatement.setString(3, newStudent.getLastName());
+        sqlStatement.setString(4, newStudent.getBirthDate().toString());
+    }
+
+    /**
+     * Reserves a block of ids for the given table, by moving the AUTOINCREMENT counter of the table
+     * (the seq column of the sqlite_sequence table) forward by blockSize, in one transaction.
+     *
+     * The rows inserted with AUTOINCREMENT (i.e., without an explicit id) get ids after the counter,
+     * so they never collide with the reserved ids.
+     *
+     * @param tableName "students" or "classes"
+     * @param blockSize the number of ids to reserve
+     * @return the last id of the reserved block (the block is lastId - blockSize + 1, ..., lastId)
+     * @throws SQLException if the block cannot be reserved
+     */
+    public long reserveIdBlock(String tableName, int blockSize) throws SQLException {
+        if (!tableName.equals("students") && !tableName.equals("classes")) {
+            throw new IllegalArgumentException("ids cannot be reserved for the table " + tableName);
+        }
+
+        String insertCounterIfMissing =
+                "INSERT INTO sqlite_sequence (name, seq)\n" +
+                        "SELECT ?, 0\n" +
+                        "WHERE NOT EXISTS (SELECT 1 FROM sqlite_sequence WHERE name = ?);";
+        // max(id) on the primary key is a single index lookup, not a table scan
+        String moveCounterForward =
+                "UPDATE sqlite_sequence\n" +
+                        "SET seq = MAX(seq, (SELECT IFNULL(MAX(id), 0) FROM " + tableName + ")) + ?\n" +
+                        "WHERE name = ?;";
+        String selectCounter =
+                "SELECT seq\n" +
+                        "FROM sqlite_sequence\n" +
+                        "WHERE name = ?;";
+
+        try (Connection connection = getWriterConnection("reserveIdBlock")) {
+            connection.setAutoCommit(false);
+            try (
+                    PreparedStatement insertStatement = connection.prepareStatement(insertCounterIfMissing);
+                    PreparedStatement updateStatement = connection.prepareStatement(moveCounterForward);
+                    PreparedStatement selectStatement = connection.prepareStatement(selectCounter);
+            ) {
+                insertStatement.setString(1, tableName);
+                insertStatement.setString(2, tableName);
+                insertStatement.executeUpdate();
+
+                updateStatement.setInt(1, blockSize);
+                updateStatement.setString(2, tableName);
+                updateStatement.executeUpdate();
+
+                selectStatement.setString(1, tableName);
+                long lastId;
+                try (ResultSet resultSet = selectStatement.executeQuery()) {
+                    resultSet.next();
+                    lastId = resultSet.getLong("seq");
+                }
+
+                connection.commit();
+                return lastId;
+            } catch (SQLException sqlException) {
+                connection.rollback();
+                throw sqlException;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException sqlException) {
+            System.out.println("!!! SQLException: failed to reserve a block of ids for the " + tableName + " table");
+            System.out.println(sqlException.getMessage());
+            throw sqlException;
         }
-        System.out.println();
-        System.out.println(Utils.characterRepeat('-', 80));
     }
+
     public Student UpdateExistingStudentInformation(Student studentToUpdate){
         Date birthDate = studentToUpdate.getBirthDate();
         int studentID = studentToUpdate.getId();
@@ -451,13 +1771,20 @@ public class Database {
                         "SET first_name=?, last_name=?, birth_date=?\n"+
                         "WHERE id = ?";
         try {
-            Connection connection = getDatabaseConnection();
-            PreparedStatement res = connection.prepareStatement(sql1);
-            res.setString(1, first_name);
-            res.setString(2, last_name);
-            res.setDate(3, birthDate);
-            res.setInt(4, studentID);
-            res.executeQuery();
+            mutate("UpdateExistingStudentInformation", connection -> {
+                try (PreparedStatement res = connection.prepareStatement(sql1)) {
+                    res.setString(1, studentToUpdate.getFirstName());
+                    res.setString(2, studentToUpdate.getLastName());
+                    res.setDate(3, birthDate);
+                    res.setInt(4, studentID);
+                    return res.executeUpdate();
+                }
+            }, numberOfRowsAffected -> {
+                if (numberOfRowsAffected > 0) {
+                    tableVersions.increment(TableVersions.Table.STUDENTS);
+                }
+                return numberOfRowsAffected;
+            });
         }
 
         catch (SQLException sqlException)
@@ -469,9 +1796,10 @@ public class Database {
                 "SELECT first_name, last_name\n"+
                         "FROM students\n"+
                         "WHERE id = ?";
-        try {
-            Connection connection = getDatabaseConnection();
-            PreparedStatement res1 = connection.prepareStatement(sql);
+        try (
+                Connection connection = getDatabaseConnection("UpdateExistingStudentInformation");
+                PreparedStatement res1 = connection.prepareStatement(sql);
+        ) {
             res1.setInt(1, studentID);
             ResultSet ResultSet1 = res1.executeQuery();
             while (ResultSet1.next()) {
@@ -493,133 +1821,500 @@ public class Database {
                 "DELETE FROM students\n" +
                         "WHERE id = ?;";
 
-        try
-                (
-                        Connection connection = getDatabaseConnection();
-                        PreparedStatement sqlStatement = connection.prepareStatement(sql);
-                ) {
-            sqlStatement.setInt(1, idOfStudentToDelete);
-
-            int numberOfRowsAffected = sqlStatement.executeUpdate();
-            System.out.println("numberOfRowsAffected = " + numberOfRowsAffected);
-
-            if (numberOfRowsAffected > 0) {
-                System.out.println("SUCCESSFULLY deleted the student with id = " + idOfStudentToDelete);
-            } else {
-                System.out.println("!!! WARNING: failed to delete the student with id = " + idOfStudentToDelete);
-            }
+        try {
+            mutate("deleteExistingStudent", connection -> {
+                try (PreparedStatement sqlStatement = connection.prepareStatement(sql)) {
+                    sqlStatement.setInt(1, idOfStudentToDelete);
+
+                    int numberOfRowsAffected = sqlStatement.executeUpdate();
+                    System.out.println("numberOfRowsAffected = " + numberOfRowsAffected);
+
+                    if (numberOfRowsAffected > 0) {
+                        System.out.println("SUCCESSFULLY deleted the student with id = " + idOfStudentToDelete);
+                    } else {
+                        System.out.println("!!! WARNING: failed to delete the student with id = " + idOfStudentToDelete);
+                    }
+                    return numberOfRowsAffected;
+                }
+            }, numberOfRowsAffected -> {
+                if (numberOfRowsAffected > 0) {
+                    tableVersions.increment(TableVersions.Table.STUDENTS);
+                }
+                return numberOfRowsAffected;
+            });
         } catch (SQLException sqlException) {
             System.out.println("!!! SQLException: failed to delete the student with id = " + idOfStudentToDelete);
             System.out.println(sqlException.getMessage());
             throw sqlException;
         }
     }
-    public void addStudentToClass(int idOfStudentToAdd, int idOfClassToAddTo){
+    /**
+     * Registers a student in a class, if the class has a seat left (see {@link SeatCounters})
+     *
+     * @return the outcome (ENROLLED, ALREADY_ENROLLED, STUDENT_NOT_FOUND, CLASS_NOT_FOUND, CLASS_FULL or FAILED),
+     *         the registration (if the student and the class exist), and the version of the registered_students table
+     */
+    public RegisteredStudentDelta addStudentToClass(int idOfStudentToAdd, int idOfClassToAddTo){
         String sql = "INSERT INTO registered_students (class_id, student_id, signup_date)\n" +
                 "VALUES (?,?,?)";
-        String sql1 = "SELECT id\n" +
+        String sql1 = "SELECT first_name || ' ' || last_name AS student_full_name\n" +
                 "FROM students\n" +
                 "WHERE id = ?";
-        String sql2 = "SELECT id\n" +
+        String sql2 = "SELECT code, title\n" +
                 "FROM classes\n" +
                 "WHERE id = ?";
+        String sql3 = "SELECT student_id\n" +
+                "FROM registered_students\n" +
+                "WHERE student_id = ? AND class_id = ?";
         try {
-            Connection connection = getDatabaseConnection();
-            PreparedStatement preparedStatement1 = connection.prepareStatement(sql1);
-            preparedStatement1.setInt(1, idOfStudentToAdd);
-            ResultSet res = preparedStatement1.executeQuery();
-            if (!res.next()) {
-                System.out.println("No such Student ID, please try again here: \n");
-                connection.close();
-            }
-            PreparedStatement preparedStatement2 = connection.prepareStatement(sql2);
-            preparedStatement2.setInt(1, idOfClassToAddTo);
-            ResultSet res2 = preparedStatement2.executeQuery();
-            if (!res2.next()) {
-                System.out.println("No such class ID, please try again here: \n");
-                connection.close();
-            }
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, idOfClassToAddTo);
-            preparedStatement.setInt(2, idOfStudentToAdd);
-            java.util.Date utilDate = new java.util.Date();
-            java.sql.Date timestamp = new java.sql.Date(utilDate.getTime());
-            preparedStatement.setDate(3, timestamp);
-            preparedStatement.execute();
-            connection.close();
+            return mutate("addStudentToClass", connection -> {
+                String studentFullName;
+                try (PreparedStatement preparedStatement1 = connection.prepareStatement(sql1)) {
+                    preparedStatement1.setInt(1, idOfStudentToAdd);
+                    try (ResultSet res = preparedStatement1.executeQuery()) {
+                        if (!res.next()) {
+                            System.out.println("No such Student ID, please try again here: \n");
+                            return registeredStudentsDelta(EnrollmentOutcome.STUDENT_NOT_FOUND, null);
+                        }
+                        studentFullName = res.getString("student_full_name");
+                    }
+                }
+                RegisteredStudentJoinResult registration;
+                try (PreparedStatement preparedStatement2 = connection.prepareStatement(sql2)) {
+                    preparedStatement2.setInt(1, idOfClassToAddTo);
+                    try (ResultSet res2 = preparedStatement2.executeQuery()) {
+                        if (!res2.next()) {
+                            System.out.println("No such class ID, please try again here: \n");
+                            return registeredStudentsDelta(EnrollmentOutcome.CLASS_NOT_FOUND, null);
+                        }
+                        registration = new RegisteredStudentJoinResult(idOfStudentToAdd, studentFullName, res2.getString("code"), res2.getString("title"));
+                    }
+                }
+                try (PreparedStatement preparedStatement3 = connection.prepareStatement(sql3)) {
+                    preparedStatement3.setInt(1, idOfStudentToAdd);
+                    preparedStatement3.setInt(2, idOfClassToAddTo);
+                    try (ResultSet res3 = preparedStatement3.executeQuery()) {
+                        if (res3.next()) {
+                            return registeredStudentsDelta(EnrollmentOutcome.ALREADY_ENROLLED, registration);
+                        }
+                    }
+                }
+
+                countSeatsIfMissing(connection, idOfClassToAddTo);
+                if (!seatCounters.tryReserve(idOfClassToAddTo)) {
+                    System.out.println("The class with id = " + idOfClassToAddTo + " is full");
+                    return registeredStudentsDelta(EnrollmentOutcome.CLASS_FULL, registration);
+                }
+
+                try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                    preparedStatement.setInt(1, idOfClassToAddTo);
+                    preparedStatement.setInt(2, idOfStudentToAdd);
+                    java.util.Date utilDate = new java.util.Date();
+                    java.sql.Date timestamp = new java.sql.Date(utilDate.getTime());
+                    preparedStatement.setDate(3, timestamp);
+                    preparedStatement.execute();
+                } catch (SQLException sqlException) {
+                    seatCounters.release(idOfClassToAddTo);
+                    throw sqlException;
+                }
+                // the seat is given back if the registration is rolled back with its group
+                onRollback(() -> seatCounters.release(idOfClassToAddTo));
+
+                // the version of the table is set once the registration is committed
+                return new RegisteredStudentDelta(EnrollmentOutcome.ENROLLED, registration, -1);
+            }, this::withCommittedVersion);
         } catch (SQLException sqlException) {
             System.out.println(sqlException.getMessage());
+            return registeredStudentsDelta(EnrollmentOutcome.FAILED, null);
         }
     }
-    public void deleteStudentFromClass(int idOfStudentToDelete, int idOfClassToDeleteFrom){
+
+    /**
+     * Drops a student from a class
+     *
+     * @return the outcome (UNENROLLED, NOT_ENROLLED or FAILED), the registration that was deleted (if any),
+     *         and the version of the registered_students table
+     */
+    public RegisteredStudentDelta deleteStudentFromClass(int idOfStudentToDelete, int idOfClassToDeleteFrom){
         String sql = "DELETE\n" +
                 "FROM registered_students\n"+
                 "WHERE class_id = ? and student_id = ?";
-        String sql1 = "SELECT id\n" +
-                "FROM students\n" +
-                "WHERE id = ?";
-        String sql2 = "SELECT id\n" +
-                "FROM classes\n" +
-                "WHERE id = ?";
+        String sql1 = "SELECT students.id, students.first_name || ' ' || students.last_name AS student_full_name, classes.code, classes.title\n" +
+                "FROM registered_students\n" +
+                "INNER JOIN students ON students.id = registered_students.student_id\n" +
+                "INNER JOIN classes ON classes.id = registered_students.class_id\n" +
+                "WHERE registered_students.class_id = ? AND registered_students.student_id = ?";
+        try {
+            return mutate("deleteStudentFromClass", connection -> {
+                RegisteredStudentJoinResult registration;
+                try (PreparedStatement preparedStatement1 = connection.prepareStatement(sql1)) {
+                    preparedStatement1.setInt(1, idOfClassToDeleteFrom);
+                    preparedStatement1.setInt(2, idOfStudentToDelete);
+                    try (ResultSet res = preparedStatement1.executeQuery()) {
+                        if (!res.next()) {
+                            return registeredStudentsDelta(EnrollmentOutcome.NOT_ENROLLED, null);
+                        }
+                        registration = new RegisteredStudentJoinResult(res.getInt("id"), res.getString("student_full_name"), res.getString("code"), res.getString("title"));
+                    }
+                }
+
+                int numberOfRowsAffected;
+                try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                    preparedStatement.setInt(1, idOfClassToDeleteFrom);
+                    preparedStatement.setInt(2, idOfStudentToDelete);
+                    numberOfRowsAffected = preparedStatement.executeUpdate();
+                }
+                if (numberOfRowsAffected == 0) {
+                    return registeredStudentsDelta(EnrollmentOutcome.NOT_ENROLLED, null);
+                }
+
+                // the student was registered in the class, so a seat is free again
+                seatCounters.release(idOfClassToDeleteFrom);
+                onRollback(() -> seatCounters.retake(idOfClassToDeleteFrom));
+                return new RegisteredStudentDelta(EnrollmentOutcome.UNENROLLED, registration, -1);
+            }, this::withCommittedVersion);
+        } catch (SQLException sqlException) {
+            System.out.println(sqlException.getMessage());
+            return registeredStudentsDelta(EnrollmentOutcome.FAILED, null);
+        }
+    }
+
+    // the committed step of addStudentToClass and deleteStudentFromClass (see mutate):
+    // a delta that changed the registered_students table gets the version of its commit
+    private RegisteredStudentDelta withCommittedVersion(RegisteredStudentDelta delta) {
+        if (delta.getOutcome() != EnrollmentOutcome.ENROLLED && delta.getOutcome() != EnrollmentOutcome.UNENROLLED) {
+            return delta;
+        }
+        long tableVersion = tableVersions.increment(TableVersions.Table.REGISTERED_STUDENTS);
+        return new RegisteredStudentDelta(delta.getOutcome(), delta.getRow(), tableVersion);
+    }
+
+    // a delta that did not change the registered_students table
+    private RegisteredStudentDelta registeredStudentsDelta(EnrollmentOutcome outcome, RegisteredStudentJoinResult registration) {
+        return new RegisteredStudentDelta(outcome, registration, tableVersions.current(TableVersions.Table.REGISTERED_STUDENTS));
+    }
+
+    /**
+     * Seeds the {@link SeatCounters} with the max_students and the number of registered students of every class.
+     * Called once at startup, before the server accepts requests.
+     */
+    public void seedSeatCounters() throws SQLException {
+        String sql =
+                "SELECT classes.id, classes.max_students, COUNT(registered_students.student_id) AS taken\n" +
+                        "FROM classes\n" +
+                        "LEFT JOIN registered_students ON registered_students.class_id = classes.id\n" +
+                        "GROUP BY classes.id;";
+
+        try
+                (
+                        Connection connection = getWriterConnection("seedSeatCounters");
+                        PreparedStatement sqlStatement = connection.prepareStatement(sql);
+                        ResultSet resultSet = sqlStatement.executeQuery();
+                ) {
+            int numberOfClasses = 0;
+            while (resultSet.next()) {
+                seatCounters.put(resultSet.getInt("id"), capacityOf(resultSet), resultSet.getInt("taken"));
+                numberOfClasses++;
+            }
+            System.out.println("Seeded the seat counters of " + numberOfClasses + " classes");
+        } catch (SQLException sqlException) {
+            System.out.println("!!! SQLException: failed to count the seats taken in the classes");
+            System.out.println(sqlException.getMessage());
+            throw sqlException;
+        }
+    }
+
+    // counts the seats of a class that is unknown to the seat counters (e.g., a class inserted directly into the database)
+    private void countSeatsIfMissing(Connection connection, int classId) throws SQLException {
+        if (seatCounters.contains(classId)) {
+            return;
+        }
+
+        String sql =
+                "SELECT max_students, (SELECT COUNT(*) FROM registered_students WHERE class_id = classes.id) AS taken\n" +
+                        "FROM classes\n" +
+                        "WHERE id = ?;";
+
+        try (PreparedStatement sqlStatement = connection.prepareStatement(sql)) {
+            sqlStatement.setInt(1, classId);
+            try (ResultSet resultSet = sqlStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    seatCounters.putIfAbsent(classId, capacityOf(resultSet), resultSet.getInt("taken"));
+                }
+            }
+        }
+    }
+
+    private static int capacityOf(ResultSet resultSet) throws SQLException {
+        int maxStudents = resultSet.getInt("max_students");
+        return resultSet.wasNull() ? SeatCounters.UNLIMITED : maxStudents;
+    }
+
+    /**
+     * Registers many students in many classes at once, for POST /registered_students/batch.
+     *
+     * Instead of two existence SELECTs per pair, the existence of all the students, of all the classes and of
+     * the current registrations of the students is checked with one query each (with IN lists),
+     * and all the new registrations are inserted with JDBC batching in the same transaction.
+     *
+     * @param enrollmentRequests the (studentId, classId) pairs to register
+     * @return the outcome of each pair, in the same order as enrollmentRequests
+     * @throws SQLException if the transaction fails (in which case no student is registered)
+     */
+    public List<EnrollmentResult> addStudentsToClasses(List<EnrollmentRequest> enrollmentRequests) throws SQLException {
+        String sql =
+                "INSERT INTO registered_students (class_id, student_id, signup_date)\n" +
+                        "VALUES (?, ?, ?);";
+
+        EnrollmentOutcome[] outcomes = new EnrollmentOutcome[enrollmentRequests.size()];
+        String[] errors = new String[enrollmentRequests.size()];
+
+        Set<Integer> studentIds = new HashSet<>();
+        Set<Integer> classIds = new HashSet<>();
+        for (EnrollmentRequest enrollmentRequest : enrollmentRequests) {
+            studentIds.add(enrollmentRequest.getStudentId());
+            classIds.add(enrollmentRequest.getClassId());
+        }
+
+        // the same value as addStudentToClass (sqlite-jdbc stores it in milliseconds), bound explicitly
+        // so the journal replays the same date
+        java.sql.Date signupDate = new java.sql.Date(new java.util.Date().getTime());
+
+        // the pairs for which a seat was reserved
+        List<Integer> indexesToInsert = new ArrayList<>();
+
         try {
-            Connection connection = getDatabaseConnection();
-            PreparedStatement preparedStatement1 = connection.prepareStatement(sql1);
-            preparedStatement1.setInt(1, idOfStudentToDelete);
-            ResultSet res = preparedStatement1.executeQuery();
-            if (!res.next()) {
-                System.out.println("No such Student ID, please try again here: \n");
-                connection.close();
-            }
-            PreparedStatement preparedStatement2 = connection.prepareStatement(sql2);
-            preparedStatement2.setInt(1, idOfClassToDeleteFrom);
-            ResultSet res2 = preparedStatement2.executeQuery();
-            if (!res2.next()) {
-                System.out.println("No such class ID, please try again here: \n");
-                connection.close();
-            }
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, idOfClassToDeleteFrom);
-            preparedStatement.setInt(2, idOfStudentToDelete);
-            preparedStatement.execute();
-            connection.close();
+            mutateInTransaction("addStudentsToClasses", connection -> {
+                try {
+                    Set<Integer> existingStudentIds = new HashSet<>();
+                    for (int[] row : selectRowsWithIdIn(connection, "SELECT id\nFROM students\nWHERE id IN ", studentIds, 1)) {
+                        existingStudentIds.add(row[0]);
+                    }
+
+                    Set<Integer> existingClassIds = new HashSet<>();
+                    for (int[] row : selectRowsWithIdIn(connection, "SELECT id\nFROM classes\nWHERE id IN ", classIds, 1)) {
+                        existingClassIds.add(row[0]);
+                    }
+
+                    // read through the (student_id, class_id) index, so only the registrations of these students are read
+                    Set<Long> existingRegistrations = new HashSet<>();
+                    for (int[] row : selectRowsWithIdIn(connection, "SELECT student_id, class_id\nFROM registered_students\nWHERE student_id IN ", existingStudentIds, 2)) {
+                        existingRegistrations.add(registrationKey(row[0], row[1]));
+                    }
+
+                    Set<Long> registrationsInRequest = new HashSet<>();
+                    for (int i = 0; i < enrollmentRequests.size(); i++) {
+                        EnrollmentRequest enrollmentRequest = enrollmentRequests.get(i);
+                        long registration = registrationKey(enrollmentRequest.getStudentId(), enrollmentRequest.getClassId());
+
+                        if (!registrationsInRequest.add(registration)) {
+                            outcomes[i] = EnrollmentOutcome.DUPLICATE_IN_REQUEST;
+                        } else if (!existingStudentIds.contains(enrollmentRequest.getStudentId())) {
+                            outcomes[i] = EnrollmentOutcome.STUDENT_NOT_FOUND;
+                        } else if (!existingClassIds.contains(enrollmentRequest.getClassId())) {
+                            outcomes[i] = EnrollmentOutcome.CLASS_NOT_FOUND;
+                        } else if (existingRegistrations.contains(registration)) {
+                            outcomes[i] = EnrollmentOutcome.ALREADY_ENROLLED;
+                        } else {
+                            countSeatsIfMissing(connection, enrollmentRequest.getClassId());
+                            if (seatCounters.tryReserve(enrollmentRequest.getClassId())) {
+                                indexesToInsert.add(i);
+                            } else {
+                                outcomes[i] = EnrollmentOutcome.CLASS_FULL;
+                            }
+                        }
+                    }
+
+                    try (Statement savepointStatement = connection.createStatement()) {
+                        // the batch can be undone alone, without undoing the other mutations of the transaction
+                        savepointStatement.executeUpdate("SAVEPOINT batch;");
+                        try (PreparedStatement sqlStatement = connection.prepareStatement(sql)) {
+                            for (int i : indexesToInsert) {
+                                sqlStatement.setInt(1, enrollmentRequests.get(i).getClassId());
+                                sqlStatement.setInt(2, enrollmentRequests.get(i).getStudentId());
+                                sqlStatement.setDate(3, signupDate);
+                                sqlStatement.addBatch();
+                            }
+                            if (!indexesToInsert.isEmpty()) {
+                                sqlStatement.executeBatch();
+                            }
+                            for (int i : indexesToInsert) {
+                                outcomes[i] = EnrollmentOutcome.ENROLLED;
+                            }
+                            savepointStatement.executeUpdate("RELEASE batch;");
+                        } catch (BatchUpdateException batchUpdateException) {
+                            System.out.println("!!! BatchUpdateException: " + batchUpdateException.getMessage() + ", registering the students one by one");
+                            savepointStatement.executeUpdate("ROLLBACK TO batch;");
+                            savepointStatement.executeUpdate("RELEASE batch;");
+
+                            // a failed INSERT only undoes its own changes, so the other rows stay in the transaction
+                            try (PreparedStatement sqlStatement = connection.prepareStatement(sql)) {
+                                for (int i : indexesToInsert) {
+                                    try {
+                                        sqlStatement.setInt(1, enrollmentRequests.get(i).getClassId());
+                                        sqlStatement.setInt(2, enrollmentRequests.get(i).getStudentId());
+                                        sqlStatement.setDate(3, signupDate);
+                                        sqlStatement.executeUpdate();
+                                        outcomes[i] = EnrollmentOutcome.ENROLLED;
+                                    } catch (SQLException sqlException) {
+                                        outcomes[i] = EnrollmentOutcome.FAILED;
+                                        errors[i] = sqlException.getMessage();
+                                    }
+                                }
+                            }
+                        }
+                    }
+                } catch (SQLException | RuntimeException exception) {
+                    for (int i : indexesToInsert) {
+                        outcomes[i] = null;
+                    }
+                    throw exception;
+                } finally {
+                    // give back the seats reserved for the pairs that were not registered
+                    for (int i : indexesToInsert) {
+                        if (outcomes[i] != EnrollmentOutcome.ENROLLED) {
+                            seatCounters.release(enrollmentRequests.get(i).getClassId());
+                        }
+                    }
+                }
+
+                // the seats of the registered pairs are given back if the transaction is rolled back after all
+                for (int i : indexesToInsert) {
+                    if (outcomes[i] == EnrollmentOutcome.ENROLLED) {
+                        int classId = enrollmentRequests.get(i).getClassId();
+                        onRollback(() -> seatCounters.release(classId));
+                    }
+                }
+                return indexesToInsert.stream().anyMatch(i -> outcomes[i] == EnrollmentOutcome.ENROLLED);
+            }, anyEnrolled -> {
+                if (anyEnrolled) {
+                    tableVersions.increment(TableVersions.Table.REGISTERED_STUDENTS);
+                }
+                long enrolledCount = indexesToInsert.stream().filter(i -> outcomes[i] == EnrollmentOutcome.ENROLLED).count();
+                System.out.println("SUCCESSFULLY registered " + enrolledCount + " students out of a batch of " + enrollmentRequests.size());
+                return anyEnrolled;
+            });
         } catch (SQLException sqlException) {
+            for (int i : indexesToInsert) {
+                outcomes[i] = null;
+            }
+            System.out.println("!!! SQLException: failed to register a batch of " + enrollmentRequests.size() + " students");
             System.out.println(sqlException.getMessage());
+            throw sqlException;
+        }
+
+        List<EnrollmentResult> results = new ArrayList<>();
+        for (int i = 0; i < enrollmentRequests.size(); i++) {
+            EnrollmentRequest enrollmentRequest = enrollmentRequests.get(i);
+            results.add(new EnrollmentResult(enrollmentRequest.getStudentId(), enrollmentRequest.getClassId(), outcomes[i], errors[i]));
+        }
+        return results;
+    }
+
+    private static long registrationKey(int studentId, int classId) {
+        return ((long) studentId << 32) | (classId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Runs sqlBeforeInList + "(?, ?, ...)" with the given ids, in chunks of at most MAXIMUM_IN_LIST_SIZE ids
+     * (SQLite limits the number of parameters of a statement).
+     *
+     * The IN lists are padded to a power of 2 (by repeating the last id), so the few different
+     * SQL statements stay in the statement cache.
+     *
+     * @return the first columnCount columns of every row (the rows of different chunks are simply concatenated)
+     */
+    private static List<int[]> selectRowsWithIdIn(Connection connection, String sqlBeforeInList, Collection<Integer> ids, int columnCount) throws SQLException {
+        List<int[]> rows = new ArrayList<>();
+        List<Integer> remainingIds = new ArrayList<>(ids);
+
+        for (int start = 0; start < remainingIds.size(); start += MAXIMUM_IN_LIST_SIZE) {
+            List<Integer> chunk = remainingIds.subList(start, Math.min(start + MAXIMUM_IN_LIST_SIZE, remainingIds.size()));
+            int inListSize = Integer.highestOneBit(chunk.size());
+            if (inListSize < chunk.size()) {
+                inListSize *= 2;
+            }
+
+            StringBuilder sql = new StringBuilder(sqlBeforeInList).append("(?");
+            for (int i = 1; i < inListSize; i++) {
+                sql.append(", ?");
+            }
+            sql.append(");");
+
+            try (PreparedStatement sqlStatement = connection.prepareStatement(sql.toString())) {
+                for (int i = 0; i < inListSize; i++) {
+                    sqlStatement.setInt(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                }
+
+                try (ResultSet resultSet = sqlStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        int[] row = new int[columnCount];
+                        for (int column = 0; column < columnCount; column++) {
+                            row[column] = resultSet.getInt(column + 1);
+                        }
+                        rows.add(row);
+                    }
+                }
+            }
         }
+
+        return rows;
     }
+
+    /**
+     * Lists the students registered in the class with the given code (the roster of the class), sorted by student id.
+     *
+     * The class code is resolved to the id of the class through the {@link ClassCache}
+     * (or the UNIQUE index on classes.code), then the registrations of the class are read through the
+     * UNIQUE (class_id, student_id) index of registered_students, which already returns them sorted by student id.
+     * So the cost of the query grows with the size of the roster, not with the total number of registrations.
+     *
+     * @param classCode the code of the class (e.g., "CS 410")
+     * @return the students registered in the class (an empty list if there are none, or if the class does not exist)
+     */
     public ArrayList<RegisteredStudentJoinResult> showAllStudentsInClass(String classCode){
         String sql =
-                "SELECT *\n" +
-                        "FROM(\n"+
-                        "SELECT students.id, students.first_name || ' ' || students.last_name AS student_full_name, classes.code, classes.title\n" +
-                        "FROM students\n" +
-                        "INNER JOIN registered_students ON students.id = registered_students.student_id\n" +
-                        "INNER JOIN classes ON classes.id = registered_students.class_id\n" +
-                        "ORDER BY student_id)\n" +
-                        "WHERE code = ?;" ;
+                "SELECT students.id, students.first_name || ' ' || students.last_name AS student_full_name\n" +
+                        "FROM registered_students\n" +
+                        "INNER JOIN students ON students.id = registered_students.student_id\n" +
+                        "WHERE registered_students.class_id = ?\n" +
+                        "ORDER BY registered_students.student_id;";
         ArrayList<RegisteredStudentJoinResult> listOfRegisteredStudentJoinResults = new ArrayList<>();
-        try{
-            Connection connection = getDatabaseConnection();
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, classCode);
-            ResultSet resultSet = preparedStatement.executeQuery();
-        if(!resultSet.next()) {
+
+        Class classWithCode = getClassWithCode(classCode);
+        if (classWithCode == null) {
             System.out.println("Either no students are enrolled in this class, or this class code does not exist.\n");
-            connection.close();
+            return listOfRegisteredStudentJoinResults;
         }
-            printTableHeader(new String[]{"students.id", "student_full_name", "classes.code", "classes.title"});
 
-            while (resultSet.next())
-            {
-                int id = resultSet.getInt("id");
-                String studentFullName = resultSet.getString("student_full_name");
-                String code = resultSet.getString("code");
-                String title = resultSet.getString("title");
+        try (
+                Connection connection = getDatabaseConnection("showAllStudentsInClass");
+                PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        ) {
+            preparedStatement.setInt(1, classWithCode.getId());
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                rowTraceSink.header("students.id", "student_full_name", "classes.code", "classes.title");
+
+                String code = classWithCode.getCode();
+                String title = classWithCode.getTitle();
+                while (resultSet.next())
+                {
+                    int id = resultSet.getInt("id");
+                    String studentFullName = resultSet.getString("student_full_name");
+
+                    if (rowTraceSink.isEnabled())
+                    {
+                        rowTraceSink.row(id, studentFullName, code, title);
+                    }
+                    RegisteredStudentJoinResult registeredStudentJoinResultForCurrentRow = new RegisteredStudentJoinResult(id, studentFullName, code, title);
+                    listOfRegisteredStudentJoinResults.add(registeredStudentJoinResultForCurrentRow);
+                }
+            }
 
-                System.out.printf("| %d | %s | %s | %s |%n", id, studentFullName, code, title);
-                RegisteredStudentJoinResult registeredStudentJoinResultForCurrentRow = new RegisteredStudentJoinResult(id, studentFullName, code, title);
-                listOfRegisteredStudentJoinResults.add(registeredStudentJoinResultForCurrentRow);
+            if (listOfRegisteredStudentJoinResults.isEmpty()) {
+                System.out.println("Either no students are enrolled in this class, or this class code does not exist.\n");
             }
-            connection.close();
         }
         catch (SQLException sqlException)
         {
@@ -628,67 +2323,83 @@ public class Database {
         }
         return listOfRegisteredStudentJoinResults;
     }
+
+    /**
+     * Lists the classes in which the student with the given id is registered, sorted by class id
+     * (the same order as the earlier version of this query, whose subquery was sorted by class_id;
+     * the class id is also the order of the covering index, so SQLite does not sort the rows).
+     *
+     * The query starts from the student (by primary key) and reads the registrations of the student
+     * through the registered_students_student_id_class_id index, which covers both columns of the join,
+     * so the registered_students table itself is never read. The LEFT JOINs return one row
+     * (with NULL class columns) for a student without classes, so a single query tells apart
+     * a student without classes from a student that does not exist; the registrations are told apart from that row
+     * by registered_students.class_id (a registered class may have a NULL code).
+     *
+     * @param studentId the id of the student
+     * @return the classes of the student (an empty list if the student is not registered in any class),
+     *         or null if the student does not exist
+     */
     public ArrayList<RegisteredStudentJoinResult> showAllStudentsClasses(int studentId){
-        String First = null;
-        String Last = null;
-        Boolean proceed = false;
-        ResultSet resultSet = null;
-        ArrayList<RegisteredStudentJoinResult> studentClasses = new ArrayList<RegisteredStudentJoinResult>();
         String sql =
-                "SELECT ALL *\n" +
-                        "FROM(\n"+
-                        "SELECT students.id, students.first_name || ' ' || students.last_name AS student_full_name, classes.code, classes.title\n" +
+                "SELECT students.id, students.first_name || ' ' || students.last_name AS student_full_name, registered_students.class_id, classes.code, classes.title\n" +
                         "FROM students\n" +
-                        "INNER JOIN registered_students ON students.id = registered_students.student_id\n" +
-                        "INNER JOIN classes ON classes.id = registered_students.class_id\n" +
-                        "ORDER BY class_id)\n" +
-                        "WHERE student_full_name = ?;" ;
-        String sql1 = "SELECT first_name, last_name\n" +
-                "FROM students\n" +
-                "WHERE students.id = ?";
-        try{
-            Connection connection = getDatabaseConnection();
-            while(!proceed) {
-                PreparedStatement preparedStatement1 = connection.prepareStatement(sql1);
-                preparedStatement1.setInt(1, studentId);
-                ResultSet resultSet1 = preparedStatement1.executeQuery();
-                if (!resultSet1.next()) {
-                    System.out.println("Either this student is not enrolled in any classes or this student does not exist.");
-                    connection.close();
-                }
-                First = resultSet1.getString(1);
-                Last = resultSet1.getString(2);
+                        "LEFT JOIN registered_students ON registered_students.student_id = students.id\n" +
+                        "LEFT JOIN classes ON classes.id = registered_students.class_id\n" +
+                        "WHERE students.id = ?\n" +
+                        "ORDER BY registered_students.class_id;";
+        ArrayList<RegisteredStudentJoinResult> studentClasses = new ArrayList<RegisteredStudentJoinResult>();
+        boolean studentExists = false;
+        try (
+                Connection connection = getDatabaseConnection("showAllStudentsClasses");
                 PreparedStatement preparedStatement = connection.prepareStatement(sql);
-                preparedStatement.setString(1, First + " " + Last);
-                resultSet = preparedStatement.executeQuery();
-                if (!resultSet.next()) {
-                    System.out.println("Either this student is not enrolled in any classes or this student does not exist.");
-                    connection.close();
+        ) {
+            preparedStatement.setInt(1, studentId);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                rowTraceSink.header("students.id", "student_full_name", "classes.code", "classes.title");
+
+                while (resultSet.next())
+                {
+                    studentExists = true;
+
+                    // classes.code may be NULL for a registered class, so the registration is told apart by its class_id
+                    resultSet.getInt("class_id");
+                    if (resultSet.wasNull())
+                    {
+                        // the student is not registered in any class
+                        continue;
+                    }
+
+                    String code = resultSet.getString("code");
+
+                    int id = resultSet.getInt("id");
+                    String studentFullName = resultSet.getString("student_full_name");
+                    String title = resultSet.getString("title");
+
+                    if (rowTraceSink.isEnabled())
+                    {
+                        rowTraceSink.row(id, studentFullName, code, title);
+                    }
+                    RegisteredStudentJoinResult registeredStudentJoinResultForCurrentRow = new RegisteredStudentJoinResult(id, studentFullName, code, title);
+                    studentClasses.add(registeredStudentJoinResultForCurrentRow);
                 }
-                proceed = true;
-            }
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, First + " " + Last);
-            resultSet = preparedStatement.executeQuery();
-            printTableHeader(new String[]{"students.id", "student_full_name", "classes.code", "classes.title"});
-
-            while (resultSet.next())
-            {
-                int id = resultSet.getInt("id");
-                String studentFullName = resultSet.getString("student_full_name");
-                String code = resultSet.getString("code");
-                String title = resultSet.getString("title");
-
-                System.out.printf("| %d | %s | %s | %s |%n", id, studentFullName, code, title);
-                RegisteredStudentJoinResult registeredStudentJoinResultForCurrentRow = new RegisteredStudentJoinResult(id, studentFullName, code, title);
-                studentClasses.add(registeredStudentJoinResultForCurrentRow);
             }
-            connection.close();
         }
         catch (SQLException sqlException)
         {
             System.out.println("!!! SQLException: failed to query the registered_students table. Make sure you executed the schema.sql and seeds.sql scripts");
             System.out.println(sqlException.getMessage());
+            return studentClasses;
+        }
+
+        if (!studentExists) {
+            System.out.println("No student with id = " + studentId);
+            return null;
+        }
+
+        if (studentClasses.isEmpty()) {
+            System.out.println("The student with id = " + studentId + " is not enrolled in any classes.");
         }
         return studentClasses;
     }
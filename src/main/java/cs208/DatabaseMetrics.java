@@ -0,0 +1,318 @@
+package cs208;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every operation of the {@link Database} (e.g., listAllClasses or addStudentToClass), with the meters:
+ *
+ *   cs208.db.connection.acquire  (timer)    time spent waiting for a connection, tagged by operation and pool
+ *   cs208.db.query               (timer)    time spent executing the SQL statements, tagged by operation
+ *   cs208.db.rows                (summary)  rows read by every query, tagged by operation
+ *   cs208.db.errors              (counter)  SQLExceptions thrown by the connection, statements and result sets, tagged by operation
+ *
+ * which are available at http://localhost:8080/actuator/metrics/cs208.db.query?tag=operation:listAllClasses
+ * and at http://localhost:8080/actuator/prometheus
+ *
+ * The Database methods name their operation when they borrow a connection; the connection, its statements and
+ * their result sets are then wrapped in proxies that record the meters of that operation, so the SQL code of
+ * the methods does not change.
+ *
+ * The meters are registered in the global registry of Micrometer, because the Database is created
+ * before the Spring framework starts; Spring Boot adds its registries (e.g., Prometheus) to the global registry.
+ */
+public class DatabaseMetrics
+{
+    /**
+     * Borrows a connection from a pool (e.g., {@link ConnectionPool#getConnection()})
+     */
+    @FunctionalInterface
+    public interface ConnectionSupplier
+    {
+        Connection getConnection() throws SQLException;
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final ConcurrentHashMap<String, OperationMeters> metersByOperation = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Timer> acquireTimersByOperationAndPool = new ConcurrentHashMap<>();
+
+    /**
+     * @param meterRegistry the registry of the meters
+     * @param enabled false to hand out the connections without any proxy (cs208.metrics.database.enabled=false)
+     */
+    public DatabaseMetrics(MeterRegistry meterRegistry, boolean enabled)
+    {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param operation the name of the Database method that borrows the connection
+     * @param pool the name of the pool (e.g., "sqlite-reader")
+     * @param connectionSupplier borrows the connection
+     * @return the borrowed connection, which records the meters of the operation
+     */
+    public Connection acquire(String operation, String pool, ConnectionSupplier connectionSupplier) throws SQLException
+    {
+        if (!enabled)
+        {
+            return connectionSupplier.getConnection();
+        }
+
+        OperationMeters operationMeters = metersOf(operation);
+        long startNanos = System.nanoTime();
+        Connection connection;
+        try
+        {
+            connection = connectionSupplier.getConnection();
+        }
+        catch (SQLException sqlException)
+        {
+            operationMeters.errors.increment();
+            throw sqlException;
+        }
+        finally
+        {
+            acquireTimerOf(operation, pool).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        return (Connection) wrap(connection, Connection.class, new ConnectionHandler(connection, operationMeters));
+    }
+
+    private OperationMeters metersOf(String operation)
+    {
+        OperationMeters operationMeters = metersByOperation.get(operation);
+        if (operationMeters == null)
+        {
+            operationMeters = metersByOperation.computeIfAbsent(operation, newOperation -> new OperationMeters(meterRegistry, newOperation));
+        }
+        return operationMeters;
+    }
+
+    private Timer acquireTimerOf(String operation, String pool)
+    {
+        String key = operation + "@" + pool;
+        Timer timer = acquireTimersByOperationAndPool.get(key);
+        if (timer == null)
+        {
+            timer = acquireTimersByOperationAndPool.computeIfAbsent(key, newKey ->
+                    Timer.builder("cs208.db.connection.acquire")
+                            .description("time spent waiting for a connection from the pool")
+                            .tag("operation", operation)
+                            .tag("pool", pool)
+                            .register(meterRegistry)
+            );
+        }
+        return timer;
+    }
+
+    private static Object wrap(Object target, java.lang.Class<?> jdbcInterface, InvocationHandler invocationHandler)
+    {
+        return Proxy.newProxyInstance(DatabaseMetrics.class.getClassLoader(), new java.lang.Class<?>[]{jdbcInterface}, invocationHandler);
+    }
+
+
+    /**
+     * The meters of one operation
+     */
+    private static class OperationMeters
+    {
+        private final Timer query;
+        private final DistributionSummary rows;
+        private final Counter errors;
+
+        OperationMeters(MeterRegistry meterRegistry, String operation)
+        {
+            this.query = Timer.builder("cs208.db.query")
+                    .description("time spent executing the SQL statements of the operation")
+                    .tag("operation", operation)
+                    .register(meterRegistry);
+            this.rows = DistributionSummary.builder("cs208.db.rows")
+                    .description("number of rows read by a query of the operation")
+                    .baseUnit("rows")
+                    .tag("operation", operation)
+                    .register(meterRegistry);
+            this.errors = Counter.builder("cs208.db.errors")
+                    .description("number of SQLExceptions thrown during the operation")
+                    .tag("operation", operation)
+                    .register(meterRegistry);
+        }
+    }
+
+
+    /**
+     * The base of the proxies: forwards the calls to the target, and counts the SQLExceptions
+     */
+    private abstract static class ForwardingHandler implements InvocationHandler
+    {
+        final Object target;
+        final OperationMeters operationMeters;
+
+        ForwardingHandler(Object target, OperationMeters operationMeters)
+        {
+            this.target = target;
+            this.operationMeters = operationMeters;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable
+        {
+            switch (method.getName())
+            {
+                case "equals":
+                    return proxy == arguments[0];
+
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+
+                case "toString":
+                    return "Instrumented[" + target + "]";
+
+                default:
+                    try
+                    {
+                        return forward(method, arguments);
+                    }
+                    catch (InvocationTargetException invocationTargetException)
+                    {
+                        if (invocationTargetException.getCause() instanceof SQLException)
+                        {
+                            operationMeters.errors.increment();
+                        }
+                        throw invocationTargetException.getCause();
+                    }
+            }
+        }
+
+        abstract Object forward(Method method, Object[] arguments) throws InvocationTargetException, IllegalAccessException;
+    }
+
+
+    /**
+     * Wraps the statements created by the connection
+     */
+    private static class ConnectionHandler extends ForwardingHandler
+    {
+        ConnectionHandler(Connection connection, OperationMeters operationMeters)
+        {
+            super(connection, operationMeters);
+        }
+
+        @Override
+        Object forward(Method method, Object[] arguments) throws InvocationTargetException, IllegalAccessException
+        {
+            Object result = method.invoke(target, arguments);
+            if (result instanceof Statement)
+            {
+                // Statement, PreparedStatement or CallableStatement
+                return wrap(result, method.getReturnType(), new StatementHandler((Statement) result, operationMeters));
+            }
+            return result;
+        }
+    }
+
+
+    /**
+     * Times the execute methods of the statement, and wraps the result sets
+     */
+    private static class StatementHandler extends ForwardingHandler
+    {
+        StatementHandler(Statement statement, OperationMeters operationMeters)
+        {
+            super(statement, operationMeters);
+        }
+
+        @Override
+        Object forward(Method method, Object[] arguments) throws InvocationTargetException, IllegalAccessException
+        {
+            Object result;
+            if (method.getName().startsWith("execute"))
+            {
+                long startNanos = System.nanoTime();
+                try
+                {
+                    result = method.invoke(target, arguments);
+                }
+                finally
+                {
+                    operationMeters.query.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            else
+            {
+                result = method.invoke(target, arguments);
+            }
+
+            if (result instanceof ResultSet)
+            {
+                return wrap(result, ResultSet.class, new ResultSetHandler((ResultSet) result, operationMeters));
+            }
+            return result;
+        }
+    }
+
+
+    /**
+     * Counts the rows read from the result set
+     */
+    private static class ResultSetHandler extends ForwardingHandler
+    {
+        private long rows = 0;
+        private boolean recorded = false;
+
+        ResultSetHandler(ResultSet resultSet, OperationMeters operationMeters)
+        {
+            super(resultSet, operationMeters);
+        }
+
+        @Override
+        Object forward(Method method, Object[] arguments) throws InvocationTargetException, IllegalAccessException
+        {
+            switch (method.getName())
+            {
+                case "next":
+                    Object hasRow = method.invoke(target, arguments);
+                    if (Boolean.TRUE.equals(hasRow))
+                    {
+                        rows++;
+                    }
+                    else
+                    {
+                        recordRows();
+                    }
+                    return hasRow;
+
+                case "close":
+                    // the rows of a result set that was not read to the end are recorded when it is closed
+                    recordRows();
+                    return method.invoke(target, arguments);
+
+                default:
+                    return method.invoke(target, arguments);
+            }
+        }
+
+        private void recordRows()
+        {
+            if (!recorded)
+            {
+                recorded = true;
+                operationMeters.rows.record(rows);
+            }
+        }
+    }
+}
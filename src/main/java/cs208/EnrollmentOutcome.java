@@ -0,0 +1,36 @@
+package cs208;
+
+/**
+ * What happened to one (studentId, classId) pair of
+ *    POST /registered_students/add
+ *    POST /registered_students/batch
+ *    DELETE /registered_students/delete
+ * (see {@link Database#addStudentsToClasses(java.util.List)})
+ */
+public enum EnrollmentOutcome
+{
+    // the student was added to the class
+    ENROLLED,
+
+    // the student was already registered in the class, so nothing changed
+    ALREADY_ENROLLED,
+
+    // the same pair appears earlier in the request
+    DUPLICATE_IN_REQUEST,
+
+    STUDENT_NOT_FOUND,
+
+    CLASS_NOT_FOUND,
+
+    // the class already has max_students students (see {@link SeatCounters})
+    CLASS_FULL,
+
+    // the student was dropped from the class
+    UNENROLLED,
+
+    // the student was not registered in the class, so nothing changed
+    NOT_ENROLLED,
+
+    // the insert or the delete failed (for a batch, the reason is in the error of the result)
+    FAILED
+}
@@ -0,0 +1,47 @@
+package cs208;
+
+/**
+ * One (studentId, classId) pair of
+ *    POST /registered_students/batch
+ * for example:
+ * {
+ *   "studentId": 1,
+ *   "classId": 2
+ * }
+ */
+public class EnrollmentRequest
+{
+    private int studentId;
+    private int classId;
+
+    // used by the Spring framework to create the pairs sent as JSON
+    public EnrollmentRequest()
+    {
+    }
+
+    public EnrollmentRequest(int studentId, int classId)
+    {
+        this.studentId = studentId;
+        this.classId = classId;
+    }
+
+    public int getStudentId()
+    {
+        return studentId;
+    }
+
+    public void setStudentId(int studentId)
+    {
+        this.studentId = studentId;
+    }
+
+    public int getClassId()
+    {
+        return classId;
+    }
+
+    public void setClassId(int classId)
+    {
+        this.classId = classId;
+    }
+}
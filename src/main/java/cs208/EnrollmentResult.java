@@ -0,0 +1,48 @@
+package cs208;
+
+/**
+ * The outcome of one (studentId, classId) pair of
+ *    POST /registered_students/batch
+ * for example:
+ * {
+ *   "studentId": 1,
+ *   "classId": 2,
+ *   "outcome": "ENROLLED",
+ *   "error": null
+ * }
+ */
+public class EnrollmentResult
+{
+    private final int studentId;
+    private final int classId;
+    private final EnrollmentOutcome outcome;
+    private final String error;
+
+    public EnrollmentResult(int studentId, int classId, EnrollmentOutcome outcome, String error)
+    {
+        this.studentId = studentId;
+        this.classId = classId;
+        this.outcome = outcome;
+        this.error = error;
+    }
+
+    public int getStudentId()
+    {
+        return studentId;
+    }
+
+    public int getClassId()
+    {
+        return classId;
+    }
+
+    public EnrollmentOutcome getOutcome()
+    {
+        return outcome;
+    }
+
+    public String getError()
+    {
+        return error;
+    }
+}
@@ -0,0 +1,109 @@
+package cs208;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The IdBlockAllocator class hands out the ids of new rows from memory.
+ *
+ * It reserves a block of blockSize ids in the database at once (see {@link Database#reserveIdBlock(String, int)}),
+ * then hands them out with an atomic increment, without any lock. Only the thread that finds the current
+ * block exhausted reserves the next block, while the other threads wait for it.
+ *
+ * The ids of a block that is not used up before the server stops are skipped, so the ids can have gaps.
+ */
+public class IdBlockAllocator
+{
+    /**
+     * Reserves a block of ids in the database
+     */
+    @FunctionalInterface
+    public interface BlockReserver
+    {
+        /**
+         * @param blockSize the number of ids to reserve
+         * @return the last id of the reserved block (the block is lastId - blockSize + 1, ..., lastId)
+         */
+        long reserveBlock(int blockSize) throws SQLException;
+    }
+
+    private final String name;
+    private final int blockSize;
+    private final BlockReserver blockReserver;
+
+    // starts exhausted, so the first call to nextId() reserves the first block
+    private final AtomicReference<IdBlock> currentBlock = new AtomicReference<>(new IdBlock(1, 0));
+    private final AtomicLong reservedBlocks = new AtomicLong();
+
+    // a lock rather than synchronized, because a virtual thread that blocks (here, on the database)
+    // inside a synchronized block cannot leave its carrier thread (see VirtualThreadConfiguration)
+    private final ReentrantLock reserveLock = new ReentrantLock();
+
+    public IdBlockAllocator(String name, int blockSize, BlockReserver blockReserver)
+    {
+        this.name = name;
+        this.blockSize = Math.max(blockSize, 1);
+        this.blockReserver = blockReserver;
+    }
+
+    /**
+     * @return a new id that was not handed out before
+     * @throws SQLException if a new block of ids cannot be reserved in the database
+     */
+    public long nextId() throws SQLException
+    {
+        while (true)
+        {
+            IdBlock block = currentBlock.get();
+            long id = block.nextId.getAndIncrement();
+            if (id <= block.lastId)
+            {
+                return id;
+            }
+
+            reserveNextBlock(block);
+        }
+    }
+
+    private void reserveNextBlock(IdBlock exhaustedBlock) throws SQLException
+    {
+        reserveLock.lock();
+        try
+        {
+            // another thread may have reserved the next block while we were waiting for the lock
+            if (currentBlock.get() != exhaustedBlock)
+            {
+                return;
+            }
+
+            long lastId = blockReserver.reserveBlock(blockSize);
+            currentBlock.set(new IdBlock(lastId - blockSize + 1, lastId));
+            reservedBlocks.incrementAndGet();
+            System.out.println("Reserved the " + name + " ids " + (lastId - blockSize + 1) + " to " + lastId);
+        }
+        finally
+        {
+            reserveLock.unlock();
+        }
+    }
+
+    public long getReservedBlocks()
+    {
+        return reservedBlocks.get();
+    }
+
+
+    private static class IdBlock
+    {
+        private final AtomicLong nextId;
+        private final long lastId;
+
+        IdBlock(long firstId, long lastId)
+        {
+            this.nextId = new AtomicLong(firstId);
+            this.lastId = lastId;
+        }
+    }
+}
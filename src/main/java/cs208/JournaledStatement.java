@@ -0,0 +1,191 @@
+package cs208;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An INSERT, UPDATE or DELETE statement that changed the database, with the values of its parameters,
+ * as written to the {@link MutationJournal} and executed again when the journal is replayed.
+ *
+ * The parameters can be null, Integer, Long, Double, String or java.sql.Date
+ * (the types set by the {@link Database} methods).
+ */
+public class JournaledStatement
+{
+    private static final byte NULL = 0;
+    private static final byte INTEGER = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte STRING = 4;
+    private static final byte DATE = 5;
+
+    private final String sql;
+    private final List<Object> parameters;
+
+    /**
+     * @param sql the SQL statement
+     * @param parameters the values of the parameters 1, 2, ... of the statement
+     */
+    public JournaledStatement(String sql, List<Object> parameters)
+    {
+        for (Object parameter : parameters)
+        {
+            if (parameter != null && typeOf(parameter) == NULL)
+            {
+                throw new IllegalArgumentException("a parameter of type " + parameter.getClass().getName() + " cannot be journaled: " + sql);
+            }
+        }
+
+        this.sql = sql;
+        this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+    }
+
+    public String getSql()
+    {
+        return sql;
+    }
+
+    public List<Object> getParameters()
+    {
+        return parameters;
+    }
+
+    /**
+     * Executes the statement again (when the journal is replayed)
+     */
+    public void execute(Connection connection) throws SQLException
+    {
+        try (PreparedStatement sqlStatement = connection.prepareStatement(sql))
+        {
+            for (int i = 0; i < parameters.size(); i++)
+            {
+                Object parameter = parameters.get(i);
+                if (parameter instanceof Date)
+                {
+                    sqlStatement.setDate(i + 1, (Date) parameter);
+                }
+                else
+                {
+                    sqlStatement.setObject(i + 1, parameter);
+                }
+            }
+            sqlStatement.executeUpdate();
+        }
+    }
+
+    void writeTo(DataOutputStream output) throws IOException
+    {
+        writeString(output, sql);
+        output.writeInt(parameters.size());
+        for (Object parameter : parameters)
+        {
+            byte type = parameter == null ? NULL : typeOf(parameter);
+            output.writeByte(type);
+            switch (type)
+            {
+                case INTEGER:
+                    output.writeInt((Integer) parameter);
+                    break;
+                case LONG:
+                    output.writeLong((Long) parameter);
+                    break;
+                case DOUBLE:
+                    output.writeDouble((Double) parameter);
+                    break;
+                case STRING:
+                    writeString(output, (String) parameter);
+                    break;
+                case DATE:
+                    output.writeLong(((Date) parameter).getTime());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    static JournaledStatement readFrom(DataInputStream input) throws IOException
+    {
+        String sql = readString(input);
+        int parameterCount = input.readInt();
+        List<Object> parameters = new ArrayList<>(parameterCount);
+        for (int i = 0; i < parameterCount; i++)
+        {
+            byte type = input.readByte();
+            switch (type)
+            {
+                case NULL:
+                    parameters.add(null);
+                    break;
+                case INTEGER:
+                    parameters.add(input.readInt());
+                    break;
+                case LONG:
+                    parameters.add(input.readLong());
+                    break;
+                case DOUBLE:
+                    parameters.add(input.readDouble());
+                    break;
+                case STRING:
+                    parameters.add(readString(input));
+                    break;
+                case DATE:
+                    parameters.add(new Date(input.readLong()));
+                    break;
+                default:
+                    throw new IOException("unknown type of parameter: " + type);
+            }
+        }
+        return new JournaledStatement(sql, parameters);
+    }
+
+    // NULL if the type is not supported
+    private static byte typeOf(Object parameter)
+    {
+        if (parameter instanceof Integer)
+        {
+            return INTEGER;
+        }
+        if (parameter instanceof Long)
+        {
+            return LONG;
+        }
+        if (parameter instanceof Double)
+        {
+            return DOUBLE;
+        }
+        if (parameter instanceof String)
+        {
+            return STRING;
+        }
+        if (parameter instanceof Date)
+        {
+            return DATE;
+        }
+        return NULL;
+    }
+
+    // DataOutputStream.writeUTF is limited to 64KB, which a description could exceed
+    private static void writeString(DataOutputStream output, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException
+    {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,297 @@
+package cs208;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Wraps the connection of a group of the {@link WriteBehindPipeline}, and records the statements that changed rows
+ * (with the values of their parameters), so they can be written to the {@link MutationJournal}.
+ *
+ * Like the proxies of {@link DatabaseMetrics}, the SQL code of the Database methods does not change;
+ * the SELECT statements and the statements that changed no row are not recorded.
+ *
+ * The transaction belongs to the pipeline: closing the connection does nothing,
+ * and the methods that would end the transaction (commit, rollback, setAutoCommit) throw an exception.
+ * The batches of a PreparedStatement are recorded (one statement per row that changed rows);
+ * the batches of a plain Statement throw an exception.
+ */
+public class JournalingConnection
+{
+    private JournalingConnection()
+    {
+    }
+
+    /**
+     * @param connection the connection of the group, in a transaction
+     * @param recordedStatements the list to which the statements that changed rows are added
+     * @return the connection given to the mutation
+     */
+    public static Connection wrap(Connection connection, List<JournaledStatement> recordedStatements)
+    {
+        return (Connection) wrap(connection, Connection.class, new ConnectionHandler(connection, recordedStatements));
+    }
+
+    private static Object wrap(Object target, java.lang.Class<?> jdbcInterface, InvocationHandler invocationHandler)
+    {
+        return Proxy.newProxyInstance(JournalingConnection.class.getClassLoader(), new java.lang.Class<?>[]{jdbcInterface}, invocationHandler);
+    }
+
+
+    /**
+     * The base of the proxies: forwards the calls to the target
+     */
+    private abstract static class ForwardingHandler implements InvocationHandler
+    {
+        final Object target;
+        final List<JournaledStatement> recordedStatements;
+
+        ForwardingHandler(Object target, List<JournaledStatement> recordedStatements)
+        {
+            this.target = target;
+            this.recordedStatements = recordedStatements;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable
+        {
+            switch (method.getName())
+            {
+                case "equals":
+                    return proxy == arguments[0];
+
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+
+                case "toString":
+                    return "Journaling[" + target + "]";
+
+                default:
+                    try
+                    {
+                        return forward(method, arguments);
+                    }
+                    catch (InvocationTargetException invocationTargetException)
+                    {
+                        throw invocationTargetException.getCause();
+                    }
+            }
+        }
+
+        abstract Object forward(Method method, Object[] arguments) throws Exception;
+    }
+
+
+    /**
+     * Wraps the statements created by the connection, and keeps the transaction open
+     */
+    private static class ConnectionHandler extends ForwardingHandler
+    {
+        ConnectionHandler(Connection connection, List<JournaledStatement> recordedStatements)
+        {
+            super(connection, recordedStatements);
+        }
+
+        @Override
+        Object forward(Method method, Object[] arguments) throws Exception
+        {
+            switch (method.getName())
+            {
+                case "close":
+                    // the connection stays with the pipeline until the group is committed
+                    return null;
+
+                case "commit":
+                case "rollback":
+                case "setAutoCommit":
+                case "setSavepoint":
+                case "releaseSavepoint":
+                    throw new UnsupportedOperationException(method.getName() + " cannot be called in a group of the write-behind pipeline");
+
+                default:
+                    Object result = method.invoke(target, arguments);
+                    if (result instanceof PreparedStatement)
+                    {
+                        // the SQL is the first argument of every prepareStatement method
+                        String sql = (String) arguments[0];
+                        return wrap(result, method.getReturnType(), new PreparedStatementHandler((PreparedStatement) result, sql, recordedStatements));
+                    }
+                    if (result instanceof Statement)
+                    {
+                        return wrap(result, method.getReturnType(), new StatementHandler((Statement) result, recordedStatements));
+                    }
+                    return result;
+            }
+        }
+    }
+
+
+    /**
+     * Records the SQL of the executeUpdate calls that changed rows
+     */
+    private static class StatementHandler extends ForwardingHandler
+    {
+        StatementHandler(Statement statement, List<JournaledStatement> recordedStatements)
+        {
+            super(statement, recordedStatements);
+        }
+
+        @Override
+        Object forward(Method method, Object[] arguments) throws Exception
+        {
+            switch (method.getName())
+            {
+                case "addBatch":
+                case "executeBatch":
+                case "executeLargeBatch":
+                case "execute":
+                    throw new UnsupportedOperationException(method.getName() + " is not journaled, use executeUpdate");
+
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                    Object rowsChanged = method.invoke(target, arguments);
+                    if (((Number) rowsChanged).longValue() > 0)
+                    {
+                        recordedStatements.add(new JournaledStatement((String) arguments[0], new ArrayList<>()));
+                    }
+                    return rowsChanged;
+
+                default:
+                    return method.invoke(target, arguments);
+            }
+        }
+    }
+
+
+    /**
+     * Keeps the values of the parameters, and records them with the SQL when an execution changed rows
+     */
+    private static class PreparedStatementHandler extends ForwardingHandler
+    {
+        private final String sql;
+        private final Map<Integer, Object> parameters = new TreeMap<>();
+        // the values of the parameters of every row added to the batch
+        private final List<List<Object>> batchValues = new ArrayList<>();
+
+        PreparedStatementHandler(PreparedStatement preparedStatement, String sql, List<JournaledStatement> recordedStatements)
+        {
+            super(preparedStatement, recordedStatements);
+            this.sql = sql;
+        }
+
+        @Override
+        Object forward(Method method, Object[] arguments) throws Exception
+        {
+            switch (method.getName())
+            {
+                case "setInt":
+                case "setLong":
+                case "setDouble":
+                case "setString":
+                case "setDate":
+                    parameters.put((Integer) arguments[0], arguments[1]);
+                    return method.invoke(target, arguments);
+
+                case "setNull":
+                    parameters.put((Integer) arguments[0], null);
+                    return method.invoke(target, arguments);
+
+                case "clearParameters":
+                    parameters.clear();
+                    return method.invoke(target, arguments);
+
+                case "addBatch":
+                    batchValues.add(parameterValues());
+                    return method.invoke(target, arguments);
+
+                case "clearBatch":
+                    batchValues.clear();
+                    return method.invoke(target, arguments);
+
+                case "executeBatch":
+                case "executeLargeBatch":
+                    // if the batch fails, nothing is recorded: the mutation must roll back the rows it inserted
+                    // (e.g., to a savepoint) before it goes on
+                    try
+                    {
+                        Object updateCounts = method.invoke(target, arguments);
+                        recordBatch(updateCounts);
+                        return updateCounts;
+                    }
+                    finally
+                    {
+                        batchValues.clear();
+                    }
+
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                    Object rowsChanged = method.invoke(target, arguments);
+                    if (((Number) rowsChanged).longValue() > 0)
+                    {
+                        record();
+                    }
+                    return rowsChanged;
+
+                case "execute":
+                    Object hasResultSet = method.invoke(target, arguments);
+                    if (Boolean.FALSE.equals(hasResultSet) && ((PreparedStatement) target).getUpdateCount() > 0)
+                    {
+                        record();
+                    }
+                    return hasResultSet;
+
+                case "executeQuery":
+                    return method.invoke(target, arguments);
+
+                default:
+                    // the setters of the parameters (e.g., setObject or setTimestamp) take the index and the value
+                    boolean parameterSetter = method.getName().startsWith("set") && arguments != null && arguments.length >= 2;
+                    if (parameterSetter)
+                    {
+                        throw new UnsupportedOperationException(method.getName() + " is not journaled");
+                    }
+                    return method.invoke(target, arguments);
+            }
+        }
+
+        private void record()
+        {
+            recordedStatements.add(new JournaledStatement(sql, parameterValues()));
+        }
+
+        // the rows of the batch whose update count is not 0 (SUCCESS_NO_INFO is recorded too)
+        private void recordBatch(Object updateCounts)
+        {
+            for (int row = 0; row < batchValues.size(); row++)
+            {
+                long updateCount = updateCounts instanceof long[] ? ((long[]) updateCounts)[row] : ((int[]) updateCounts)[row];
+                if (updateCount != 0)
+                {
+                    recordedStatements.add(new JournaledStatement(sql, batchValues.get(row)));
+                }
+            }
+        }
+
+        private List<Object> parameterValues()
+        {
+            List<Object> values = new ArrayList<>();
+            for (int index = 1; index <= parameters.size(); index++)
+            {
+                if (!parameters.containsKey(index))
+                {
+                    throw new IllegalStateException("the parameter " + index + " was not set: " + sql);
+                }
+                values.add(parameters.get(index));
+            }
+            return values;
+        }
+    }
+}
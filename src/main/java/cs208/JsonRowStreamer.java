@@ -0,0 +1,84 @@
+package cs208;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Writes the rows of a query to the HTTP response as a JSON array while the rows are read from the database,
+ * so the time to the first byte and the memory used do not grow with the number of rows.
+ *
+ * The rows are converted to JSON with the ObjectMapper of the Spring framework,
+ * so the JSON is the same as the JSON of the non-streaming routes.
+ *
+ * NOTE:
+ *  - the status code and the headers are sent before the first row,
+ *    so an error in the middle of the query can only abort the response (the client receives an incomplete array)
+ *  - the Database methods used as row sources read the rows one page at a time, and return the connection
+ *    to the pool between the pages, so a slow client holds neither a connection nor the lock of an open read
+ *    (see Database#streamPageByPage)
+ */
+@Component
+public class JsonRowStreamer
+{
+    // the first rows are flushed right away, so the client starts receiving data immediately
+    private static final int ROWS_FLUSHED_IMMEDIATELY = 1;
+
+    private final ObjectMapper objectMapper;
+
+    public JsonRowStreamer(ObjectMapper objectMapper)
+    {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * A query that passes its rows, one at a time, to the given handler
+     * (e.g., {@link Database#streamAllClasses(RowHandler)})
+     */
+    @FunctionalInterface
+    public interface RowSource<T>
+    {
+        int forEachRow(RowHandler<T> rowHandler) throws SQLException, IOException;
+    }
+
+    /**
+     * @param rowSource the query that produces the rows
+     * @return the body of the response, which runs the query when Spring writes the response
+     */
+    public <T> StreamingResponseBody streamAsJsonArray(RowSource<T> rowSource)
+    {
+        return outputStream -> {
+            try (JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator(outputStream))
+            {
+                // Spring closes the output stream itself, and after an error
+                // the array must stay unterminated, so the client can tell that the response is incomplete
+                jsonGenerator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                jsonGenerator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+
+                jsonGenerator.writeStartArray();
+
+                int[] numberOfRowsWritten = {0};
+                rowSource.forEachRow(row -> {
+                    jsonGenerator.writeObject(row);
+                    numberOfRowsWritten[0]++;
+                    if (numberOfRowsWritten[0] <= ROWS_FLUSHED_IMMEDIATELY)
+                    {
+                        jsonGenerator.flush();
+                    }
+                });
+
+                jsonGenerator.writeEndArray();
+            }
+            catch (SQLException sqlException)
+            {
+                System.out.println("!!! SQLException: failed to stream the rows, the response is incomplete");
+                System.out.println(sqlException.getMessage());
+                throw new IOException(sqlException);
+            }
+        };
+    }
+}
@@ -19,12 +19,49 @@ public class Main
         // TODO: create a SQLite data source in IntelliJ with this file name
         String sqliteFileName = "cs208_hw5.sqlite";
 
-        database = new Database(sqliteFileName);
+        ApplicationSettings settings = ApplicationSettings.load(args);
+
+        // e.g., start the server with the argument --cs208.database.storage-mode=wal
+        StorageMode storageMode = StorageMode.fromSetting(settings.getString("cs208.database.storage-mode", "rollback-journal"));
+
+        database = new Database(sqliteFileName, storageMode, settings);
+
+        // e.g., start the server with the argument --cs208.threads.virtual=true (Java 21 or later)
+        if (settings.getBoolean("cs208.threads.virtual", false))
+        {
+            if (VirtualThreads.isSupported())
+            {
+                int maximumBusyConnections = 0;
+                for (ConnectionPool connectionPool : database.getConnectionPools())
+                {
+                    maximumBusyConnections += connectionPool.getMaximumPoolSize();
+                }
+                VirtualThreads.reserveCarriersForConnections(maximumBusyConnections);
+            }
+            else
+            {
+                System.out.println("!!! cs208.threads.virtual=true, but this JDK has no virtual threads (Java 21 or later is needed)");
+            }
+        }
 
         try
         {
-            database.getDatabaseConnection();
+            // we open the writer connection first, because in the WAL storage mode
+            // the writer is the connection that switches the database file to WAL,
+            // which the read-only connections cannot do
+            // (closing the connection returns it to the pool, where it stays open)
+            database.getWriterConnection().close();
+
             database.testConnection();
+            database.createMissingIndexes();
+            database.createMissingSearchIndex();
+
+            // e.g., start the server with the argument --cs208.database.write-coalescer.enabled=true
+            // or --cs208.journal.enabled=true; with the journal, replays the mutations that were acknowledged
+            // but not written to the database file before a crash, so it runs before the seats are counted
+            database.startWriteBehindPipeline();
+
+            database.seedSeatCounters();
         }
         catch (Exception exception)
         {
@@ -0,0 +1,228 @@
+package cs208;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The MutationJournal class is an append-only file of the statements applied by the {@link WriteBehindPipeline}.
+ *
+ * Every group of mutations is appended as one record:
+ *
+ *     length (int) | CRC32 of the payload (int) | payload: sequence (long), statements (see {@link JournaledStatement})
+ *
+ * and the pipeline forces the file to the disk (FileChannel.force) before it acknowledges the mutations.
+ * A record cut short by a crash (or with a wrong CRC) ends the journal: it is truncated when the journal is read.
+ */
+public class MutationJournal implements AutoCloseable
+{
+    // the length and the CRC32 before every payload
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final Path journalFile;
+    private final FileChannel fileChannel;
+
+    /**
+     * @param journalFileName the journal file, created if it does not exist
+     * @throws IOException if the file cannot be opened
+     */
+    public MutationJournal(String journalFileName) throws IOException
+    {
+        this.journalFile = Paths.get(journalFileName);
+        this.fileChannel = FileChannel.open(
+                journalFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+    }
+
+    public Path getJournalFile()
+    {
+        return journalFile;
+    }
+
+    /**
+     * Reads all the complete records, from the start of the file, and truncates the file after the last one
+     *
+     * @return the records, in the order in which they were appended
+     */
+    public List<Record> readRecords() throws IOException
+    {
+        List<Record> records = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long position = 0;
+        long fileSize = fileChannel.size();
+
+        while (position + RECORD_HEADER_SIZE <= fileSize)
+        {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > fileSize)
+            {
+                break;
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + RECORD_HEADER_SIZE);
+            if (crc32(payload.array()) != crc)
+            {
+                break;
+            }
+
+            records.add(Record.decode(payload.array()));
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        if (position < fileSize)
+        {
+            System.out.println("!!! the mutation journal ends with an incomplete record, truncated at byte " + position);
+            truncate(position);
+        }
+        fileChannel.position(position);
+        return records;
+    }
+
+    /**
+     * Appends the record at the end of the file, without forcing it to the disk (see {@link #force()})
+     */
+    public void append(Record record) throws IOException
+    {
+        byte[] payload = record.encode();
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt(crc32(payload));
+        buffer.put(payload);
+        buffer.flip();
+
+        while (buffer.hasRemaining())
+        {
+            fileChannel.write(buffer);
+        }
+    }
+
+    /**
+     * Waits until the records appended so far are on the disk
+     */
+    public void force() throws IOException
+    {
+        // the size of the file only changes with its content, so the metadata does not need to be forced
+        fileChannel.force(false);
+    }
+
+    /**
+     * @return the size of the file in bytes
+     */
+    public long size() throws IOException
+    {
+        return fileChannel.size();
+    }
+
+    /**
+     * Removes the records after the given size (e.g., 0 to empty the journal), and forces the change to the disk
+     */
+    public void truncate(long size) throws IOException
+    {
+        fileChannel.truncate(size);
+        fileChannel.position(size);
+        fileChannel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        fileChannel.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (fileChannel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("unexpected end of the mutation journal at byte " + position);
+            }
+        }
+    }
+
+    private static int crc32(byte[] bytes)
+    {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return (int) crc32.getValue();
+    }
+
+
+    /**
+     * The statements of one group of mutations, committed in one transaction
+     */
+    public static class Record
+    {
+        private final long sequence;
+        private final List<JournaledStatement> statements;
+
+        /**
+         * @param sequence the number of the group, which increases with every group
+         * @param statements the statements applied by the group, in order
+         */
+        public Record(long sequence, List<JournaledStatement> statements)
+        {
+            this.sequence = sequence;
+            this.statements = Collections.unmodifiableList(new ArrayList<>(statements));
+        }
+
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        public List<JournaledStatement> getStatements()
+        {
+            return statements;
+        }
+
+        byte[] encode() throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream output = new DataOutputStream(bytes))
+            {
+                output.writeLong(sequence);
+                output.writeInt(statements.size());
+                for (JournaledStatement statement : statements)
+                {
+                    statement.writeTo(output);
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        static Record decode(byte[] payload) throws IOException
+        {
+            try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload)))
+            {
+                long sequence = input.readLong();
+                int statementCount = input.readInt();
+                List<JournaledStatement> statements = new ArrayList<>(statementCount);
+                for (int i = 0; i < statementCount; i++)
+                {
+                    statements.add(JournaledStatement.readFrom(input));
+                }
+                return new Record(sequence, statements);
+            }
+        }
+    }
+}
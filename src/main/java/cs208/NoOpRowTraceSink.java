@@ -0,0 +1,28 @@
+package cs208;
+
+/**
+ * The row trace sink of the "off" mode (see {@link RowTraceSink}), which discards everything
+ */
+public class NoOpRowTraceSink implements RowTraceSink
+{
+    @Override
+    public boolean isEnabled()
+    {
+        return false;
+    }
+
+    @Override
+    public void header(String... columnNames)
+    {
+    }
+
+    @Override
+    public void row(Object... values)
+    {
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
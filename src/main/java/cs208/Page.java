@@ -0,0 +1,33 @@
+package cs208;
+
+import java.util.List;
+
+/**
+ * The Page class represents one page of a keyset-paginated list, for example
+ *    GET /classes?after=20&limit=10
+ * returns (at most) 10 classes with an id greater than 20.
+ *
+ * The nextCursor is the value of the "after" parameter that returns the next page,
+ * or null if this is the last page.
+ */
+public class Page<T>
+{
+    private final List<T> items;
+    private final String nextCursor;
+
+    public Page(List<T> items, String nextCursor)
+    {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems()
+    {
+        return items;
+    }
+
+    public String getNextCursor()
+    {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,93 @@
+package cs208;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.util.List;
+
+/**
+ * Utility class containing static methods used by the list routes that support keyset pagination, e.g.,
+ *    GET /classes?after=20&limit=10
+ *
+ * The link to the next page is returned in the Link header (and the cursor alone in the X-Next-Cursor header),
+ * so the body of the response is the same JSON array as without pagination.
+ */
+public class Pagination
+{
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAXIMUM_LIMIT = 500;
+
+    /**
+     * @param limit the value of the "limit" parameter, or null if it was not passed
+     * @return the number of rows to return in the page (at most {@link #MAXIMUM_LIMIT})
+     * @throws ResponseStatusException: a 400 status code if the limit is less than 1
+     */
+    public static int limitOrDefault(Integer limit)
+    {
+        if (limit == null)
+        {
+            return DEFAULT_LIMIT;
+        }
+
+        if (limit < 1)
+        {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST,
+                    "limit should be greater than 0"
+            );
+        }
+
+        return Math.min(limit, MAXIMUM_LIMIT);
+    }
+
+    /**
+     * @param after the value of the "after" parameter (the last id of the previous page), or null for the first page
+     * @return the id after which the page starts
+     * @throws ResponseStatusException: a 400 status code if the cursor is not a number
+     */
+    public static int idCursorOrFirst(String after)
+    {
+        if (after == null)
+        {
+            return 0;
+        }
+
+        try
+        {
+            return Integer.parseInt(after);
+        }
+        catch (NumberFormatException numberFormatException)
+        {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST,
+                    "after should be the id of the last row of the previous page"
+            );
+        }
+    }
+
+    /**
+     * @param page the page returned by the database
+     * @param limit the limit used to query the page
+     * @return the rows of the page as the body, with the Link and X-Next-Cursor headers if there is a next page
+     */
+    public static <T> ResponseEntity<List<T>> toResponseEntity(Page<T> page, int limit)
+    {
+        HttpHeaders headers = new HttpHeaders();
+
+        if (page.getNextCursor() != null)
+        {
+            String linkToNextPage = ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", page.getNextCursor())
+                    .replaceQueryParam("limit", limit)
+                    .toUriString();
+
+            headers.add(HttpHeaders.LINK, "<" + linkToNextPage + ">; rel=\"next\"");
+            headers.add("X-Next-Cursor", page.getNextCursor());
+        }
+
+        return new ResponseEntity<>(page.getItems(), headers, HttpStatus.OK);
+    }
+}
@@ -0,0 +1,387 @@
+package cs208;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The reactive variant of the routes of {@link ClassesController}, {@link StudentsController}
+ * and {@link RegisteredStudentsController}, served by the {@link ReactiveServer}.
+ *
+ * The handlers never block the event-loop threads: every call to the {@link Database} (which blocks on SQLite)
+ * runs on the database scheduler, a bounded pool of threads with a bounded queue.
+ * When the queue is full, the request fails right away with a 503 status code
+ * instead of piling up more work than the database can do.
+ *
+ * The lists (e.g., GET /classes) are read one page at a time with the keyset pagination of the {@link Database},
+ * and the next page is only read when the client has received the previous one (backpressure),
+ * so a slow client holds neither a thread nor a connection between two pages.
+ *
+ * The other routes call the same controller methods as the blocking routes (on the database scheduler),
+ * so the validation, the status codes and the JSON are the same. POST /registered_students/add and
+ * DELETE /registered_students/delete always answer with the delta (as with ?response=delta).
+ *
+ * The routes served are:
+ *      GET, POST /classes; GET, PUT, PATCH, DELETE /classes/{id}
+ *      GET, POST /students; GET, PUT, DELETE /students/{id}
+ *      GET /registered_students; GET /registered_students/{classCode}
+ *      GET /classes_in_which_student_is_enrolled/{studentId}
+ *      POST /registered_students/add; DELETE /registered_students/delete
+ * The other routes (the batches, GET /classes/search, POST /students/import, the exports
+ * and the demonstration routes with query parameters) are only served by the blocking server.
+ */
+public class ReactiveRoutes
+{
+    private final Scheduler databaseScheduler;
+    private final ObjectMapper objectMapper;
+    private final int pageSize;
+    private final ClassesController classesController;
+    private final StudentsController studentsController;
+    private final RegisteredStudentsController registeredStudentsController;
+
+    /**
+     * @param databaseScheduler the scheduler on which the blocking calls to the database run
+     * @param objectMapper converts the rows to JSON (the ObjectMapper of Spring, so the JSON is the same as the blocking routes)
+     * @param pageSize the number of rows read from the database at once by the lists
+     */
+    public ReactiveRoutes(
+            Scheduler databaseScheduler,
+            ObjectMapper objectMapper,
+            int pageSize,
+            ClassesController classesController,
+            StudentsController studentsController,
+            RegisteredStudentsController registeredStudentsController
+    )
+    {
+        this.databaseScheduler = databaseScheduler;
+        this.objectMapper = objectMapper;
+        this.pageSize = Math.max(pageSize, 1);
+        this.classesController = classesController;
+        this.studentsController = studentsController;
+        this.registeredStudentsController = registeredStudentsController;
+    }
+
+    public RouterFunction<ServerResponse> routes()
+    {
+        return RouterFunctions.route()
+                .GET("/classes", this::listClasses)
+                .GET("/classes/{id}", request ->
+                        json(onDatabase(() -> classesController.show(Integer.parseInt(request.pathVariable("id"))))))
+                .POST("/classes", request -> parameters(request).flatMap(parameters ->
+                        json(onDatabase(() -> classesController.create(
+                                requiredParameter(parameters, "code"),
+                                requiredParameter(parameters, "title"),
+                                requiredParameter(parameters, "description"),
+                                Integer.parseInt(requiredParameter(parameters, "maxStudents"))
+                        )))))
+                .PUT("/classes/{id}", request -> parameters(request).flatMap(parameters ->
+                        json(onDatabase(() -> classesController.update(
+                                Integer.parseInt(request.pathVariable("id")),
+                                requiredParameter(parameters, "code"),
+                                requiredParameter(parameters, "title"),
+                                requiredParameter(parameters, "description"),
+                                Integer.valueOf(requiredParameter(parameters, "maxStudents"))
+                        )))))
+                .PATCH("/classes/{id}", request -> parameters(request).flatMap(parameters ->
+                        json(onDatabase(() -> classesController.updatePatch(
+                                Integer.parseInt(request.pathVariable("id")),
+                                parameters.getFirst("code"),
+                                parameters.getFirst("title"),
+                                parameters.getFirst("description"),
+                                optionalInteger(parameters, "maxStudents")
+                        )))))
+                .DELETE("/classes/{id}", request ->
+                        onDatabase(() ->
+                        {
+                            classesController.delete(Integer.parseInt(request.pathVariable("id")));
+                            return Boolean.TRUE;
+                        }).flatMap(deleted -> ServerResponse.ok().build()))
+                .GET("/students", this::listStudents)
+                .GET("/students/{id}", request ->
+                        json(onDatabase(() -> studentsController.getStudent(Integer.parseInt(request.pathVariable("id"))))))
+                .POST("/students", request -> parameters(request).flatMap(parameters ->
+                        json(onDatabase(() -> studentsController.addNewStudent(
+                                requiredParameter(parameters, "first_name"),
+                                requiredParameter(parameters, "last_name"),
+                                requiredParameter(parameters, "birth_date")
+                        )))))
+                .PUT("/students/{id}", request -> parameters(request).flatMap(parameters ->
+                        json(onDatabase(() -> studentsController.update(
+                                Integer.parseInt(request.pathVariable("id")),
+                                requiredParameter(parameters, "first_name"),
+                                requiredParameter(parameters, "last_name"),
+                                requiredParameter(parameters, "birth_date")
+                        )))))
+                .DELETE("/students/{id}", request ->
+                        onDatabase(() -> studentsController.delete(Integer.parseInt(request.pathVariable("id"))))
+                                .flatMap(message -> ServerResponse.ok().contentType(MediaType.TEXT_PLAIN).bodyValue(message)))
+                .GET("/registered_students", this::listRegisteredStudents)
+                .GET("/registered_students/{classCode}", request ->
+                        json(onDatabase(() -> registeredStudentsController.studentsRegisteredInClass(request.pathVariable("classCode")))))
+                .GET("/classes_in_which_student_is_enrolled/{studentId}", request ->
+                        json(onDatabase(() -> registeredStudentsController.studentClasses(Integer.parseInt(request.pathVariable("studentId"))))))
+                .POST("/registered_students/add", request -> parameters(request).flatMap(parameters ->
+                        json(onDatabase(() -> registeredStudentsController.addStudentToClassDelta(
+                                Integer.parseInt(requiredParameter(parameters, "idOfStudentToAdd")),
+                                Integer.parseInt(requiredParameter(parameters, "idOfClassToAddTo"))
+                        )))))
+                .DELETE("/registered_students/delete", request -> parameters(request).flatMap(parameters ->
+                        json(onDatabase(() -> registeredStudentsController.deleteStudentFromClassDelta(
+                                Integer.parseInt(requiredParameter(parameters, "idOfStudentToDelete")),
+                                Integer.parseInt(requiredParameter(parameters, "idOfClassToDeleteFrom"))
+                        )))))
+                .filter(this::handleErrors)
+                .build();
+    }
+
+
+    /**
+     * GET /classes
+     * GET /classes?after={id}&limit={limit}
+     */
+    private Mono<ServerResponse> listClasses(ServerRequest request)
+    {
+        return list(request, (cursor, limit) -> Main.database.listClassesPage(Pagination.idCursorOrFirst(cursor), limit));
+    }
+
+    /**
+     * GET /students
+     * GET /students?after={id}&limit={limit}
+     */
+    private Mono<ServerResponse> listStudents(ServerRequest request)
+    {
+        return list(request, (cursor, limit) -> Main.database.listStudentsPage(Pagination.idCursorOrFirst(cursor), limit));
+    }
+
+    /**
+     * GET /registered_students
+     * GET /registered_students?after={cursor}&limit={limit}
+     */
+    private Mono<ServerResponse> listRegisteredStudents(ServerRequest request)
+    {
+        return list(request, (cursor, limit) -> Main.database.listRegisteredStudentsPage(decodeRegisteredStudentCursor(cursor), limit));
+    }
+
+    private static RegisteredStudentCursor decodeRegisteredStudentCursor(String cursor)
+    {
+        if (cursor == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return RegisteredStudentCursor.decode(cursor);
+        }
+        catch (IllegalArgumentException illegalArgumentException)
+        {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST,
+                    "after should be the X-Next-Cursor header of the previous page"
+            );
+        }
+    }
+
+
+    /**
+     * Reads the page of a list that starts after the cursor (null for the first page)
+     */
+    @FunctionalInterface
+    private interface PageLoader<T>
+    {
+        Page<T> load(String cursor, int limit);
+    }
+
+    /**
+     * Without the after and limit query parameters, streams the whole list as a JSON array, one page at a time.
+     * With any of them, returns one page, with the cursor of the next page in the Link and X-Next-Cursor headers
+     * (the same as {@link Pagination#toResponseEntity(Page, int)}).
+     */
+    private <T> Mono<ServerResponse> list(ServerRequest request, PageLoader<T> pageLoader)
+    {
+        String after = request.queryParam("after").orElse(null);
+        String limitParameter = request.queryParam("limit").orElse(null);
+        if (after == null && limitParameter == null)
+        {
+            return jsonArray(allPages(pageLoader));
+        }
+
+        int limit = Pagination.limitOrDefault(limitParameter == null ? null : Integer.valueOf(limitParameter));
+        return onDatabase(() -> pageLoader.load(after, limit)).flatMap(page ->
+        {
+            ServerResponse.BodyBuilder response = ServerResponse.ok().contentType(MediaType.APPLICATION_JSON);
+            if (page.getNextCursor() != null)
+            {
+                String linkToNextPage = request.path() + "?after=" + urlEncode(page.getNextCursor()) + "&limit=" + limit;
+                response.header(HttpHeaders.LINK, "<" + linkToNextPage + ">; rel=\"next\"");
+                response.header("X-Next-Cursor", page.getNextCursor());
+            }
+            return response.bodyValue(page.getItems());
+        });
+    }
+
+    /**
+     * @return the rows of all the pages (of pageSize rows); a page is read (on the database scheduler) only when
+     *         the rows of the previous page were sent, so at most one page per client is kept in memory
+     */
+    private <T> Flux<T> allPages(PageLoader<T> pageLoader)
+    {
+        return onDatabase(() -> pageLoader.load(null, pageSize))
+                .expand(page -> page.getNextCursor() == null
+                        ? Mono.<Page<T>>empty()
+                        : onDatabase(() -> pageLoader.load(page.getNextCursor(), pageSize)))
+                .concatMapIterable(Page::getItems, 1);
+    }
+
+    /**
+     * @return the result of the blocking call, which runs on the database scheduler (an empty Mono for null)
+     */
+    private <T> Mono<T> onDatabase(Callable<T> blockingCall)
+    {
+        return Mono.fromCallable(blockingCall).subscribeOn(databaseScheduler);
+    }
+
+    private static Mono<ServerResponse> json(Mono<?> body)
+    {
+        return body.flatMap(value -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(value));
+    }
+
+    /**
+     * Writes the rows as a JSON array, one row after the other, as the client reads them.
+     * The status code is sent before the first row, so an error in the middle of the list
+     * aborts the response, and the client receives an unterminated array (as with {@link JsonRowStreamer}).
+     */
+    private Mono<ServerResponse> jsonArray(Flux<?> rows)
+    {
+        Flux<String> elements = rows.index().map(indexedRow ->
+                (indexedRow.getT1() == 0 ? "" : ",") + toJson(indexedRow.getT2()));
+
+        Flux<DataBuffer> body = Flux.concat(Flux.just("["), elements, Flux.just("]"))
+                .map(text -> DefaultDataBufferFactory.sharedInstance.wrap(text.getBytes(StandardCharsets.UTF_8)));
+
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).body(body, DataBuffer.class);
+    }
+
+    private String toJson(Object row)
+    {
+        try
+        {
+            return objectMapper.writeValueAsString(row);
+        }
+        catch (JsonProcessingException jsonProcessingException)
+        {
+            throw new UncheckedIOException(jsonProcessingException);
+        }
+    }
+
+    /**
+     * @return the query parameters and the form parameters of the request (as @RequestParam does for the blocking routes)
+     */
+    private static Mono<MultiValueMap<String, String>> parameters(ServerRequest request)
+    {
+        return request.formData().map(formData ->
+        {
+            MultiValueMap<String, String> parameters = new LinkedMultiValueMap<>(request.queryParams());
+            parameters.addAll(formData);
+            return parameters;
+        });
+    }
+
+    private static String requiredParameter(MultiValueMap<String, String> parameters, String name)
+    {
+        String value = parameters.getFirst(name);
+        if (value == null)
+        {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "missing the parameter " + name);
+        }
+        return value;
+    }
+
+    private static Integer optionalInteger(MultiValueMap<String, String> parameters, String name)
+    {
+        String value = parameters.getFirst(name);
+        return value == null ? null : Integer.valueOf(value);
+    }
+
+    private static String urlEncode(String value)
+    {
+        try
+        {
+            return URLEncoder.encode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException unsupportedEncodingException)
+        {
+            throw new IllegalStateException(unsupportedEncodingException);
+        }
+    }
+
+
+    /**
+     * Turns the errors of the handlers into a JSON error response, like the error responses of Spring MVC
+     */
+    private Mono<ServerResponse> handleErrors(ServerRequest request, HandlerFunction<ServerResponse> next)
+    {
+        return Mono.defer(() -> next.handle(request)).onErrorResume(throwable ->
+        {
+            HttpStatus status;
+            String message;
+            if (throwable instanceof ResponseStatusException)
+            {
+                status = ((ResponseStatusException) throwable).getStatus();
+                message = ((ResponseStatusException) throwable).getReason();
+            }
+            else if (throwable instanceof RejectedExecutionException)
+            {
+                // the queue of the database scheduler is full (see cs208.reactive.database.queue-size)
+                status = HttpStatus.SERVICE_UNAVAILABLE;
+                message = "too many requests are waiting for the database, try again later";
+            }
+            else if (throwable instanceof IllegalArgumentException)
+            {
+                // e.g., a parameter that is not a number, or a birth date that is not yyyy-mm-dd
+                status = HttpStatus.BAD_REQUEST;
+                message = throwable.getMessage();
+            }
+            else
+            {
+                System.out.println("!!! " + throwable.getClass().getSimpleName() + ": failed to handle " + request.path());
+                System.out.println(throwable.getMessage());
+                status = HttpStatus.INTERNAL_SERVER_ERROR;
+                message = throwable.getMessage();
+            }
+
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("timestamp", OffsetDateTime.now().toString());
+            error.put("status", status.value());
+            error.put("error", status.getReasonPhrase());
+            error.put("message", message);
+            error.put("path", request.path());
+            return ServerResponse.status(status).contentType(MediaType.APPLICATION_JSON).bodyValue(error);
+        });
+    }
+}
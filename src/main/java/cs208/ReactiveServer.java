@@ -0,0 +1,136 @@
+package cs208;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.LoopResources;
+
+/**
+ * Serves the reactive variant of the routes (see {@link ReactiveRoutes}) on a second port
+ * (cs208.reactive.enabled=true), next to the blocking routes of the Spring MVC controllers on port 8080.
+ *
+ * The requests are handled by a few Netty event-loop threads (cs208.reactive.event-loop-threads), which never block;
+ * the calls to the database run on a dedicated scheduler with at most cs208.reactive.database.threads threads
+ * (by default, one per connection of the pools, since more threads would only wait for a connection)
+ * and at most cs208.reactive.database.queue-size waiting calls.
+ *
+ * For example, with the default settings:
+ *     http://localhost:8081/classes
+ */
+@Component
+@ConditionalOnProperty(name = "cs208.reactive.enabled", havingValue = "true")
+public class ReactiveServer implements InitializingBean, DisposableBean
+{
+    private final ObjectMapper objectMapper;
+    private final ClassesController classesController;
+    private final StudentsController studentsController;
+    private final RegisteredStudentsController registeredStudentsController;
+    private final int port;
+    private final int eventLoopThreads;
+    private final int databaseThreads;
+    private final int databaseQueueSize;
+    private final int pageSize;
+
+    private Scheduler databaseScheduler;
+    private LoopResources loopResources;
+    private DisposableServer disposableServer;
+
+    public ReactiveServer(
+            ObjectMapper objectMapper,
+            ClassesController classesController,
+            StudentsController studentsController,
+            RegisteredStudentsController registeredStudentsController,
+            @Value("${cs208.reactive.port:8081}") int port,
+            @Value("${cs208.reactive.event-loop-threads:2}") int eventLoopThreads,
+            @Value("${cs208.reactive.database.threads:0}") int databaseThreads,
+            @Value("${cs208.reactive.database.queue-size:1000}") int databaseQueueSize,
+            @Value("${cs208.reactive.page-size:500}") int pageSize
+    )
+    {
+        this.objectMapper = objectMapper;
+        this.classesController = classesController;
+        this.studentsController = studentsController;
+        this.registeredStudentsController = registeredStudentsController;
+        this.port = port;
+        this.eventLoopThreads = Math.max(eventLoopThreads, 1);
+        this.databaseThreads = databaseThreads;
+        this.databaseQueueSize = Math.max(databaseQueueSize, 1);
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        int threads = databaseThreads > 0 ? databaseThreads : numberOfConnections();
+        databaseScheduler = Schedulers.newBoundedElastic(threads, databaseQueueSize, "reactive-database");
+
+        ReactiveRoutes reactiveRoutes = new ReactiveRoutes(
+                databaseScheduler,
+                objectMapper,
+                pageSize,
+                classesController,
+                studentsController,
+                registeredStudentsController
+        );
+
+        // the same ObjectMapper as the blocking routes, so the JSON is the same (e.g., the format of the dates)
+        HandlerStrategies handlerStrategies = HandlerStrategies.builder()
+                .codecs(codecs ->
+                {
+                    codecs.defaultCodecs().jackson2JsonEncoder(new Jackson2JsonEncoder(objectMapper));
+                    codecs.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper));
+                })
+                .build();
+        HttpHandler httpHandler = RouterFunctions.toHttpHandler(reactiveRoutes.routes(), handlerStrategies);
+
+        loopResources = LoopResources.create("reactive-http", eventLoopThreads, true);
+        disposableServer = HttpServer.create()
+                .port(port)
+                .runOn(loopResources)
+                .handle(new ReactorHttpHandlerAdapter(httpHandler))
+                .bindNow();
+
+        System.out.println("The reactive routes listen on port " + disposableServer.port()
+                + " (" + eventLoopThreads + " event-loop threads, " + threads + " database threads)");
+    }
+
+    private static int numberOfConnections()
+    {
+        int connections = 0;
+        for (ConnectionPool connectionPool : Main.database.getConnectionPools())
+        {
+            connections += connectionPool.getMaximumPoolSize();
+        }
+        return connections;
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (disposableServer != null)
+        {
+            disposableServer.disposeNow();
+        }
+        if (loopResources != null)
+        {
+            loopResources.dispose();
+        }
+        if (databaseScheduler != null)
+        {
+            databaseScheduler.dispose();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package cs208;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * The RegisteredStudentCursor is the position of a row in the list of registered students,
+ * which is sorted by
+ *      students.last_name, students.first_name, classes.code
+ * (and by students.id and classes.id, to tell apart the students with the same name
+ * and the classes without a code, whose code is null).
+ *
+ * The cursor is sent to the clients as an opaque, URL-safe string (see {@link #encode()}),
+ * which they pass back in the "after" parameter to get the next page.
+ */
+public class RegisteredStudentCursor
+{
+    private final String lastName;
+    private final String firstName;
+    private final String code;
+    private final int studentId;
+    private final int classId;
+
+    public RegisteredStudentCursor(String lastName, String firstName, String code, int studentId, int classId)
+    {
+        this.lastName = lastName;
+        this.firstName = firstName;
+        this.code = code;
+        this.studentId = studentId;
+        this.classId = classId;
+    }
+
+    public String getLastName()
+    {
+        return lastName;
+    }
+
+    public String getFirstName()
+    {
+        return firstName;
+    }
+
+    /**
+     * @return the code of the class, or null if the class has no code
+     */
+    public String getCode()
+    {
+        return code;
+    }
+
+    public int getStudentId()
+    {
+        return studentId;
+    }
+
+    public int getClassId()
+    {
+        return classId;
+    }
+
+    /**
+     * @return the cursor as a URL-safe string
+     */
+    public String encode()
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeUTF(lastName);
+            output.writeUTF(firstName);
+            // classes.code is nullable, so a flag tells if the code follows
+            output.writeBoolean(code != null);
+            if (code != null)
+            {
+                output.writeUTF(code);
+            }
+            output.writeInt(studentId);
+            output.writeInt(classId);
+            output.flush();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        }
+        catch (IOException ioException)
+        {
+            // cannot happen when writing to a ByteArrayOutputStream
+            throw new IllegalStateException(ioException);
+        }
+    }
+
+    /**
+     * @param encodedCursor a string returned by {@link #encode()}
+     * @return the decoded cursor
+     * @throws IllegalArgumentException if the string is not a valid cursor
+     */
+    public static RegisteredStudentCursor decode(String encodedCursor)
+    {
+        try
+        {
+            byte[] bytes = Base64.getUrlDecoder().decode(encodedCursor);
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+            String lastName = input.readUTF();
+            String firstName = input.readUTF();
+            String code = input.readBoolean() ? input.readUTF() : null;
+            return new RegisteredStudentCursor(lastName, firstName, code, input.readInt(), input.readInt());
+        }
+        catch (IOException | IllegalArgumentException exception)
+        {
+            throw new IllegalArgumentException("invalid cursor '" + encodedCursor + "'", exception);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package cs208;
+
+/**
+ * The RegisteredStudentDelta class is the response of
+ *    POST /registered_students/add?response=delta
+ *    DELETE /registered_students/delete?response=delta
+ * which return only the registration that changed, instead of all the registered students, for example:
+ * {
+ *   "outcome": "ENROLLED",
+ *   "row": {"studentId": 1, "studentFullName": "Alice Smith", "code": "CS 410", "title": "Databases"},
+ *   "tableVersion": 42
+ * }
+ *
+ * The client applies the row to its copy of GET /registered_students: it adds the row after ENROLLED,
+ * and removes it after UNENROLLED (the other outcomes do not change the table).
+ * tableVersion is the version of the registered_students table after the change (see {@link TableVersions}):
+ * if it is not the previous version seen by the client + 1, the client missed other changes and should reload the list.
+ */
+public class RegisteredStudentDelta
+{
+    private final EnrollmentOutcome outcome;
+    private final RegisteredStudentJoinResult row;
+    private final long tableVersion;
+
+    public RegisteredStudentDelta(EnrollmentOutcome outcome, RegisteredStudentJoinResult row, long tableVersion)
+    {
+        this.outcome = outcome;
+        this.row = row;
+        this.tableVersion = tableVersion;
+    }
+
+    public EnrollmentOutcome getOutcome()
+    {
+        return outcome;
+    }
+
+    /**
+     * @return the registration that was added or removed (null if the student or the class does not exist)
+     */
+    public RegisteredStudentJoinResult getRow()
+    {
+        return row;
+    }
+
+    public long getTableVersion()
+    {
+        return tableVersion;
+    }
+}
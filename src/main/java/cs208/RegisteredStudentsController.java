@@ -2,27 +2,79 @@ package cs208;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
 
 
 @RestController
 public class RegisteredStudentsController {
+    private final JsonRowStreamer jsonRowStreamer;
+
+    public RegisteredStudentsController(JsonRowStreamer jsonRowStreamer) {
+        this.jsonRowStreamer = jsonRowStreamer;
+    }
 
     /**
      * GET /registered_students
+     * with the following optional query parameters:
+     * after (the X-Next-Cursor header of the previous page)
+     * limit (the maximum number of rows in the page)
+     * <p>
+     * Without the query parameters, all the registered students are returned.
+     * With any of them, one page is returned, and the link to the next page
+     * is in the Link header (see {@link Pagination}).
      *
      * @return a list of registered students (extracted from a join between
      * registered_students, students and classes tables in the database) as JSON
      */
     @GetMapping(value = "/registered_students", produces = MediaType.APPLICATION_JSON_VALUE)
-    ArrayList<RegisteredStudentJoinResult> registered_students() {
-        ArrayList<RegisteredStudentJoinResult> listOfRegisteredStudentJoinResults = Main.database.listAllRegisteredStudents();
+    ResponseEntity<List<RegisteredStudentJoinResult>> registered_students(
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit
+    ) {
+        if (after != null || limit != null) {
+            int pageLimit = Pagination.limitOrDefault(limit);
+            RegisteredStudentCursor cursor = null;
+            if (after != null) {
+                try {
+                    cursor = RegisteredStudentCursor.decode(after);
+                } catch (IllegalArgumentException illegalArgumentException) {
+                    throw new ResponseStatusException(
+                            HttpStatus.BAD_REQUEST,
+                            "after should be the X-Next-Cursor header of the previous page"
+                    );
+                }
+            }
+
+            Page<RegisteredStudentJoinResult> pageOfRegisteredStudents = Main.database.listRegisteredStudentsPage(cursor, pageLimit);
+            return Pagination.toResponseEntity(pageOfRegisteredStudents, pageLimit);
+        }
+
+        List<RegisteredStudentJoinResult> listOfRegisteredStudentJoinResults = Main.database.listAllRegisteredStudents();
 
-        return listOfRegisteredStudentJoinResults;
+        return ResponseEntity.ok(listOfRegisteredStudentJoinResults);
+    }
+
+
+    /**
+     * GET /registered_students?stream=true
+     * <p>
+     * Same as {@link #registered_students(String, Integer)} without pagination, but the rows are written
+     * to the response while they are read from the database (see {@link JsonRowStreamer}),
+     * which is meant for exporting the whole join.
+     *
+     * @return all the registered students (extracted from a join between
+     * registered_students, students and classes tables in the database) as a JSON array
+     */
+    @GetMapping(value = "/registered_students", params = "stream=true", produces = MediaType.APPLICATION_JSON_VALUE)
+    StreamingResponseBody streamAllRegisteredStudents() {
+        return jsonRowStreamer.streamAsJsonArray(Main.database::streamAllRegisteredStudents);
     }
 
 
@@ -34,17 +86,92 @@ public class RegisteredStudentsController {
      * <p>
      * The parameters passed in the body of the POST request will be inserted
      * into the registered_students table in the database.
+     *
+     * @return all the registered students, as JSON (see {@link #addStudentToClassDelta(int, int)} for a smaller response)
+     *
+     * @throws ResponseStatusException: a 404 status code if the student or the class does not exist
+     * @throws ResponseStatusException: a 409 status code if the class already has max_students students
      */
     // TODO: implement this route
     @PostMapping(value = "/registered_students/add", produces = MediaType.APPLICATION_JSON_VALUE)
     ArrayList<RegisteredStudentJoinResult> registered_students(
             @RequestParam("idOfStudentToAdd") int idOfStudentToAdd,
             @RequestParam("idOfClassToAddTo") int idOfClassToAddTo
+    ) {
+        addStudentToClassDelta(idOfStudentToAdd, idOfClassToAddTo);
+        return Main.database.listAllRegisteredStudents();
+    }
+
+
+    /**
+     * POST /registered_students/add?response=delta
+     * <p>
+     * Same as {@link #registered_students(int, int)}, but only the added registration is returned,
+     * with the version of the registered_students table, instead of all the registered students,
+     * so the cost of the response does not grow with the number of registrations.
+     *
+     * @return the outcome, the registration and the table version (see {@link RegisteredStudentDelta}) as JSON
+     */
+    @PostMapping(value = "/registered_students/add", params = "response=delta", produces = MediaType.APPLICATION_JSON_VALUE)
+    RegisteredStudentDelta addStudentToClassDelta(
+            @RequestParam("idOfStudentToAdd") int idOfStudentToAdd,
+            @RequestParam("idOfClassToAddTo") int idOfClassToAddTo
     ) {
         System.out.println("idOfStudentToADD = " + idOfStudentToAdd);
         System.out.println("idOfClassToAddTo = " + idOfClassToAddTo);
-        Main.database.addStudentToClass(idOfStudentToAdd, idOfClassToAddTo);
-        return Main.database.listAllRegisteredStudents();
+        RegisteredStudentDelta delta = Main.database.addStudentToClass(idOfStudentToAdd, idOfClassToAddTo);
+        switch (delta.getOutcome()) {
+            case STUDENT_NOT_FOUND:
+                throw new ResponseStatusException(
+                        HttpStatus.NOT_FOUND,
+                        "Unable to find student with student id = " + idOfStudentToAdd + " because it does not exist."
+                );
+            case CLASS_NOT_FOUND:
+                throw new ResponseStatusException(
+                        HttpStatus.NOT_FOUND,
+                        "Unable to find class with class id = " + idOfClassToAddTo + " because it does not exist."
+                );
+            case CLASS_FULL:
+                throw new ResponseStatusException(
+                        HttpStatus.CONFLICT, // 409 error code
+                        "The class with class id = " + idOfClassToAddTo + " is full."
+                );
+            case FAILED:
+                throw new ResponseStatusException(
+                        HttpStatus.UNPROCESSABLE_ENTITY, // 422 error code
+                        "failed to add the student with id = " + idOfStudentToAdd + " to the class with id = " + idOfClassToAddTo
+                );
+            default:
+                return delta;
+        }
+    }
+
+
+    /**
+     * POST /registered_students/batch
+     * with a JSON array of (studentId, classId) pairs in the body of the request, for example:
+     * [
+     *   {"studentId": 1, "classId": 2},
+     *   {"studentId": 3, "classId": 2}
+     * ]
+     * <p>
+     * All the pairs are checked and registered in one transaction (see {@link Database#addStudentsToClasses(List)}),
+     * which is much faster than one POST /registered_students/add per pair.
+     *
+     * @return the outcome of each pair (in the same order as the request) as JSON,
+     * e.g., ENROLLED, ALREADY_ENROLLED, STUDENT_NOT_FOUND, CLASS_NOT_FOUND or CLASS_FULL (see {@link EnrollmentOutcome})
+     */
+    @PostMapping(value = "/registered_students/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    List<EnrollmentResult> addStudentsToClasses(@RequestBody List<EnrollmentRequest> enrollmentRequests) {
+        System.out.println("enrollmentRequests.size() = " + enrollmentRequests.size());
+        try {
+            return Main.database.addStudentsToClasses(enrollmentRequests);
+        } catch (SQLException e) {
+            throw new ResponseStatusException(
+                    HttpStatus.UNPROCESSABLE_ENTITY, // 422 error code
+                    "failed to register the batch of students in the database"
+            );
+        }
     }
 
 
@@ -57,6 +184,8 @@ public class RegisteredStudentsController {
      * Deletes the student with id = {studentId} from the class with id = {classId}
      * from the registered_students in the database.
      *
+     * @return all the registered students, as JSON (see {@link #deleteStudentFromClassDelta(int, int)} for a smaller response)
+     *
      * @throws ResponseStatusException: a 404 status code if the student with id = {studentId} does not exist
      * @throws ResponseStatusException: a 404 status code if the class with id = {classId} does not exist
      */
@@ -65,6 +194,24 @@ public class RegisteredStudentsController {
     ArrayList<RegisteredStudentJoinResult> registered_students_new(
             @RequestParam("idOfStudentToDelete") int idOfStudentToDelete,
             @RequestParam("idOfClassToDeleteFrom") int idOfClassToDeleteFrom
+    ) {
+        deleteStudentFromClassDelta(idOfStudentToDelete, idOfClassToDeleteFrom);
+        return Main.database.listAllRegisteredStudents();
+    }
+
+
+    /**
+     * DELETE /registered_students/delete?response=delta
+     * <p>
+     * Same as {@link #registered_students_new(int, int)}, but only the deleted registration is returned,
+     * with the version of the registered_students table, instead of all the registered students.
+     *
+     * @return the outcome, the registration and the table version (see {@link RegisteredStudentDelta}) as JSON
+     */
+    @DeleteMapping(value = "/registered_students/delete", params = "response=delta", produces = MediaType.APPLICATION_JSON_VALUE)
+    RegisteredStudentDelta deleteStudentFromClassDelta(
+            @RequestParam("idOfStudentToDelete") int idOfStudentToDelete,
+            @RequestParam("idOfClassToDeleteFrom") int idOfClassToDeleteFrom
     ) {
         System.out.println("idOfStudentToADD = " + idOfStudentToDelete);
         System.out.println("idOfClassToAddTo = " + idOfClassToDeleteFrom);
@@ -82,8 +229,14 @@ public class RegisteredStudentsController {
                     "Unable to find class with class id = " + idOfClassToDeleteFrom + " because it does not exist."
             );
         }
-        Main.database.deleteStudentFromClass(idOfStudentToDelete, idOfClassToDeleteFrom);
-        return Main.database.listAllRegisteredStudents();
+        RegisteredStudentDelta delta = Main.database.deleteStudentFromClass(idOfStudentToDelete, idOfClassToDeleteFrom);
+        if (delta.getOutcome() == EnrollmentOutcome.FAILED) {
+            throw new ResponseStatusException(
+                    HttpStatus.UNPROCESSABLE_ENTITY, // 422 error code
+                    "failed to delete the student with id = " + idOfStudentToDelete + " from the class with id = " + idOfClassToDeleteFrom
+            );
+        }
+        return delta;
     }
 
 
@@ -112,7 +265,8 @@ public class RegisteredStudentsController {
      *
      * @return a list of all classes (extracted from a join between
      * registered_students, students and classes tables in the database) as JSON
-     * in which the student with id = {studentId} is enrolled
+     * in which the student with id = {studentId} is enrolled, sorted by the id of the class
+     * (the order of the registrations in the table, not the class code or the title)
      *
      * @throws ResponseStatusException: a 404 status code if the student with id = {studentId} does not exist
      */
@@ -123,13 +277,13 @@ public class RegisteredStudentsController {
     )
     {
         System.out.println("Student ID to search for = " + studentId);
-        Student student = Main.database.getStudentById(studentId);
-        if(student == null){
+        ArrayList<RegisteredStudentJoinResult> studentClasses = Main.database.showAllStudentsClasses(studentId);
+        if(studentClasses == null){
             throw new ResponseStatusException(
                     HttpStatus.NOT_FOUND,
                     "The student with student ID = " + studentId + " could not be found, because it does not exist."
             );
         }
-        return Main.database.showAllStudentsClasses(studentId);
+        return studentClasses;
     }
 }
@@ -0,0 +1,15 @@
+package cs208;
+
+import java.io.IOException;
+
+/**
+ * Receives the rows of a query one at a time, while the {@link java.sql.ResultSet} is being iterated,
+ * for example, to write each row to the HTTP response without keeping the whole result in memory.
+ *
+ * @param <T> the type of the objects created from the rows (e.g., {@link Class}, {@link Student})
+ */
+@FunctionalInterface
+public interface RowHandler<T>
+{
+    void handle(T row) throws IOException;
+}
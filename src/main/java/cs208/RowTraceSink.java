@@ -0,0 +1,81 @@
+package cs208;
+
+/**
+ * A RowTraceSink receives the rows read by the {@link Database} class, for debugging.
+ *
+ * The mode is selected with the cs208.trace.mode setting:
+ *      off       - the rows are not traced at all (the default)
+ *      sampled   - one row out of every cs208.trace.sample-rate rows is printed to the console
+ *      async-file - the rows are queued in a bounded ring buffer and written to a rolling file
+ *                   (cs208.trace.file) by a background thread
+ *
+ * The values of a row are only formatted if the row is actually written, so the callers should check
+ * {@link #isEnabled()} before building the array of values for {@link #row(Object...)}.
+ */
+public interface RowTraceSink extends AutoCloseable
+{
+    /**
+     * @return false if the rows are discarded (i.e., the callers can skip calling {@link #row(Object...)})
+     */
+    boolean isEnabled();
+
+    /**
+     * Sets the column names of the rows that the current thread traces next
+     */
+    void header(String... columnNames);
+
+    /**
+     * Traces one row, whose values are in the same order as the column names passed to {@link #header(String...)}
+     */
+    void row(Object... values);
+
+    @Override
+    void close();
+
+    /**
+     * @param settings the settings of the application (cs208.trace.*)
+     * @return the row trace sink for the mode selected in the settings
+     */
+    static RowTraceSink fromSettings(ApplicationSettings settings)
+    {
+        String mode = settings.getString("cs208.trace.mode", "off");
+        switch (mode)
+        {
+            case "off":
+                return new NoOpRowTraceSink();
+
+            case "sampled":
+                return new SampledRowTraceSink(settings.getInt("cs208.trace.sample-rate", 100));
+
+            case "async-file":
+                return new AsyncFileRowTraceSink(
+                        settings.getString("cs208.trace.file", "cs208_row_trace.log"),
+                        settings.getInt("cs208.trace.buffer-size", 8192),
+                        settings.getLong("cs208.trace.max-file-size-bytes", 10 * 1024 * 1024),
+                        settings.getInt("cs208.trace.max-files", 5)
+                );
+
+            default:
+                System.err.println("!!! unknown cs208.trace.mode '" + mode + "', the rows will not be traced");
+                return new NoOpRowTraceSink();
+        }
+    }
+
+    /**
+     * @return the row formatted as "| column = value | column = value |"
+     */
+    static String format(String[] columnNames, Object[] values)
+    {
+        StringBuilder line = new StringBuilder("|");
+        for (int i = 0; i < values.length; i++)
+        {
+            line.append(' ');
+            if (columnNames != null && i < columnNames.length)
+            {
+                line.append(columnNames[i]).append(" = ");
+            }
+            line.append(values[i]).append(" |");
+        }
+        return line.toString();
+    }
+}
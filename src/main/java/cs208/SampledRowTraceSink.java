@@ -0,0 +1,47 @@
+package cs208;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The row trace sink of the "sampled" mode (see {@link RowTraceSink}),
+ * which prints one row out of every sampleRate rows to the console
+ */
+public class SampledRowTraceSink implements RowTraceSink
+{
+    private final int sampleRate;
+    private final AtomicLong numberOfRows = new AtomicLong();
+    private final ThreadLocal<String[]> currentColumnNames = new ThreadLocal<>();
+
+    public SampledRowTraceSink(int sampleRate)
+    {
+        this.sampleRate = Math.max(sampleRate, 1);
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return true;
+    }
+
+    @Override
+    public void header(String... columnNames)
+    {
+        currentColumnNames.set(columnNames);
+    }
+
+    @Override
+    public void row(Object... values)
+    {
+        if (numberOfRows.incrementAndGet() % sampleRate != 0)
+        {
+            return;
+        }
+
+        System.out.println("[row 1/" + sampleRate + "] " + RowTraceSink.format(currentColumnNames.get(), values));
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
@@ -0,0 +1,168 @@
+package cs208;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The SeatCounters class enforces classes.max_students without a COUNT(*) query per registration.
+ *
+ * It keeps, for every class, the number of seats taken in an atomic counter, seeded from the
+ * registered_students table at startup (see {@link Database#seedSeatCounters()}).
+ * A registration reserves a seat with a compare-and-set loop before the INSERT, and the seat is released
+ * when the INSERT fails or when the student is dropped from the class. No lock is taken, and two requests
+ * can never take the last seat of a class at the same time, so a class is never oversold.
+ *
+ * The counters only know about the registrations made through the {@link Database} methods,
+ * so registered_students should not be modified directly while the server is running.
+ */
+public class SeatCounters
+{
+    // the capacity of the classes with a NULL max_students
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private final ConcurrentHashMap<Integer, ClassSeats> seatsByClassId = new ConcurrentHashMap<>();
+
+    /**
+     * Sets the number of seats of a class (when the counters are seeded, or when a class is added)
+     *
+     * @param classId the id of the class
+     * @param capacity the max_students of the class
+     * @param taken the number of students registered in the class
+     */
+    public void put(int classId, int capacity, int taken)
+    {
+        seatsByClassId.put(classId, new ClassSeats(capacity, taken));
+    }
+
+    /**
+     * Same as {@link #put(int, int, int)}, unless the seats of the class are already counted
+     */
+    public void putIfAbsent(int classId, int capacity, int taken)
+    {
+        seatsByClassId.putIfAbsent(classId, new ClassSeats(capacity, taken));
+    }
+
+    /**
+     * @return true if the seats of the class are counted (false for a class unknown to the counters)
+     */
+    public boolean contains(int classId)
+    {
+        return seatsByClassId.containsKey(classId);
+    }
+
+    /**
+     * Changes the capacity of a class (when its max_students is updated).
+     * If the new capacity is lower than the seats already taken, nobody is dropped,
+     * but no seat can be reserved until enough students leave.
+     */
+    public void setCapacity(int classId, int capacity)
+    {
+        ClassSeats classSeats = seatsByClassId.get(classId);
+        if (classSeats != null)
+        {
+            classSeats.capacity = capacity;
+        }
+    }
+
+    public void remove(int classId)
+    {
+        seatsByClassId.remove(classId);
+    }
+
+    /**
+     * Takes one seat of the class, if there is one left
+     *
+     * @return true if a seat was reserved, false if the class is full (or unknown to the counters)
+     */
+    public boolean tryReserve(int classId)
+    {
+        ClassSeats classSeats = seatsByClassId.get(classId);
+        if (classSeats == null)
+        {
+            return false;
+        }
+
+        while (true)
+        {
+            int taken = classSeats.taken.get();
+            if (taken >= classSeats.capacity)
+            {
+                return false;
+            }
+
+            if (classSeats.taken.compareAndSet(taken, taken + 1))
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back one seat of the class (the registration failed, or the student was dropped)
+     */
+    public void release(int classId)
+    {
+        ClassSeats classSeats = seatsByClassId.get(classId);
+        if (classSeats == null)
+        {
+            return;
+        }
+
+        // never below 0, even if a seat is released twice
+        classSeats.taken.getAndUpdate(taken -> Math.max(taken - 1, 0));
+    }
+
+    /**
+     * Takes back a seat that was released by a change that was rolled back (e.g., the student is registered again,
+     * because the DELETE of the registration was rolled back). Unlike {@link #tryReserve(int)}, the capacity
+     * is not checked: the registration exists in the database, so its seat is counted even if the class is full.
+     */
+    public void retake(int classId)
+    {
+        ClassSeats classSeats = seatsByClassId.get(classId);
+        if (classSeats != null)
+        {
+            classSeats.taken.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the capacity of the class ({@link #UNLIMITED} for a NULL max_students, 0 for a class unknown to the counters)
+     */
+    public int getCapacity(int classId)
+    {
+        ClassSeats classSeats = seatsByClassId.get(classId);
+        return classSeats == null ? 0 : classSeats.capacity;
+    }
+
+    /**
+     * @return the number of seats taken in the class (0 for a class unknown to the counters)
+     */
+    public int getTaken(int classId)
+    {
+        ClassSeats classSeats = seatsByClassId.get(classId);
+        return classSeats == null ? 0 : classSeats.taken.get();
+    }
+
+    /**
+     * @return the number of seats of the class that can still be reserved (0 for a class unknown to the counters)
+     */
+    public int getAvailable(int classId)
+    {
+        ClassSeats classSeats = seatsByClassId.get(classId);
+        return classSeats == null ? 0 : Math.max(classSeats.capacity - classSeats.taken.get(), 0);
+    }
+
+
+    private static class ClassSeats
+    {
+        private volatile int capacity;
+        private final AtomicInteger taken;
+
+        ClassSeats(int capacity, int taken)
+        {
+            this.capacity = capacity;
+            this.taken = new AtomicInteger(taken);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package cs208;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The StatementCache class keeps the prepared statements of one pooled connection, keyed by their SQL text,
+ * so that SQLite does not have to parse and plan the same SQL statement again on every request.
+ *
+ * The cache is used by one borrower at a time (the same as its connection), so it is not thread-safe.
+ * The least recently used statement is closed when the cache is full.
+ *
+ * Closing a statement handed out by the cache does not close the underlying SQLite statement;
+ * it only closes its result sets and clears its parameters, so the statement can be reused.
+ */
+class StatementCache
+{
+    private final Connection physicalConnection;
+    private final int maximumSize;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong evictionCount;
+
+    // accessOrder = true turns the LinkedHashMap into an LRU list (the least recently used entry is first)
+    private final LinkedHashMap<String, CachedStatement> cachedStatements = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param physicalConnection the connection that owns the statements
+     * @param maximumSize the maximum number of statements kept open
+     * @param hitCount incremented when a statement is reused (shared by all the caches of a pool)
+     * @param missCount incremented when a statement has to be prepared (shared by all the caches of a pool)
+     * @param evictionCount incremented when a statement is closed to make room (shared by all the caches of a pool)
+     */
+    StatementCache(Connection physicalConnection, int maximumSize, AtomicLong hitCount, AtomicLong missCount, AtomicLong evictionCount)
+    {
+        this.physicalConnection = physicalConnection;
+        this.maximumSize = maximumSize;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+    }
+
+    /**
+     * @param sql the SQL text of the statement
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS
+     * @return a prepared statement that is returned to the cache when it is closed
+     */
+    PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException
+    {
+        String key = autoGeneratedKeys + ":" + sql;
+
+        CachedStatement cachedStatement = cachedStatements.get(key);
+        if (cachedStatement != null && !cachedStatement.inUse)
+        {
+            hitCount.incrementAndGet();
+            cachedStatement.inUse = true;
+            return cachedStatement.proxy;
+        }
+
+        missCount.incrementAndGet();
+        PreparedStatement physicalStatement = physicalConnection.prepareStatement(sql, autoGeneratedKeys);
+
+        if (cachedStatement != null)
+        {
+            // the same SQL statement is already in use by the borrower (e.g., two open result sets),
+            // so the second one is not cached, and it is really closed when the borrower closes it
+            return physicalStatement;
+        }
+
+        cachedStatement = new CachedStatement(physicalStatement);
+        cachedStatement.inUse = true;
+        cachedStatements.put(key, cachedStatement);
+        evictLeastRecentlyUsedStatements();
+        return cachedStatement.proxy;
+    }
+
+    private void evictLeastRecentlyUsedStatements()
+    {
+        Iterator<Map.Entry<String, CachedStatement>> iterator = cachedStatements.entrySet().iterator();
+        while (cachedStatements.size() > maximumSize && iterator.hasNext())
+        {
+            CachedStatement cachedStatement = iterator.next().getValue();
+            if (cachedStatement.inUse)
+            {
+                continue;
+            }
+
+            iterator.remove();
+            evictionCount.incrementAndGet();
+            closeQuietly(cachedStatement.physicalStatement);
+        }
+    }
+
+    int size()
+    {
+        return cachedStatements.size();
+    }
+
+    /**
+     * Closes all the cached statements (e.g., before the connection itself is closed)
+     */
+    void close()
+    {
+        for (CachedStatement cachedStatement : cachedStatements.values())
+        {
+            closeQuietly(cachedStatement.physicalStatement);
+        }
+        cachedStatements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement preparedStatement)
+    {
+        try
+        {
+            preparedStatement.close();
+        }
+        catch (SQLException sqlException)
+        {
+            System.out.println("!!! SQLException: failed to close a cached statement");
+            System.out.println(sqlException.getMessage());
+        }
+    }
+
+
+    /**
+     * A cached statement, together with the proxy handed out to the borrower.
+     */
+    private static class CachedStatement implements InvocationHandler
+    {
+        private final PreparedStatement physicalStatement;
+        private final PreparedStatement proxy;
+
+        // result sets opened through the proxy, closed when the proxy is closed (like a real close() would)
+        private final List<ResultSet> openResultSets = new ArrayList<>();
+        private boolean inUse = false;
+
+        CachedStatement(PreparedStatement physicalStatement)
+        {
+            this.physicalStatement = physicalStatement;
+            this.proxy = (PreparedStatement) Proxy.newProxyInstance(
+                    StatementCache.class.getClassLoader(),
+                    new java.lang.Class<?>[]{PreparedStatement.class},
+                    this
+            );
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable
+        {
+            switch (method.getName())
+            {
+                case "close":
+                    if (inUse)
+                    {
+                        release();
+                    }
+                    return null;
+
+                case "isClosed":
+                    return !inUse || physicalStatement.isClosed();
+
+                case "equals":
+                    return proxy == arguments[0];
+
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+
+                case "toString":
+                    return "CachedStatement[" + physicalStatement + "]";
+
+                default:
+                    if (!inUse)
+                    {
+                        throw new SQLException("the statement was already closed (returned to the statement cache)");
+                    }
+
+                    try
+                    {
+                        Object result = method.invoke(physicalStatement, arguments);
+                        if (result instanceof ResultSet)
+                        {
+                            openResultSets.add((ResultSet) result);
+                        }
+                        return result;
+                    }
+                    catch (InvocationTargetException invocationTargetException)
+                    {
+                        throw invocationTargetException.getCause();
+                    }
+            }
+        }
+
+        private void release() throws SQLException
+        {
+            inUse = false;
+            try
+            {
+                // an open result set keeps the SQLite statement (and its read lock) active, so we always close them
+                for (ResultSet resultSet : openResultSets)
+                {
+                    resultSet.close();
+                }
+                physicalStatement.clearParameters();
+                physicalStatement.clearBatch();
+            }
+            finally
+            {
+                openResultSets.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package cs208;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reports the storage settings of {@link Main#database} on the actuator:
+ * the selected {@link StorageProfile} and {@link StorageMode}, and the settings in effect
+ * on a connection of every pool, as read back from SQLite, for example:
+ *    http://localhost:8080/actuator/storage
+ */
+@Component
+@Endpoint(id = "storage")
+public class StorageEndpoint
+{
+    @ReadOperation
+    public Map<String, Object> storage()
+    {
+        Map<String, Object> storage = new LinkedHashMap<>();
+        storage.put("profile", Main.database.getStorageProfile().name().toLowerCase());
+        storage.put("storageMode", Main.database.getStorageMode().name().toLowerCase().replace('_', '-'));
+
+        try
+        {
+            storage.put("pools", Main.database.readEffectiveStorageSettings());
+        }
+        catch (SQLException sqlException)
+        {
+            System.out.println("!!! SQLException: failed to read the storage settings");
+            System.out.println(sqlException.getMessage());
+            storage.put("error", sqlException.getMessage());
+        }
+
+        return storage;
+    }
+}
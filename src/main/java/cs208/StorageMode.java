@@ -0,0 +1,27 @@
+package cs208;
+
+/**
+ * The StorageMode decides how the {@link Database} opens the SQLite database file.
+ *
+ * ROLLBACK_JOURNAL: the SQLite default. Every connection can read and write,
+ *                   and a writer blocks all the readers until it commits.
+ *
+ * WAL: the database file is switched to write-ahead logging. All the writes go through
+ *      one dedicated writer connection (the writers wait their turn in a FIFO queue),
+ *      and the reads use a pool of read-only connections that are never blocked by the writer.
+ */
+public enum StorageMode
+{
+    ROLLBACK_JOURNAL,
+    WAL;
+
+    /**
+     * @param value the value of the cs208.database.storage-mode setting (e.g., "wal" or "rollback-journal")
+     * @return the matching storage mode
+     * @throws IllegalArgumentException if the value does not match any storage mode
+     */
+    public static StorageMode fromSetting(String value)
+    {
+        return StorageMode.valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+}
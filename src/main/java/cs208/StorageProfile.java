@@ -0,0 +1,101 @@
+package cs208;
+
+import org.sqlite.SQLiteConfig;
+
+/**
+ * The StorageProfile decides how every SQLite connection of the {@link Database} is tuned
+ * (see cs208.database.storage-profile in application.properties).
+ *
+ * DURABLE: the SQLite defaults (a 2MB page cache, no memory-mapped I/O, temporary tables on disk),
+ *          and every commit waits for the disk (synchronous=FULL).
+ *
+ * BALANCED: a 64MB page cache per connection, 256MB of the database file memory-mapped,
+ *           temporary tables and indexes in memory. In the WAL storage mode, the commits do not wait for the disk
+ *           (synchronous=NORMAL: a power failure can lose the last commits, but never corrupts the database);
+ *           in the ROLLBACK_JOURNAL storage mode, they still do (synchronous=FULL).
+ *
+ * THROUGHPUT: a 256MB page cache per connection, 1GB memory-mapped, temporary tables in memory,
+ *             and SQLite never waits for the disk (synchronous=OFF): a crash of the operating system
+ *             or a power failure can corrupt the database. Meant for benchmarks and for data that can be rebuilt.
+ */
+public enum StorageProfile
+{
+    DURABLE(-2000, 0, SQLiteConfig.SynchronousMode.FULL, SQLiteConfig.SynchronousMode.FULL, SQLiteConfig.TempStore.DEFAULT, 3000),
+    BALANCED(-64 * 1024, 256L * 1024 * 1024, SQLiteConfig.SynchronousMode.NORMAL, SQLiteConfig.SynchronousMode.FULL, SQLiteConfig.TempStore.MEMORY, 5000),
+    THROUGHPUT(-256 * 1024, 1024L * 1024 * 1024, SQLiteConfig.SynchronousMode.OFF, SQLiteConfig.SynchronousMode.OFF, SQLiteConfig.TempStore.MEMORY, 10000);
+
+    // a negative cache_size is in KiB rather than in pages, so it does not depend on the page size
+    private final int cacheSize;
+    private final long mmapSizeBytes;
+    private final SQLiteConfig.SynchronousMode walSynchronous;
+    private final SQLiteConfig.SynchronousMode rollbackJournalSynchronous;
+    private final SQLiteConfig.TempStore tempStore;
+    private final int busyTimeoutMillis;
+
+    StorageProfile(
+            int cacheSize,
+            long mmapSizeBytes,
+            SQLiteConfig.SynchronousMode walSynchronous,
+            SQLiteConfig.SynchronousMode rollbackJournalSynchronous,
+            SQLiteConfig.TempStore tempStore,
+            int busyTimeoutMillis
+    )
+    {
+        this.cacheSize = cacheSize;
+        this.mmapSizeBytes = mmapSizeBytes;
+        this.walSynchronous = walSynchronous;
+        this.rollbackJournalSynchronous = rollbackJournalSynchronous;
+        this.tempStore = tempStore;
+        this.busyTimeoutMillis = busyTimeoutMillis;
+    }
+
+    /**
+     * @param value the value of the cs208.database.storage-profile setting (e.g., "durable", "balanced" or "throughput")
+     * @return the matching storage profile
+     * @throws IllegalArgumentException if the value does not match any storage profile
+     */
+    public static StorageProfile fromSetting(String value)
+    {
+        return StorageProfile.valueOf(value.trim().toUpperCase().replace('-', '_'));
+    }
+
+    /**
+     * Sets the pragmas of the profile, which sqlite-jdbc runs on every new connection
+     *
+     * @param sqLiteConfig the configuration of the connections of a pool
+     * @param storageMode the storage mode, which decides the synchronous level
+     */
+    public void applyTo(SQLiteConfig sqLiteConfig, StorageMode storageMode)
+    {
+        sqLiteConfig.setCacheSize(cacheSize);
+        sqLiteConfig.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, Long.toString(mmapSizeBytes));
+        sqLiteConfig.setSynchronous(getSynchronous(storageMode));
+        sqLiteConfig.setTempStore(tempStore);
+        sqLiteConfig.setBusyTimeout(busyTimeoutMillis);
+    }
+
+    public int getCacheSize()
+    {
+        return cacheSize;
+    }
+
+    public long getMmapSizeBytes()
+    {
+        return mmapSizeBytes;
+    }
+
+    public SQLiteConfig.SynchronousMode getSynchronous(StorageMode storageMode)
+    {
+        return storageMode == StorageMode.WAL ? walSynchronous : rollbackJournalSynchronous;
+    }
+
+    public SQLiteConfig.TempStore getTempStore()
+    {
+        return tempStore;
+    }
+
+    public int getBusyTimeoutMillis()
+    {
+        return busyTimeoutMillis;
+    }
+}
@@ -0,0 +1,269 @@
+package cs208;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Imports the students of a CSV file (e.g., a registrar export) into the students table, for
+ *    POST /students/import
+ *
+ * The file is read one line at a time while it is uploaded, so the whole file is never kept in memory.
+ * The students are inserted in chunks of chunkSize rows, one transaction per chunk
+ * (see {@link Database#addNewStudents(List)}), and the progress is printed after every chunk.
+ *
+ * The columns are first_name, last_name, birth_date (in ISO format: yyyy-mm-dd).
+ * If the first line is a header with these column names, the columns can be in any order.
+ * Fields that contain commas can be quoted ("Smith, Jr."), with "" for a quote inside a quoted field.
+ */
+@Component
+public class StudentCsvImporter
+{
+    private static final List<String> DEFAULT_COLUMNS = Arrays.asList("first_name", "last_name", "birth_date");
+
+    public static final int MAXIMUM_CHUNK_SIZE = 10000;
+
+    private final int defaultChunkSize;
+
+    public StudentCsvImporter(@Value("${cs208.students.import.chunk-size:500}") int defaultChunkSize)
+    {
+        this.defaultChunkSize = defaultChunkSize;
+    }
+
+    /**
+     * @param chunkSize the number of rows inserted per transaction, or null for cs208.students.import.chunk-size
+     * @return the chunk size to use, between 1 and MAXIMUM_CHUNK_SIZE
+     */
+    public int chunkSizeOrDefault(Integer chunkSize)
+    {
+        int size = chunkSize == null ? defaultChunkSize : chunkSize;
+        return Math.max(1, Math.min(size, MAXIMUM_CHUNK_SIZE));
+    }
+
+    /**
+     * @param reader the CSV file
+     * @param chunkSize the number of rows inserted per transaction
+     * @return the number of inserted and rejected rows, and the reason of every rejected row
+     * @throws IOException if the file cannot be read (the chunks committed before the error stay in the database)
+     */
+    public StudentImportReport importStudents(Reader reader, int chunkSize) throws IOException
+    {
+        StudentImportReport report = new StudentImportReport();
+        BufferedReader bufferedReader = new BufferedReader(reader);
+
+        int[] columnIndexes = null;
+        List<Student> chunk = new ArrayList<>(chunkSize);
+        List<Long> chunkLineNumbers = new ArrayList<>(chunkSize);
+
+        long lineNumber = 0;
+        String line;
+        while ((line = bufferedReader.readLine()) != null)
+        {
+            lineNumber++;
+            if (lineNumber == 1 && line.startsWith("\uFEFF"))
+            {
+                // the byte order mark that spreadsheet programs write at the start of a UTF-8 file
+                line = line.substring(1);
+            }
+
+            if (line.trim().isEmpty())
+            {
+                continue;
+            }
+
+            List<String> fields;
+            try
+            {
+                fields = splitLine(line);
+            }
+            catch (IllegalArgumentException illegalArgumentException)
+            {
+                report.rowRead();
+                report.rowRejected(lineNumber, illegalArgumentException.getMessage());
+                continue;
+            }
+
+            if (columnIndexes == null)
+            {
+                columnIndexes = columnIndexesOfHeader(fields);
+                if (columnIndexes != null)
+                {
+                    continue;
+                }
+                columnIndexes = new int[]{0, 1, 2};
+            }
+
+            report.rowRead();
+            try
+            {
+                chunk.add(parseStudent(fields, columnIndexes));
+                chunkLineNumbers.add(lineNumber);
+            }
+            catch (IllegalArgumentException illegalArgumentException)
+            {
+                report.rowRejected(lineNumber, illegalArgumentException.getMessage());
+            }
+
+            if (chunk.size() >= chunkSize)
+            {
+                insertChunk(chunk, chunkLineNumbers, report);
+            }
+        }
+
+        insertChunk(chunk, chunkLineNumbers, report);
+        System.out.println("Finished importing the students: " + report);
+        return report;
+    }
+
+    private void insertChunk(List<Student> chunk, List<Long> chunkLineNumbers, StudentImportReport report)
+    {
+        if (chunk.isEmpty())
+        {
+            return;
+        }
+
+        try
+        {
+            List<String> rejectionReasons = Main.database.addNewStudents(chunk);
+            for (int i = 0; i < chunk.size(); i++)
+            {
+                if (rejectionReasons.get(i) == null)
+                {
+                    report.studentInserted();
+                }
+                else
+                {
+                    report.rowRejected(chunkLineNumbers.get(i), rejectionReasons.get(i));
+                }
+            }
+            report.chunkCommitted();
+        }
+        catch (SQLException sqlException)
+        {
+            // the transaction of the chunk was rolled back, so none of its rows were inserted
+            for (Long lineNumber : chunkLineNumbers)
+            {
+                report.rowRejected(lineNumber, "failed to insert the chunk of this row: " + sqlException.getMessage());
+            }
+        }
+
+        System.out.println("Importing the students: " + report);
+        chunk.clear();
+        chunkLineNumbers.clear();
+    }
+
+    /**
+     * @return the indexes of the first_name, last_name and birth_date columns if the fields are a header,
+     *         or null if the fields are a row of data
+     */
+    private static int[] columnIndexesOfHeader(List<String> fields)
+    {
+        List<String> columnNames = new ArrayList<>();
+        for (String field : fields)
+        {
+            columnNames.add(field.trim().toLowerCase());
+        }
+
+        int[] columnIndexes = new int[DEFAULT_COLUMNS.size()];
+        for (int i = 0; i < DEFAULT_COLUMNS.size(); i++)
+        {
+            columnIndexes[i] = columnNames.indexOf(DEFAULT_COLUMNS.get(i));
+            if (columnIndexes[i] < 0)
+            {
+                return null;
+            }
+        }
+        return columnIndexes;
+    }
+
+    private static Student parseStudent(List<String> fields, int[] columnIndexes)
+    {
+        String firstName = field(fields, columnIndexes[0], "first_name");
+        String lastName = field(fields, columnIndexes[1], "last_name");
+        String birthDate = field(fields, columnIndexes[2], "birth_date");
+
+        Date parsedBirthDate;
+        try
+        {
+            parsedBirthDate = StudentsController.parseBirthDate(birthDate);
+        }
+        catch (IllegalArgumentException illegalArgumentException)
+        {
+            throw new IllegalArgumentException("invalid birth_date " + birthDate + " (expected yyyy-mm-dd)");
+        }
+
+        return new Student(firstName, lastName, parsedBirthDate);
+    }
+
+    private static String field(List<String> fields, int index, String columnName)
+    {
+        String value = index < fields.size() ? fields.get(index).trim() : "";
+        if (value.isEmpty())
+        {
+            throw new IllegalArgumentException("the " + columnName + " is missing");
+        }
+        return value;
+    }
+
+    /**
+     * Splits one line of a CSV file into its fields
+     *
+     * @throws IllegalArgumentException if a quoted field is not closed on the same line
+     */
+    static List<String> splitLine(String line)
+    {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+            if (quoted)
+            {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"')
+                {
+                    field.append('"');
+                    i++;
+                }
+                else if (c == '"')
+                {
+                    quoted = false;
+                }
+                else
+                {
+                    field.append(c);
+                }
+            }
+            else if (c == '"')
+            {
+                quoted = true;
+            }
+            else if (c == ',')
+            {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else
+            {
+                field.append(c);
+            }
+        }
+
+        if (quoted)
+        {
+            throw new IllegalArgumentException("a quoted field is not closed at the end of the line");
+        }
+
+        fields.add(field.toString());
+        return fields;
+    }
+}
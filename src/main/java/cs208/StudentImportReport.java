@@ -0,0 +1,122 @@
+package cs208;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The StudentImportReport class is the result of
+ *    POST /students/import
+ * (see {@link StudentCsvImporter}), for example:
+ * {
+ *   "rowsRead": 3,
+ *   "studentsInserted": 2,
+ *   "rowsRejected": 1,
+ *   "chunksCommitted": 1,
+ *   "rejectedRows": [
+ *     {"line": 3, "error": "invalid birth_date 2000-13-45 (expected yyyy-mm-dd)"}
+ *   ],
+ *   "rejectedRowsTruncated": false
+ * }
+ *
+ * Only the first MAXIMUM_REPORTED_REJECTED_ROWS rejected rows are listed
+ * (rowsRejected still counts all of them), so a bad file cannot make the report grow without limit.
+ */
+public class StudentImportReport
+{
+    public static final int MAXIMUM_REPORTED_REJECTED_ROWS = 1000;
+
+    private long rowsRead;
+    private long studentsInserted;
+    private long rowsRejected;
+    private long chunksCommitted;
+    private final List<RejectedRow> rejectedRows = new ArrayList<>();
+
+    void rowRead()
+    {
+        rowsRead++;
+    }
+
+    void studentInserted()
+    {
+        studentsInserted++;
+    }
+
+    void chunkCommitted()
+    {
+        chunksCommitted++;
+    }
+
+    void rowRejected(long line, String error)
+    {
+        rowsRejected++;
+        if (rejectedRows.size() < MAXIMUM_REPORTED_REJECTED_ROWS)
+        {
+            rejectedRows.add(new RejectedRow(line, error));
+        }
+    }
+
+    public long getRowsRead()
+    {
+        return rowsRead;
+    }
+
+    public long getStudentsInserted()
+    {
+        return studentsInserted;
+    }
+
+    public long getRowsRejected()
+    {
+        return rowsRejected;
+    }
+
+    public long getChunksCommitted()
+    {
+        return chunksCommitted;
+    }
+
+    public List<RejectedRow> getRejectedRows()
+    {
+        return rejectedRows;
+    }
+
+    public boolean isRejectedRowsTruncated()
+    {
+        return rowsRejected > rejectedRows.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "rowsRead = " + rowsRead +
+                ", studentsInserted = " + studentsInserted +
+                ", rowsRejected = " + rowsRejected +
+                ", chunksCommitted = " + chunksCommitted;
+    }
+
+
+    /**
+     * A row of the CSV file that was not inserted, with its line number (starting from 1) and the reason
+     */
+    public static class RejectedRow
+    {
+        private final long line;
+        private final String error;
+
+        RejectedRow(long line, String error)
+        {
+            this.line = line;
+            this.error = error;
+        }
+
+        public long getLine()
+        {
+            return line;
+        }
+
+        public String getError()
+        {
+            return error;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package cs208;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
@@ -9,9 +10,17 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.sql.Date;
 import java.sql.SQLException;
 import java.util.List;
@@ -19,17 +28,64 @@ import java.util.List;
 
 @RestController
 public class StudentsController {
+    private final JsonRowStreamer jsonRowStreamer;
+    private final StudentCsvImporter studentCsvImporter;
+
+    public StudentsController(JsonRowStreamer jsonRowStreamer, StudentCsvImporter studentCsvImporter) {
+        this.jsonRowStreamer = jsonRowStreamer;
+        this.studentCsvImporter = studentCsvImporter;
+    }
+
+    /**
+     * @param birthDate a date in ISO format: yyyy-mm-dd
+     * @return the parsed date
+     * @throws IllegalArgumentException if the date is not in ISO format
+     */
+    static Date parseBirthDate(String birthDate) {
+        return Date.valueOf(birthDate.trim());
+    }
 
     /**
      * GET /students
+     * with the following optional query parameters:
+     * after (the id of the last student of the previous page)
+     * limit (the maximum number of students in the page)
+     * <p>
+     * Without the query parameters, all the students are returned.
+     * With any of them, one page of students (sorted by id) is returned,
+     * and the link to the next page is in the Link header (see {@link Pagination}).
      *
      * @return a list of students (extracted from the students table in the database) as JSON
      */
     // TODO: implement this route
     @GetMapping(value = "/students", produces = MediaType.APPLICATION_JSON_VALUE)
-    List<Student> listAllStudents() {
+    ResponseEntity<List<Student>> listAllStudents(
+            @RequestParam(value = "after", required = false) String after,
+            @RequestParam(value = "limit", required = false) Integer limit
+    ) {
+        if (after != null || limit != null) {
+            int pageLimit = Pagination.limitOrDefault(limit);
+            Page<Student> pageOfStudents = Main.database.listStudentsPage(Pagination.idCursorOrFirst(after), pageLimit);
+            return Pagination.toResponseEntity(pageOfStudents, pageLimit);
+        }
+
         List<Student> listOfStudents = Main.database.listAllStudents();
-        return listOfStudents;
+        return ResponseEntity.ok(listOfStudents);
+    }
+
+
+    /**
+     * GET /students?stream=true
+     * <p>
+     * Same as {@link #listAllStudents(String, Integer)} without pagination, but the students are written
+     * to the response while they are read from the database (see {@link JsonRowStreamer}),
+     * which is meant for exporting the whole table.
+     *
+     * @return all the students (extracted from the students table in the database) as a JSON array
+     */
+    @GetMapping(value = "/students", params = "stream=true", produces = MediaType.APPLICATION_JSON_VALUE)
+    StreamingResponseBody streamAllStudents() {
+        return jsonRowStreamer.streamAsJsonArray(Main.database::streamAllStudents);
     }
 
 
@@ -64,7 +120,7 @@ public class StudentsController {
      * The parameters passed in the body of the POST request are used to create a new student.
      * The new student is inserted into the students table in the database.
      *
-     * @return the created student (which was inserted into the database), as JSON
+     * @return the created student (which was inserted into the database), including its generated id, as JSON
      */
     // TODO: implement this route
     @PostMapping("/students")
@@ -77,9 +133,74 @@ public class StudentsController {
         System.out.println("last_name       = " + last_name);
         System.out.println("birth_date      = " + birth_date);
 
-        Student createdStudent = new Student(first_name, last_name, Date.valueOf(birth_date.trim()));
-        Main.database.addNewStudent(createdStudent);
-        return createdStudent;
+        Student createdStudent = new Student(first_name, last_name, parseBirthDate(birth_date));
+        try {
+            // addNewStudent sets the id of the inserted student, which is returned to the client
+            return Main.database.addNewStudent(createdStudent);
+        } catch (SQLException e) {
+            throw new ResponseStatusException(
+                    HttpStatus.UNPROCESSABLE_ENTITY, // 422 error code
+                    "failed to add new student to the database"
+            );
+        }
+    }
+
+
+    /**
+     * POST /students/import
+     * with a CSV file in the body of the request (Content-Type: text/csv), for example:
+     *      curl -X POST -H "Content-Type: text/csv" --data-binary @cohort.csv http://localhost:8080/students/import
+     * and the following optional query parameter:
+     * chunkSize (the number of students inserted per transaction, see cs208.students.import.chunk-size)
+     * <p>
+     * The file is read while it is uploaded and the students are inserted in chunks (see {@link StudentCsvImporter}).
+     *
+     * @return the number of inserted and rejected rows, and the reason of every rejected row, as JSON
+     */
+    @PostMapping(value = "/students/import", consumes = {"text/csv", MediaType.TEXT_PLAIN_VALUE}, produces = MediaType.APPLICATION_JSON_VALUE)
+    StudentImportReport importStudents(
+            InputStream csvFile,
+            @RequestParam(value = "chunkSize", required = false) Integer chunkSize
+    ) {
+        return importStudentsFrom(csvFile, chunkSize);
+    }
+
+
+    /**
+     * POST /students/import
+     * with a CSV file uploaded as the "file" part of a multipart form, for example:
+     *      curl -F file=@cohort.csv http://localhost:8080/students/import
+     * <p>
+     * Same as {@link #importStudents(InputStream, Integer)}.
+     */
+    @PostMapping(value = "/students/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    StudentImportReport importStudentsFromForm(
+            @RequestPart("file") MultipartFile csvFile,
+            @RequestParam(value = "chunkSize", required = false) Integer chunkSize
+    ) {
+        try (InputStream inputStream = csvFile.getInputStream()) {
+            return importStudentsFrom(inputStream, chunkSize);
+        } catch (IOException e) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST,
+                    "failed to read the uploaded CSV file"
+            );
+        }
+    }
+
+    private StudentImportReport importStudentsFrom(InputStream csvFile, Integer chunkSize) {
+        System.out.println("chunkSize       = " + chunkSize);
+
+        try {
+            Reader reader = new InputStreamReader(csvFile, StandardCharsets.UTF_8);
+            return studentCsvImporter.importStudents(reader, studentCsvImporter.chunkSizeOrDefault(chunkSize));
+        } catch (IOException e) {
+            // the chunks inserted before the error stay in the database
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST,
+                    "failed to read the CSV file: " + e.getMessage()
+            );
+        }
     }
 
 
@@ -109,7 +230,7 @@ public class StudentsController {
         System.out.println("last_name   = " + last_name);
         System.out.println("birth_date   = " + birth_date);
 
-        Student student = new Student(id, first_name, last_name, Date.valueOf(birth_date));
+        Student student = new Student(id, first_name, last_name, parseBirthDate(birth_date));
         Student student1 = Main.database.UpdateExistingStudentInformation(student);
         if (student1 == null) {
             throw new ResponseStatusException(
@@ -0,0 +1,70 @@
+package cs208;
+
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Answers the conditional GET requests of the routes that read the given tables, using the {@link TableVersions}.
+ *
+ * Every GET response gets an ETag built from the versions of the tables, and a Last-Modified header
+ * with the time of the last change to the tables. When the client sends the ETag back in an
+ * If-None-Match header (or the date in an If-Modified-Since header), and the tables did not change,
+ * the response is a 304 Not Modified without a body, and the database is not queried at all.
+ *
+ * For example, a dashboard that polls GET /classes every few seconds only gets the classes again after a change.
+ *
+ * NOTE:
+ *  - the ETag is computed before the route queries the database, so a change committed in between
+ *    is sent with the older ETag; the next request of the client then simply gets the data again
+ *  - only the changes made through the {@link Database} methods are counted
+ *  - the HTTP dates have a one-second granularity, so while the tables changed within the current second,
+ *    the Last-Modified header is not sent (only the ETag): otherwise a client could receive that date,
+ *    miss a second change in the same second, and get a 304 for it with If-Modified-Since
+ */
+public class TableVersionInterceptor implements HandlerInterceptor
+{
+    private final TableVersions.Table[] tables;
+
+    /**
+     * @param tables the tables read by the routes of this interceptor
+     */
+    public TableVersionInterceptor(TableVersions.Table... tables)
+    {
+        this.tables = tables;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+    {
+        if (!"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod()))
+        {
+            return true;
+        }
+
+        TableVersions tableVersions = Main.database.getTableVersions();
+
+        // e.g., W/"1697500000000-12-3" for versions 12 and 3, since the server started at 1697500000000
+        StringBuilder etag = new StringBuilder("W/\"").append(tableVersions.getStartedAtMillis());
+        long lastModifiedMillis = 0;
+        for (TableVersions.Table table : tables)
+        {
+            etag.append('-').append(tableVersions.current(table));
+            lastModifiedMillis = Math.max(lastModifiedMillis, tableVersions.lastModifiedMillis(table));
+        }
+        etag.append('"');
+
+        ServletWebRequest webRequest = new ServletWebRequest(request, response);
+        boolean changedInTheCurrentSecond = lastModifiedMillis / 1000 == System.currentTimeMillis() / 1000;
+        if (changedInTheCurrentSecond)
+        {
+            // sets the ETag header, and the 304 status code if the client already has this version (If-None-Match only)
+            return !webRequest.checkNotModified(etag.toString());
+        }
+
+        // sets the ETag and Last-Modified headers, and the 304 status code if the client already has this version
+        return !webRequest.checkNotModified(etag.toString(), lastModifiedMillis);
+    }
+}
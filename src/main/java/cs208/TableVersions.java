@@ -0,0 +1,71 @@
+package cs208;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The TableVersions class counts the changes made to each table through the {@link Database} methods.
+ *
+ * The version of a table is incremented after every committed change to the table, so a client that
+ * has seen version N of a table knows that it missed some changes if the next version it sees is not N + 1.
+ *
+ * The versions start again from 0 when the server restarts, so the ETags built from them
+ * (see {@link TableVersionInterceptor}) also contain the time at which the server started.
+ */
+public class TableVersions
+{
+    public enum Table
+    {
+        CLASSES,
+        STUDENTS,
+        REGISTERED_STUDENTS
+    }
+
+    private final long startedAtMillis = System.currentTimeMillis();
+    private final Map<Table, AtomicLong> versions = new EnumMap<>(Table.class);
+    private final Map<Table, AtomicLong> lastModifiedMillis = new EnumMap<>(Table.class);
+
+    public TableVersions()
+    {
+        for (Table table : Table.values())
+        {
+            versions.put(table, new AtomicLong());
+            // the changes made before the server started are not known, so they are dated at the start of the server
+            lastModifiedMillis.put(table, new AtomicLong(startedAtMillis));
+        }
+    }
+
+    /**
+     * @return the number of changes made to the table since the server started
+     */
+    public long current(Table table)
+    {
+        return versions.get(table).get();
+    }
+
+    /**
+     * @return the time of the last change made to the table (or the time at which the server started)
+     */
+    public long lastModifiedMillis(Table table)
+    {
+        return lastModifiedMillis.get(table).get();
+    }
+
+    public long getStartedAtMillis()
+    {
+        return startedAtMillis;
+    }
+
+    /**
+     * Called after a change to the table was committed
+     *
+     * @return the new version of the table
+     */
+    public long increment(Table table)
+    {
+        // the time is updated first, so a client never sees the new version with the old time
+        lastModifiedMillis.get(table).accumulateAndGet(System.currentTimeMillis(), Math::max);
+        return versions.get(table).incrementAndGet();
+    }
+}
@@ -0,0 +1,72 @@
+package cs208;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Serves the requests on virtual threads instead of the pool of Tomcat threads (cs208.threads.virtual=true,
+ * on Java 21 or later). The {@link Database} methods are called by the request threads, so they also run on
+ * virtual threads: a request that waits for SQLite, or for a slow client, no longer holds a platform thread,
+ * and thousands of requests can wait at the same time.
+ *
+ * The number of requests that use the database at once is still bounded by the connection pools
+ * (cs208.database.pool.maximum-size): the other requests wait for a connection in the fair queue of the pool,
+ * which does not hold a platform thread either.
+ *
+ * The async requests (e.g., GET /classes?stream=true) also run on virtual threads,
+ * instead of the task executor of Spring (8 threads by default).
+ */
+@Configuration
+@ConditionalOnProperty(name = "cs208.threads.virtual", havingValue = "true")
+public class VirtualThreadConfiguration implements WebMvcConfigurer, DisposableBean
+{
+    // null when the JDK has no virtual threads, in which case the server keeps its platform threads
+    private final ExecutorService virtualThreadExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor("virtual-");
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer()
+    {
+        return protocolHandler ->
+        {
+            if (virtualThreadExecutor == null)
+            {
+                // Main has already warned that this JDK has no virtual threads
+                return;
+            }
+
+            // replaces the thread pool of Tomcat (server.tomcat.threads.max no longer applies);
+            // the number of open connections is still limited by server.tomcat.max-connections
+            protocolHandler.setExecutor(virtualThreadExecutor);
+            System.out.println("Serving the requests on virtual threads");
+        };
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer)
+    {
+        // this configurer runs after the one of Spring Boot, so its executor replaces the default task executor
+        if (virtualThreadExecutor != null)
+        {
+            configurer.setTaskExecutor(new TaskExecutorAdapter(virtualThreadExecutor));
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        // Tomcat does not shut down an executor that it did not create
+        if (virtualThreadExecutor != null)
+        {
+            virtualThreadExecutor.shutdown();
+        }
+    }
+}
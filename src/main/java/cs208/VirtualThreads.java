@@ -0,0 +1,90 @@
+package cs208;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates executors that run every task on a new virtual thread, when the JDK has virtual threads (Java 21 and later).
+ *
+ * The project is compiled for Java 8, so the virtual thread API is called through reflection;
+ * on an older JDK, {@link #isSupported()} returns false and the server keeps its platform threads.
+ */
+public class VirtualThreads
+{
+    private VirtualThreads()
+    {
+    }
+
+    /**
+     * @return true if the running JDK can create virtual threads
+     */
+    public static boolean isSupported()
+    {
+        try
+        {
+            Thread.class.getMethod("ofVirtual");
+            Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return true;
+        }
+        catch (NoSuchMethodException noSuchMethodException)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @param namePrefix the prefix of the names of the threads, followed by a counter (e.g., "http-virtual-42")
+     * @return an executor that starts a new virtual thread for every task, or null if the JDK has no virtual threads
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix)
+    {
+        if (!isSupported())
+        {
+            return null;
+        }
+
+        try
+        {
+            // Thread.ofVirtual().name(namePrefix, 0).factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            java.lang.Class<?> builderInterface = java.lang.Class.forName("java.lang.Thread$Builder");
+            builder = builderInterface.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) builderInterface.getMethod("factory").invoke(builder);
+
+            // Executors.newThreadPerTaskExecutor(threadFactory)
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+        }
+        catch (ReflectiveOperationException reflectiveOperationException)
+        {
+            System.out.println("!!! failed to create a virtual thread executor, using platform threads");
+            System.out.println(reflectiveOperationException.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The virtual threads run on a pool of platform "carrier" threads, with one carrier per CPU core by default.
+     * A virtual thread that calls into the SQLite native library (JNI) cannot leave its carrier until the call returns,
+     * so with fewer carriers than connections, the queries could hold all the carriers while other requests wait.
+     *
+     * This method raises the number of carriers above the number of connections that can be busy at once,
+     * unless jdk.virtualThreadScheduler.parallelism was set explicitly. It must be called before the first
+     * virtual thread is started, because the carriers are created with the first virtual thread.
+     *
+     * @param maximumBusyConnections the number of connections of the pools (readers and writer)
+     */
+    public static void reserveCarriersForConnections(int maximumBusyConnections)
+    {
+        if (System.getProperty("jdk.virtualThreadScheduler.parallelism") != null)
+        {
+            return;
+        }
+
+        // one more carrier than connections, so a request can always be served while every connection runs a query
+        int parallelism = Math.max(Runtime.getRuntime().availableProcessors(), maximumBusyConnections + 1);
+        System.setProperty("jdk.virtualThreadScheduler.parallelism", Integer.toString(parallelism));
+    }
+}
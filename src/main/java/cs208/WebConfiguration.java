@@ -0,0 +1,31 @@
+package cs208;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import static cs208.TableVersions.Table.CLASSES;
+import static cs208.TableVersions.Table.REGISTERED_STUDENTS;
+import static cs208.TableVersions.Table.STUDENTS;
+
+/**
+ * Registers the {@link TableVersionInterceptor}s of the routes that read the database,
+ * with the tables that each route reads.
+ */
+@Configuration
+public class WebConfiguration implements WebMvcConfigurer
+{
+    @Override
+    public void addInterceptors(InterceptorRegistry registry)
+    {
+        registry.addInterceptor(new TableVersionInterceptor(CLASSES))
+                .addPathPatterns("/classes", "/classes/**");
+
+        registry.addInterceptor(new TableVersionInterceptor(STUDENTS))
+                .addPathPatterns("/students", "/students/**");
+
+        // the registered students are joined with the students and the classes (names, codes and titles)
+        registry.addInterceptor(new TableVersionInterceptor(CLASSES, STUDENTS, REGISTERED_STUDENTS))
+                .addPathPatterns("/registered_students", "/registered_students/**", "/classes_in_which_student_is_enrolled/**");
+    }
+}
@@ -0,0 +1,691 @@
+package cs208;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.UnaryOperator;
+
+/**
+ * The WriteBehindPipeline class applies the mutations of the {@link Database} (e.g., addStudentToClass)
+ * in groups, with one SQLite transaction and one fsync per group instead of one per mutation,
+ * so the concurrent writers share the commits instead of queuing for the write lock one by one
+ * (see cs208.database.write-coalescer.* and cs208.journal.* in application.properties).
+ *
+ * The request threads put their mutations in a queue, each with its own future, and wait (at most submitTimeoutMillis);
+ * a single applier thread takes the first mutation of the queue, gathers the mutations that arrive
+ * within windowMillis (at most maximumGroupSize), and, for every group:
+ *
+ *   1. applies the mutations in one transaction, each in its own savepoint, so a mutation that fails
+ *      (e.g., a duplicated class code) is rolled back alone;
+ *   2. with a {@link MutationJournal}: appends the statements that changed rows (see {@link JournalingConnection})
+ *      to the journal as one record, and forces the journal to the disk;
+ *   3. commits the transaction, which (with a journal) records the sequence of the group
+ *      in the mutation_journal_checkpoint table;
+ *   4. runs the "committed" step of every mutation (e.g., incrementing the table versions) in order,
+ *      and completes the futures of the mutations.
+ *
+ * The changes that a mutation makes in memory while it is applied (e.g., a seat reserved in the {@link SeatCounters})
+ * are undone with the undo actions that it registers with {@link #onRollback(Runnable)}, when the mutation
+ * is rolled back to its savepoint or when its group is rolled back.
+ *
+ * Without a journal, the pipeline only coalesces the writes: every group is one durable SQLite commit.
+ * With a journal, the journal makes the group durable, so the transaction is committed with synchronous=NORMAL,
+ * which does not wait for the disk; a journal needs the WAL storage mode (in the rollback-journal storage mode,
+ * every commit waits for the disk, and the journal would only add a second fsync per group). If the server stops before SQLite wrote
+ * a group to the disk, {@link #start()} replays the records after the sequence of the checkpoint table.
+ *
+ * The journal is emptied when SQLite has all of its groups on the disk: at startup, and when the journal
+ * grows over compactBytes (after a checkpoint of the WAL file).
+ */
+public class WriteBehindPipeline implements AutoCloseable
+{
+    /**
+     * The SQL statements of a mutation, applied in the transaction of a group
+     */
+    @FunctionalInterface
+    public interface Mutation<T>
+    {
+        /**
+         * @param connection the connection of the group; the mutation must not commit, roll back or close it
+         * @return the result of the mutation
+         */
+        T apply(Connection connection) throws SQLException;
+    }
+
+    // null when the pipeline only coalesces the writes
+    private final MutationJournal mutationJournal;
+    private final DatabaseMetrics.ConnectionSupplier writerConnectionSupplier;
+    private final boolean walMode;
+    private final int maximumGroupSize;
+    private final long windowNanos;
+    private final long compactBytes;
+    private final long submitTimeoutMillis;
+
+    private final LinkedBlockingQueue<PendingMutation<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread applierThread;
+    // closed is checked and the mutations are added to the queue under this lock, so that no mutation
+    // is added after the applier thread saw the pipeline closed with an empty queue
+    private final Object enqueueLock = new Object();
+    private volatile boolean closed = false;
+
+    // the sequence of the next group (only used by the applier thread, after recover)
+    private long nextSequence = 1;
+
+    // the undo actions of the mutation being applied, and of the mutations of the group that were applied
+    // (only used by the applier thread, see onRollback)
+    private List<Runnable> mutationUndoActions = null;
+    private final List<Runnable> groupUndoActions = new ArrayList<>();
+
+    /**
+     * @param mutationJournal the journal of the groups, or null to only coalesce the writes
+     * @param writerConnectionSupplier borrows the connection that modifies the data
+     * @param walMode true in the WAL storage mode, where the groups are committed with synchronous=NORMAL (with a journal);
+     *                must be true with a journal
+     * @param maximumGroupSize the maximum number of mutations applied in one group
+     * @param windowMillis how long the applier thread waits for more mutations after the first one of a group
+     *                     (0 to only take the mutations already in the queue)
+     * @param compactBytes the size of the journal above which it is emptied
+     * @param submitTimeoutMillis how long {@link #submit(Mutation, UnaryOperator)} waits for the mutation to be taken out of the queue
+     */
+    public WriteBehindPipeline(
+            MutationJournal mutationJournal,
+            DatabaseMetrics.ConnectionSupplier writerConnectionSupplier,
+            boolean walMode,
+            int maximumGroupSize,
+            long windowMillis,
+            long compactBytes,
+            long submitTimeoutMillis
+    )
+    {
+        if (mutationJournal != null && !walMode)
+        {
+            throw new IllegalArgumentException("the mutation journal needs the WAL storage mode");
+        }
+
+        this.mutationJournal = mutationJournal;
+        this.writerConnectionSupplier = writerConnectionSupplier;
+        this.walMode = walMode;
+        this.maximumGroupSize = Math.max(maximumGroupSize, 1);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(windowMillis, 0));
+        this.compactBytes = compactBytes;
+        this.submitTimeoutMillis = submitTimeoutMillis;
+
+        this.applierThread = new Thread(this::applyGroups, "write-behind-applier");
+        this.applierThread.setDaemon(true);
+    }
+
+    /**
+     * Replays the records of the journal that are not in the database yet (if there is a journal),
+     * empties the journal, and starts the applier thread. Called once at startup, before the server accepts requests.
+     *
+     * @throws SQLException if a record cannot be replayed (the server should not start)
+     * @throws IOException if the journal cannot be read
+     */
+    public void start() throws SQLException, IOException
+    {
+        if (mutationJournal != null)
+        {
+            recover();
+        }
+        applierThread.start();
+    }
+
+    private void recover() throws SQLException, IOException
+    {
+        List<MutationJournal.Record> records = mutationJournal.readRecords();
+
+        try (Connection connection = writerConnectionSupplier.getConnection())
+        {
+            try (Statement sqlStatement = connection.createStatement())
+            {
+                sqlStatement.executeUpdate(
+                        "CREATE TABLE IF NOT EXISTS mutation_journal_checkpoint (\n" +
+                                "    id INTEGER PRIMARY KEY CHECK (id = 1),\n" +
+                                "    applied_sequence INTEGER NOT NULL\n" +
+                                ");"
+                );
+                sqlStatement.executeUpdate("INSERT OR IGNORE INTO mutation_journal_checkpoint (id, applied_sequence) VALUES (1, 0);");
+            }
+
+            long appliedSequence = selectAppliedSequence(connection);
+            long lastSequence = appliedSequence;
+            int replayedRecords = 0;
+
+            for (MutationJournal.Record record : records)
+            {
+                lastSequence = Math.max(lastSequence, record.getSequence());
+                if (record.getSequence() <= appliedSequence)
+                {
+                    continue;
+                }
+
+                connection.setAutoCommit(false);
+                try
+                {
+                    for (JournaledStatement journaledStatement : record.getStatements())
+                    {
+                        journaledStatement.execute(connection);
+                    }
+                    updateAppliedSequence(connection, record.getSequence());
+                    connection.commit();
+                    replayedRecords++;
+                }
+                catch (SQLException sqlException)
+                {
+                    connection.rollback();
+                    System.out.println("!!! SQLException: failed to replay the group " + record.getSequence() + " of the mutation journal");
+                    throw sqlException;
+                }
+                finally
+                {
+                    connection.setAutoCommit(true);
+                }
+            }
+
+            nextSequence = lastSequence + 1;
+            System.out.println("Replayed " + replayedRecords + " groups of mutations from " + mutationJournal.getJournalFile().toAbsolutePath());
+
+            compact(connection);
+        }
+    }
+
+    /**
+     * Puts the mutation in the queue of the next group
+     *
+     * @param mutation the SQL statements of the mutation
+     * @param committed the part of the mutation that runs once the group is committed (in the order of the mutations)
+     * @return the future of the mutation, completed with the result of the committed step once the group is durable,
+     *         or with the exception of the mutation or of its group
+     */
+    public <T> CompletableFuture<T> enqueue(Mutation<T> mutation, UnaryOperator<T> committed)
+    {
+        PendingMutation<T> pendingMutation = new PendingMutation<>(mutation, committed);
+        synchronized (enqueueLock)
+        {
+            if (closed)
+            {
+                pendingMutation.future.completeExceptionally(new SQLException("the write-behind pipeline is closed"));
+                return pendingMutation.future;
+            }
+
+            queue.add(pendingMutation);
+        }
+        return pendingMutation.future;
+    }
+
+    /**
+     * Registers the undo of a change made in memory by the mutation being applied (e.g., a seat reserved
+     * in the {@link SeatCounters}), which runs if the mutation or its group is rolled back; the undo actions
+     * run in the reverse order of their registration, so only the changes of the rolled back mutations are undone
+     * (instead of counting everything again, while other writers may hold changes that are not committed yet).
+     *
+     * Does nothing when it is not called by a mutation of the pipeline.
+     *
+     * @param undoAction the change that undoes the change made in memory
+     */
+    public void onRollback(Runnable undoAction)
+    {
+        if (Thread.currentThread() == applierThread && mutationUndoActions != null)
+        {
+            mutationUndoActions.add(undoAction);
+        }
+    }
+
+    /**
+     * Same as {@link #enqueue(Mutation, UnaryOperator)}, and waits until the group is durable.
+     *
+     * A mutation still in the queue after submitTimeoutMillis is taken out of the queue, and fails.
+     * Once the applier thread has taken the mutation into a group, the wait goes on until the group is
+     * committed or rolled back (which always happens, see applyGroup and failGroup), so a mutation that is
+     * committed is never reported as failed.
+     *
+     * @return the result of the committed step
+     * @throws SQLException if the mutation or its group failed, or if the mutation waited in the queue for too long
+     */
+    public <T> T submit(Mutation<T> mutation, UnaryOperator<T> committed) throws SQLException
+    {
+        CompletableFuture<T> future = enqueue(mutation, committed);
+        try
+        {
+            try
+            {
+                return future.get(submitTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException timeoutException)
+            {
+                if (queue.removeIf(pendingMutation -> pendingMutation.future == future))
+                {
+                    throw new SQLException(
+                            "timed out after " + submitTimeoutMillis + " ms waiting in the queue of the write-behind pipeline"
+                                    + " (the mutation was not applied)",
+                            timeoutException
+                    );
+                }
+
+                // the mutation is in the group being applied
+                return future.get();
+            }
+        }
+        catch (InterruptedException interruptedException)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for the write-behind pipeline", interruptedException);
+        }
+        catch (ExecutionException executionException)
+        {
+            Throwable cause = executionException.getCause();
+            if (cause instanceof SQLException)
+            {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new SQLException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Applies the mutations left in the queue, stops the applier thread and closes the journal
+     */
+    @Override
+    public void close()
+    {
+        synchronized (enqueueLock)
+        {
+            closed = true;
+        }
+        try
+        {
+            applierThread.join(TimeUnit.SECONDS.toMillis(10));
+            if (!applierThread.isAlive())
+            {
+                // (the applier thread fails them itself when it exits, unless it never started)
+                failQueuedMutations();
+            }
+            if (mutationJournal != null)
+            {
+                mutationJournal.close();
+            }
+        }
+        catch (InterruptedException interruptedException)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException ioException)
+        {
+            System.out.println("!!! IOException: failed to close the mutation journal");
+            System.out.println(ioException.getMessage());
+        }
+    }
+
+    private void applyGroups()
+    {
+        List<PendingMutation<?>> group = new ArrayList<>();
+
+        try
+        {
+            while (!closed || !queue.isEmpty())
+            {
+                try
+                {
+                    PendingMutation<?> first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null)
+                    {
+                        continue;
+                    }
+
+                    group.add(first);
+                    gatherGroup(group);
+                    applyGroup(group);
+                }
+                catch (InterruptedException interruptedException)
+                {
+                    // the mutations taken out of the queue are never applied (an interrupt while applying
+                    // the group surfaces as an SQLException instead)
+                    failGroup(group, new SQLException("the write-behind pipeline was interrupted", interruptedException));
+                    return;
+                }
+                catch (Throwable throwable)
+                {
+                    // e.g., an Error thrown by a mutation: the applier thread keeps going, so no mutation waits forever
+                    System.out.println("!!! unexpected " + throwable + " while applying a group of " + group.size() + " mutations");
+                    failGroup(group, throwable);
+                }
+                finally
+                {
+                    group.clear();
+                }
+            }
+        }
+        finally
+        {
+            failQueuedMutations();
+        }
+    }
+
+    // the mutations that are still in the queue when the applier thread stops are never applied
+    private void failQueuedMutations()
+    {
+        List<PendingMutation<?>> queuedMutations = new ArrayList<>();
+        queue.drainTo(queuedMutations);
+        for (PendingMutation<?> pendingMutation : queuedMutations)
+        {
+            pendingMutation.future.completeExceptionally(new SQLException("the write-behind pipeline is closed"));
+        }
+    }
+
+    /**
+     * Reports every mutation of a group that was rolled back as failed, and undoes their changes made in memory
+     * (the mutations that already failed in their savepoint keep their own exception)
+     */
+    private void failGroup(List<PendingMutation<?>> group, Throwable cause)
+    {
+        // undone before the futures are completed, so the request threads see the counters as they were
+        if (mutationUndoActions != null)
+        {
+            runUndoActions(mutationUndoActions);
+            mutationUndoActions = null;
+        }
+        runUndoActions(groupUndoActions);
+
+        for (PendingMutation<?> pendingMutation : group)
+        {
+            pendingMutation.future.completeExceptionally(cause);
+        }
+    }
+
+    // the mutations already in the queue, then the ones that arrive within the window
+    private void gatherGroup(List<PendingMutation<?>> group) throws InterruptedException
+    {
+        queue.drainTo(group, maximumGroupSize - group.size());
+
+        long deadlineNanos = System.nanoTime() + windowNanos;
+        while (group.size() < maximumGroupSize)
+        {
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0)
+            {
+                return;
+            }
+
+            PendingMutation<?> next = queue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+            if (next == null)
+            {
+                return;
+            }
+            group.add(next);
+            queue.drainTo(group, maximumGroupSize - group.size());
+        }
+    }
+
+    private void applyGroup(List<PendingMutation<?>> group)
+    {
+        List<PendingMutation<?>> appliedMutations = new ArrayList<>();
+        long journalSizeBefore = -1;
+
+        try (Connection connection = writerConnectionSupplier.getConnection())
+        {
+            // the synchronous level cannot be changed inside a transaction;
+            // it is only lowered from FULL (2) or EXTRA (3), not raised from OFF (see StorageProfile)
+            String synchronousBefore = null;
+            if (walMode && mutationJournal != null)
+            {
+                String synchronous = selectPragma(connection, "synchronous");
+                if ("2".equals(synchronous) || "3".equals(synchronous))
+                {
+                    synchronousBefore = synchronous;
+                    executeStatement(connection, "PRAGMA synchronous = NORMAL;");
+                }
+            }
+
+            connection.setAutoCommit(false);
+            try
+            {
+                List<JournaledStatement> groupStatements = new ArrayList<>();
+                for (PendingMutation<?> pendingMutation : group)
+                {
+                    // (without a journal, the statements are recorded all the same, and dropped with the group)
+                    List<JournaledStatement> mutationStatements = new ArrayList<>();
+                    executeStatement(connection, "SAVEPOINT mutation;");
+                    mutationUndoActions = new ArrayList<>();
+                    try
+                    {
+                        pendingMutation.apply(JournalingConnection.wrap(connection, mutationStatements));
+                        executeStatement(connection, "RELEASE mutation;");
+                        groupStatements.addAll(mutationStatements);
+                        groupUndoActions.addAll(mutationUndoActions);
+                        appliedMutations.add(pendingMutation);
+                    }
+                    catch (SQLException | RuntimeException exception)
+                    {
+                        runUndoActions(mutationUndoActions);
+                        executeStatement(connection, "ROLLBACK TO mutation;");
+                        executeStatement(connection, "RELEASE mutation;");
+                        pendingMutation.future.completeExceptionally(exception);
+                    }
+                    // (after an Error, the undo actions of the mutation are run by failGroup)
+                    mutationUndoActions = null;
+                }
+
+                boolean journaled = mutationJournal != null && !groupStatements.isEmpty();
+                if (journaled)
+                {
+                    updateAppliedSequence(connection, nextSequence);
+
+                    // the group is durable once it is in the journal, so it is forced before the commit
+                    journalSizeBefore = mutationJournal.size();
+                    mutationJournal.append(new MutationJournal.Record(nextSequence, groupStatements));
+                    mutationJournal.force();
+                }
+
+                connection.commit();
+                // the changes of the group are committed, so they are never undone
+                groupUndoActions.clear();
+                if (journaled)
+                {
+                    nextSequence++;
+                }
+            }
+            catch (Throwable throwable)
+            {
+                // (also after an Error, before setAutoCommit(true) below would commit the transaction)
+                connection.rollback();
+                if (journalSizeBefore >= 0)
+                {
+                    // the mutations of the group are reported as failed, so they must not be replayed
+                    mutationJournal.truncate(journalSizeBefore);
+                }
+                throw throwable;
+            }
+            finally
+            {
+                connection.setAutoCommit(true);
+                if (synchronousBefore != null)
+                {
+                    executeStatement(connection, "PRAGMA synchronous = " + synchronousBefore + ";");
+                }
+            }
+
+            if (mutationJournal != null && mutationJournal.size() > compactBytes)
+            {
+                compactAfterCommit(connection);
+            }
+        }
+        catch (SQLException | IOException | RuntimeException exception)
+        {
+            System.out.println("!!! failed to apply a group of " + group.size() + " mutations");
+            System.out.println(exception.getMessage());
+            appliedMutations.clear();
+            failGroup(group, exception);
+        }
+
+        for (PendingMutation<?> pendingMutation : appliedMutations)
+        {
+            pendingMutation.complete();
+        }
+    }
+
+    // the group is already committed, so a failed compaction does not fail its mutations (it is tried again after the next group)
+    private void compactAfterCommit(Connection connection)
+    {
+        try
+        {
+            compact(connection);
+        }
+        catch (SQLException | IOException exception)
+        {
+            System.out.println("!!! failed to compact the mutation journal, it is kept");
+            System.out.println(exception.getMessage());
+        }
+    }
+
+    /**
+     * Empties the journal, if every group in it is on the disk in the database file
+     */
+    private void compact(Connection connection) throws SQLException, IOException
+    {
+        // with synchronous=OFF (see StorageProfile.THROUGHPUT), SQLite would not force anything to the disk
+        String synchronousBefore = selectPragma(connection, "synchronous");
+        executeStatement(connection, "PRAGMA synchronous = FULL;");
+        try
+        {
+            if (walMode)
+            {
+                // the groups committed with synchronous=NORMAL are in the WAL file, but maybe not on the disk yet;
+                // a FULL checkpoint copies them into the database file and forces it to the disk
+                try
+                        (
+                                Statement sqlStatement = connection.createStatement();
+                                ResultSet resultSet = sqlStatement.executeQuery("PRAGMA wal_checkpoint(FULL);");
+                        )
+                {
+                    // the first column is 1 if the checkpoint could not complete (e.g., a reader still used old pages)
+                    if (!resultSet.next() || resultSet.getInt(1) != 0)
+                    {
+                        System.out.println("!!! the WAL checkpoint did not complete, the mutation journal is kept");
+                        return;
+                    }
+                }
+            }
+            else if (!"2".equals(synchronousBefore) && !"3".equals(synchronousBefore))
+            {
+                // the groups were committed without waiting for the disk, so the journal is their only durable copy
+                // until a commit at synchronous=FULL forces the database file (with all the pages written before it)
+                executeStatement(connection, "UPDATE mutation_journal_checkpoint SET applied_sequence = applied_sequence WHERE id = 1;");
+            }
+        }
+        finally
+        {
+            executeStatement(connection, "PRAGMA synchronous = " + synchronousBefore + ";");
+        }
+
+        mutationJournal.truncate(0);
+    }
+
+    // in the reverse order, the same as the rollback of the statements
+    private static void runUndoActions(List<Runnable> undoActions)
+    {
+        for (int i = undoActions.size() - 1; i >= 0; i--)
+        {
+            try
+            {
+                undoActions.get(i).run();
+            }
+            catch (RuntimeException runtimeException)
+            {
+                System.out.println("!!! failed to undo a change of a mutation that was rolled back");
+                System.out.println(runtimeException.getMessage());
+            }
+        }
+        undoActions.clear();
+    }
+
+    private static long selectAppliedSequence(Connection connection) throws SQLException
+    {
+        try
+                (
+                        PreparedStatement sqlStatement = connection.prepareStatement("SELECT applied_sequence FROM mutation_journal_checkpoint WHERE id = 1;");
+                        ResultSet resultSet = sqlStatement.executeQuery();
+                )
+        {
+            return resultSet.next() ? resultSet.getLong(1) : 0;
+        }
+    }
+
+    private static void updateAppliedSequence(Connection connection, long sequence) throws SQLException
+    {
+        try (PreparedStatement sqlStatement = connection.prepareStatement("UPDATE mutation_journal_checkpoint SET applied_sequence = ? WHERE id = 1;"))
+        {
+            sqlStatement.setLong(1, sequence);
+            sqlStatement.executeUpdate();
+        }
+    }
+
+    private static String selectPragma(Connection connection, String pragma) throws SQLException
+    {
+        try
+                (
+                        Statement sqlStatement = connection.createStatement();
+                        ResultSet resultSet = sqlStatement.executeQuery("PRAGMA " + pragma + ";");
+                )
+        {
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+
+    private static void executeStatement(Connection connection, String sql) throws SQLException
+    {
+        try (Statement sqlStatement = connection.createStatement())
+        {
+            sqlStatement.execute(sql);
+        }
+    }
+
+
+    /**
+     * A mutation waiting in the queue, and the future through which its request thread gets the result
+     */
+    private static class PendingMutation<T>
+    {
+        private final Mutation<T> mutation;
+        private final UnaryOperator<T> committed;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T appliedResult;
+
+        PendingMutation(Mutation<T> mutation, UnaryOperator<T> committed)
+        {
+            this.mutation = mutation;
+            this.committed = committed;
+        }
+
+        void apply(Connection connection) throws SQLException
+        {
+            appliedResult = mutation.apply(connection);
+        }
+
+        void complete()
+        {
+            try
+            {
+                future.complete(committed.apply(appliedResult));
+            }
+            catch (RuntimeException runtimeException)
+            {
+                future.completeExceptionally(runtimeException);
+            }
+        }
+    }
+}
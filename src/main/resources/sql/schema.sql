@@ -5,6 +5,7 @@
 -- TODO: execute all SQL statements, in sequential order, from the top of this file
 --       to create the tables or to "reset" the database to the expected structure
 
+DROP TABLE IF EXISTS classes_search;
 DROP TABLE IF EXISTS registered_students;
 DROP TABLE IF EXISTS classes;
 DROP TABLE IF EXISTS students;
@@ -33,5 +34,35 @@ CREATE TABLE registered_students
     signup_date DATE DEFAULT CURRENT_DATE,
     FOREIGN KEY (class_id) REFERENCES classes (id),
     FOREIGN KEY (student_id) REFERENCES students (id),
+    -- the UNIQUE constraint also creates an index on (class_id, student_id),
+    -- which GET /registered_students/{classCode} uses to read the roster of a class
     UNIQUE (class_id, student_id)
 );
+
+-- used by the keyset pagination of GET /registered_students, which is sorted by last name and first name
+CREATE INDEX students_last_name_first_name ON students (last_name, first_name);
+
+-- covers the registrations of a student, used by GET /classes_in_which_student_is_enrolled/{studentId}
+CREATE INDEX registered_students_student_id_class_id ON registered_students (student_id, class_id);
+
+-- the full-text index of the titles and descriptions of the classes, used by GET /classes/search?q=
+-- (an external content table: the index only stores the terms, the text stays in the classes table)
+CREATE VIRTUAL TABLE classes_search USING fts5(title, description, content = 'classes', content_rowid = 'id', tokenize = 'porter unicode61');
+
+-- the triggers keep classes_search in sync with every INSERT, UPDATE and DELETE on the classes table
+-- (the 'delete' command needs the old values, to find the terms to remove from the index)
+CREATE TRIGGER classes_search_after_insert AFTER INSERT ON classes
+BEGIN
+    INSERT INTO classes_search (rowid, title, description) VALUES (new.id, new.title, new.description);
+END;
+
+CREATE TRIGGER classes_search_after_delete AFTER DELETE ON classes
+BEGIN
+    INSERT INTO classes_search (classes_search, rowid, title, description) VALUES ('delete', old.id, old.title, old.description);
+END;
+
+CREATE TRIGGER classes_search_after_update AFTER UPDATE OF title, description ON classes
+BEGIN
+    INSERT INTO classes_search (classes_search, rowid, title, description) VALUES ('delete', old.id, old.title, old.description);
+    INSERT INTO classes_search (rowid, title, description) VALUES (new.id, new.title, new.description);
+END;
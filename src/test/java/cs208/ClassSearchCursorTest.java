@@ -0,0 +1,27 @@
+package cs208;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ClassSearchCursorTest
+{
+    @Test
+    void decodesTheExactRank()
+    {
+        double rank = -1.0 / 3.0;
+        ClassSearchCursor cursor = ClassSearchCursor.decode(new ClassSearchCursor(rank, 12).encode());
+
+        assertEquals(Double.doubleToLongBits(rank), Double.doubleToLongBits(cursor.getRank()));
+        assertEquals(12, cursor.getClassId());
+    }
+
+    @Test
+    void rejectsInvalidCursors()
+    {
+        assertThrows(IllegalArgumentException.class, () -> ClassSearchCursor.decode(""));
+        assertThrows(IllegalArgumentException.class, () -> ClassSearchCursor.decode("AAAA"));
+        assertThrows(IllegalArgumentException.class, () -> ClassSearchCursor.decode("not a cursor!"));
+    }
+}
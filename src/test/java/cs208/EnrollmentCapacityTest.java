@@ -0,0 +1,295 @@
+package cs208;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * The {@link SeatCounters} never let more students register in a class than its max_students,
+ * and always count as many seats taken as there are rows in registered_students,
+ * with and without the write coalescer (see {@link WriteBehindPipeline}).
+ */
+class EnrollmentCapacityTest
+{
+    private static final int CAPACITY = 5;
+    private static final int NUMBER_OF_STUDENTS = 40;
+    private static final int NUMBER_OF_THREADS = 8;
+    // the odd students are registered by addStudentsToClasses, in batches of this many students
+    private static final int BATCH_SIZE = 3;
+    // a registration that failed (e.g., SQLITE_BUSY between the connections of the rollback-journal mode) is tried again
+    private static final int MAXIMUM_ATTEMPTS = 50;
+
+    @TempDir
+    Path temporaryDirectory;
+
+    private TemporaryDatabase temporaryDatabase;
+
+    @AfterEach
+    void closeDatabase()
+    {
+        if (temporaryDatabase != null)
+        {
+            temporaryDatabase.close();
+        }
+    }
+
+    @Test
+    void neverOversellsWithoutTheWriteCoalescer() throws Exception
+    {
+        assertNeverOversold();
+    }
+
+    @Test
+    void neverOversellsWithTheWriteCoalescer() throws Exception
+    {
+        assertNeverOversold("--cs208.database.write-coalescer.enabled=true");
+    }
+
+    @Test
+    void neverOversellsInTheWalStorageMode() throws Exception
+    {
+        assertNeverOversold("--cs208.database.storage-mode=wal");
+    }
+
+    @Test
+    void neverOversellsWithTheMutationJournal() throws Exception
+    {
+        assertNeverOversold("--cs208.database.storage-mode=wal", "--cs208.journal.enabled=true");
+    }
+
+    @Test
+    void givesTheSeatsBackWhenTheTransactionIsRolledBack() throws Exception
+    {
+        assertSeatsGivenBackOnRollback();
+    }
+
+    @Test
+    void givesTheSeatsBackWhenTheGroupIsRolledBack() throws Exception
+    {
+        assertSeatsGivenBackOnRollback("--cs208.database.write-coalescer.enabled=true");
+    }
+
+    private void assertNeverOversold(String... settingArguments) throws Exception
+    {
+        temporaryDatabase = TemporaryDatabase.open(temporaryDirectory, settingArguments);
+        Database database = temporaryDatabase.database;
+
+        int classId = database.addNewClass(new Class("CS208", "Intro to Databases", "", CAPACITY)).getId();
+        List<Integer> studentIds = addStudents(NUMBER_OF_STUDENTS);
+
+        List<Integer> oneByOne = new ArrayList<>();
+        List<List<Integer>> batches = new ArrayList<>();
+        for (int i = 0; i < studentIds.size(); i++)
+        {
+            if (i % 2 == 0)
+            {
+                oneByOne.add(studentIds.get(i));
+            }
+            else if (batches.isEmpty() || batches.get(batches.size() - 1).size() == BATCH_SIZE)
+            {
+                batches.add(new ArrayList<>(Collections.singletonList(studentIds.get(i))));
+            }
+            else
+            {
+                batches.get(batches.size() - 1).add(studentIds.get(i));
+            }
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+        CountDownLatch startGate = new CountDownLatch(1);
+        List<Future<Integer>> enrolledCounts = new ArrayList<>();
+        try
+        {
+            for (int studentId : oneByOne)
+            {
+                enrolledCounts.add(executorService.submit(() ->
+                {
+                    startGate.await();
+                    return registerOneByOne(database, studentId, classId);
+                }));
+            }
+            for (List<Integer> batch : batches)
+            {
+                enrolledCounts.add(executorService.submit(() ->
+                {
+                    startGate.await();
+                    return registerInBatch(database, batch, classId);
+                }));
+            }
+            startGate.countDown();
+
+            int enrolled = 0;
+            for (Future<Integer> enrolledCount : enrolledCounts)
+            {
+                enrolled += enrolledCount.get(60, TimeUnit.SECONDS);
+            }
+            assertEquals(CAPACITY, enrolled, "students ENROLLED");
+        }
+        finally
+        {
+            executorService.shutdownNow();
+        }
+
+        assertEquals(CAPACITY, countRegistrations(classId), "rows in registered_students");
+        assertEquals(CAPACITY, database.getSeatCounters().getTaken(classId), "seats taken");
+        assertEquals(EnrollmentOutcome.CLASS_FULL, database.addStudentToClass(studentIds.get(0), classId).getOutcome());
+    }
+
+    /**
+     * Holds a read lock on the database file (rollback-journal mode), so the commits of the other connections
+     * fail with SQLITE_BUSY once the busy timeout of the durable storage profile (3 seconds) is over
+     */
+    private void assertSeatsGivenBackOnRollback(String... settingArguments) throws Exception
+    {
+        List<String> arguments = new ArrayList<>(Arrays.asList(settingArguments));
+        arguments.add("--cs208.database.storage-mode=rollback-journal");
+        arguments.add("--cs208.database.storage-profile=durable");
+        temporaryDatabase = TemporaryDatabase.open(temporaryDirectory, arguments.toArray(new String[0]));
+        Database database = temporaryDatabase.database;
+
+        int classId = database.addNewClass(new Class("CS208", "Intro to Databases", "", 3)).getId();
+        List<Integer> studentIds = addStudents(5);
+        assertEquals(EnrollmentOutcome.ENROLLED, database.addStudentToClass(studentIds.get(0), classId).getOutcome());
+
+        try (Connection lockHolder = DriverManager.getConnection("jdbc:sqlite:" + temporaryDatabase.sqliteFile))
+        {
+            lockHolder.setAutoCommit(false);
+            try (Statement statement = lockHolder.createStatement();
+                 ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM registered_students;"))
+            {
+                resultSet.next();
+            }
+
+            assertEquals(EnrollmentOutcome.FAILED, database.addStudentToClass(studentIds.get(1), classId).getOutcome());
+            assertThrows(SQLException.class, () -> database.addStudentsToClasses(Arrays.asList(
+                    new EnrollmentRequest(studentIds.get(1), classId),
+                    new EnrollmentRequest(studentIds.get(2), classId)
+            )));
+
+            lockHolder.rollback();
+        }
+
+        assertEquals(1, countRegistrations(classId), "rows in registered_students after the rollbacks");
+        assertEquals(1, database.getSeatCounters().getTaken(classId), "seats taken after the rollbacks");
+
+        // the seats given back can be taken again, and not one more
+        List<EnrollmentResult> results = database.addStudentsToClasses(Arrays.asList(
+                new EnrollmentRequest(studentIds.get(1), classId),
+                new EnrollmentRequest(studentIds.get(2), classId),
+                new EnrollmentRequest(studentIds.get(3), classId)
+        ));
+        assertEquals(EnrollmentOutcome.ENROLLED, results.get(0).getOutcome());
+        assertEquals(EnrollmentOutcome.ENROLLED, results.get(1).getOutcome());
+        assertEquals(EnrollmentOutcome.CLASS_FULL, results.get(2).getOutcome());
+        assertEquals(EnrollmentOutcome.CLASS_FULL, database.addStudentToClass(studentIds.get(4), classId).getOutcome());
+
+        assertEquals(3, countRegistrations(classId), "rows in registered_students");
+        assertEquals(3, database.getSeatCounters().getTaken(classId), "seats taken");
+    }
+
+    private List<Integer> addStudents(int numberOfStudents) throws SQLException
+    {
+        List<Integer> studentIds = new ArrayList<>();
+        for (int i = 0; i < numberOfStudents; i++)
+        {
+            Student student = new Student("Student", "Number " + i, Date.valueOf("2000-01-01"));
+            studentIds.add(temporaryDatabase.database.addNewStudent(student).getId());
+        }
+        return studentIds;
+    }
+
+    // @return 1 if the student was ENROLLED, 0 if the class was full
+    private static int registerOneByOne(Database database, int studentId, int classId)
+    {
+        for (int attempt = 0; attempt < MAXIMUM_ATTEMPTS; attempt++)
+        {
+            EnrollmentOutcome outcome = database.addStudentToClass(studentId, classId).getOutcome();
+            if (outcome == EnrollmentOutcome.ENROLLED)
+            {
+                return 1;
+            }
+            if (outcome != EnrollmentOutcome.FAILED)
+            {
+                assertEquals(EnrollmentOutcome.CLASS_FULL, outcome);
+                return 0;
+            }
+        }
+        return fail("the student " + studentId + " could not be registered in " + MAXIMUM_ATTEMPTS + " attempts");
+    }
+
+    // @return the number of students of the batch that were ENROLLED
+    private static int registerInBatch(Database database, List<Integer> studentIds, int classId)
+    {
+        List<Integer> pendingStudentIds = studentIds;
+        int enrolled = 0;
+        for (int attempt = 0; attempt < MAXIMUM_ATTEMPTS && !pendingStudentIds.isEmpty(); attempt++)
+        {
+            List<EnrollmentRequest> enrollmentRequests = new ArrayList<>();
+            for (int studentId : pendingStudentIds)
+            {
+                enrollmentRequests.add(new EnrollmentRequest(studentId, classId));
+            }
+
+            List<EnrollmentResult> results;
+            try
+            {
+                results = database.addStudentsToClasses(enrollmentRequests);
+            }
+            catch (SQLException sqlException)
+            {
+                // nothing of the batch was registered
+                continue;
+            }
+
+            List<Integer> failedStudentIds = new ArrayList<>();
+            for (EnrollmentResult result : results)
+            {
+                if (result.getOutcome() == EnrollmentOutcome.ENROLLED)
+                {
+                    enrolled++;
+                }
+                else if (result.getOutcome() == EnrollmentOutcome.FAILED)
+                {
+                    failedStudentIds.add(result.getStudentId());
+                }
+                else
+                {
+                    assertEquals(EnrollmentOutcome.CLASS_FULL, result.getOutcome());
+                }
+            }
+            pendingStudentIds = failedStudentIds;
+        }
+
+        if (!pendingStudentIds.isEmpty())
+        {
+            fail("the students " + pendingStudentIds + " could not be registered in " + MAXIMUM_ATTEMPTS + " attempts");
+        }
+        return enrolled;
+    }
+
+    private int countRegistrations(int classId) throws SQLException
+    {
+        return temporaryDatabase.selectInt("SELECT COUNT(*) FROM registered_students WHERE class_id = ?;", classId);
+    }
+}
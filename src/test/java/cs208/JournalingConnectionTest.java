@@ -0,0 +1,218 @@
+package cs208;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JournalingConnectionTest
+{
+    private static final String CREATE_TABLE =
+            "CREATE TABLE students (id INTEGER PRIMARY KEY, first_name TEXT NOT NULL, last_name TEXT, birth_date DATE);";
+    private static final String INSERT =
+            "INSERT INTO students (id, first_name, last_name, birth_date) VALUES (?, ?, ?, ?);";
+
+    @TempDir
+    Path temporaryDirectory;
+
+    private Connection connection;
+    private final List<JournaledStatement> recordedStatements = new ArrayList<>();
+
+    @BeforeEach
+    void openConnection() throws SQLException
+    {
+        connection = openDatabase("journaled.sqlite");
+        connection.setAutoCommit(false);
+    }
+
+    @AfterEach
+    void closeConnection() throws SQLException
+    {
+        connection.close();
+    }
+
+    @Test
+    void recordsTheStatementsThatChangedRows() throws SQLException
+    {
+        Connection journalingConnection = JournalingConnection.wrap(connection, recordedStatements);
+        try (PreparedStatement sqlStatement = journalingConnection.prepareStatement(INSERT))
+        {
+            setStudent(sqlStatement, 1, "Grace", null);
+            assertEquals(1, sqlStatement.executeUpdate());
+        }
+        try (PreparedStatement sqlStatement = journalingConnection.prepareStatement("UPDATE students SET last_name = ? WHERE id = ?;"))
+        {
+            sqlStatement.setString(1, "Hopper");
+            sqlStatement.setInt(2, 99);
+            assertEquals(0, sqlStatement.executeUpdate());
+
+            sqlStatement.setInt(2, 1);
+            assertEquals(1, sqlStatement.executeUpdate());
+        }
+        try (PreparedStatement sqlStatement = journalingConnection.prepareStatement("SELECT COUNT(*) FROM students WHERE id > ?;"))
+        {
+            sqlStatement.setInt(1, 0);
+            sqlStatement.executeQuery().close();
+        }
+
+        // the UPDATE of the student 99 and the SELECT are not recorded
+        assertEquals(2, recordedStatements.size());
+        assertEquals(INSERT, recordedStatements.get(0).getSql());
+        assertEquals(Arrays.<Object>asList(1, "Grace", null, Date.valueOf("1906-12-09")), recordedStatements.get(0).getParameters());
+        assertEquals(Arrays.<Object>asList("Hopper", 1), recordedStatements.get(1).getParameters());
+    }
+
+    @Test
+    void recordsTheRowsOfABatchThatChangedRows() throws SQLException
+    {
+        Connection journalingConnection = JournalingConnection.wrap(connection, recordedStatements);
+        try (PreparedStatement sqlStatement = journalingConnection.prepareStatement(INSERT.replace("INSERT", "INSERT OR IGNORE")))
+        {
+            setStudent(sqlStatement, 1, "Ada", "Lovelace");
+            sqlStatement.addBatch();
+            setStudent(sqlStatement, 2, "Alan", "Turing");
+            sqlStatement.addBatch();
+            // ignored, the id 1 is taken
+            setStudent(sqlStatement, 1, "Edsger", "Dijkstra");
+            sqlStatement.addBatch();
+            sqlStatement.executeBatch();
+
+            // the rows of the batch above are not recorded again with the next batch
+            setStudent(sqlStatement, 3, "Grace", "Hopper");
+            sqlStatement.addBatch();
+            sqlStatement.executeBatch();
+        }
+
+        assertEquals(3, recordedStatements.size());
+        assertEquals(Arrays.<Object>asList(1, "Ada", "Lovelace", Date.valueOf("1906-12-09")), recordedStatements.get(0).getParameters());
+        assertEquals(Arrays.<Object>asList(2, "Alan", "Turing", Date.valueOf("1906-12-09")), recordedStatements.get(1).getParameters());
+        assertEquals(Arrays.<Object>asList(3, "Grace", "Hopper", Date.valueOf("1906-12-09")), recordedStatements.get(2).getParameters());
+    }
+
+    @Test
+    void recordsNothingOfAFailedBatch() throws SQLException
+    {
+        Connection journalingConnection = JournalingConnection.wrap(connection, recordedStatements);
+        try (PreparedStatement sqlStatement = journalingConnection.prepareStatement(INSERT))
+        {
+            setStudent(sqlStatement, 1, "Ada", "Lovelace");
+            sqlStatement.addBatch();
+            setStudent(sqlStatement, 1, "Alan", "Turing");
+            sqlStatement.addBatch();
+            assertThrows(BatchUpdateException.class, sqlStatement::executeBatch);
+        }
+
+        assertEquals(0, recordedStatements.size());
+    }
+
+    @Test
+    void refusesWhatCannotBeJournaled() throws SQLException
+    {
+        Connection journalingConnection = JournalingConnection.wrap(connection, recordedStatements);
+        try (Statement sqlStatement = journalingConnection.createStatement())
+        {
+            assertThrows(UnsupportedOperationException.class, () -> sqlStatement.addBatch("DELETE FROM students;"));
+            assertThrows(UnsupportedOperationException.class, () -> sqlStatement.execute("DELETE FROM students;"));
+        }
+        try (PreparedStatement sqlStatement = journalingConnection.prepareStatement(INSERT))
+        {
+            assertThrows(UnsupportedOperationException.class, () -> sqlStatement.setObject(1, 1));
+        }
+
+        // the transaction belongs to the write-behind pipeline
+        assertThrows(UnsupportedOperationException.class, journalingConnection::commit);
+        assertThrows(UnsupportedOperationException.class, journalingConnection::rollback);
+        assertThrows(UnsupportedOperationException.class, () -> journalingConnection.setAutoCommit(true));
+        journalingConnection.close();
+        assertFalse(connection.isClosed());
+    }
+
+    @Test
+    void replaysTheSameRows() throws SQLException
+    {
+        Connection journalingConnection = JournalingConnection.wrap(connection, recordedStatements);
+        try (PreparedStatement sqlStatement = journalingConnection.prepareStatement(INSERT))
+        {
+            setStudent(sqlStatement, 1, "Ada", "Lovelace");
+            sqlStatement.addBatch();
+            setStudent(sqlStatement, 2, "Zoë", null);
+            sqlStatement.addBatch();
+            sqlStatement.executeBatch();
+        }
+        try (Statement sqlStatement = journalingConnection.createStatement())
+        {
+            sqlStatement.executeUpdate("UPDATE students SET last_name = 'O''Neil' WHERE id = 2;");
+        }
+        connection.commit();
+
+        try (Connection replayConnection = openDatabase("replayed.sqlite"))
+        {
+            for (JournaledStatement journaledStatement : recordedStatements)
+            {
+                journaledStatement.execute(replayConnection);
+            }
+            assertEquals(selectStudents(connection), selectStudents(replayConnection));
+        }
+    }
+
+    private Connection openDatabase(String fileName) throws SQLException
+    {
+        Connection newConnection = DriverManager.getConnection("jdbc:sqlite:" + temporaryDirectory.resolve(fileName));
+        try (Statement sqlStatement = newConnection.createStatement())
+        {
+            sqlStatement.executeUpdate(CREATE_TABLE);
+        }
+        return newConnection;
+    }
+
+    private static void setStudent(PreparedStatement sqlStatement, int id, String firstName, String lastName) throws SQLException
+    {
+        sqlStatement.setInt(1, id);
+        sqlStatement.setString(2, firstName);
+        if (lastName == null)
+        {
+            sqlStatement.setNull(3, Types.VARCHAR);
+        }
+        else
+        {
+            sqlStatement.setString(3, lastName);
+        }
+        sqlStatement.setDate(4, Date.valueOf("1906-12-09"));
+    }
+
+    // the rows as they are stored (e.g., the birth dates in milliseconds)
+    private static List<String> selectStudents(Connection connection) throws SQLException
+    {
+        List<String> rows = new ArrayList<>();
+        try
+                (
+                        Statement sqlStatement = connection.createStatement();
+                        ResultSet resultSet = sqlStatement.executeQuery("SELECT id, first_name, last_name, birth_date, typeof(birth_date) FROM students ORDER BY id;")
+                )
+        {
+            while (resultSet.next())
+            {
+                rows.add(resultSet.getInt(1) + "|" + resultSet.getString(2) + "|" + resultSet.getString(3) + "|" + resultSet.getString(4) + "|" + resultSet.getString(5));
+            }
+        }
+        return rows;
+    }
+}
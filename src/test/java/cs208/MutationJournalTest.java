@@ -0,0 +1,186 @@
+package cs208;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MutationJournalTest
+{
+    @TempDir
+    Path temporaryDirectory;
+
+    @Test
+    void readsTheRecordsThatWereAppended() throws IOException
+    {
+        String journalFile = temporaryDirectory.resolve("test.journal").toString();
+        try (MutationJournal mutationJournal = new MutationJournal(journalFile))
+        {
+            mutationJournal.readRecords();
+            mutationJournal.append(record(1, "Ada"));
+            mutationJournal.append(new MutationJournal.Record(2, Arrays.asList(
+                    new JournaledStatement(
+                            "INSERT INTO students (id, first_name, last_name, birth_date) VALUES (?, ?, ?, ?);",
+                            Arrays.<Object>asList(7, "Grace", null, Date.valueOf("1906-12-09"))
+                    ),
+                    new JournaledStatement(
+                            "UPDATE classes SET max_students = ? WHERE id = ? AND title <> ?;",
+                            Arrays.<Object>asList(12L, 3, "Zoë O'Neil, \"quoted\"")
+                    ),
+                    new JournaledStatement("DELETE FROM registered_students;", Collections.emptyList())
+            )));
+            mutationJournal.force();
+        }
+
+        List<MutationJournal.Record> records = readRecords(journalFile);
+
+        assertEquals(2, records.size());
+        assertEquals(1L, records.get(0).getSequence());
+        assertEquals(Arrays.<Object>asList(1, "Ada"), records.get(0).getStatements().get(0).getParameters());
+
+        List<JournaledStatement> statements = records.get(1).getStatements();
+        assertEquals(2L, records.get(1).getSequence());
+        assertEquals(3, statements.size());
+        assertEquals("INSERT INTO students (id, first_name, last_name, birth_date) VALUES (?, ?, ?, ?);", statements.get(0).getSql());
+        assertEquals(Arrays.<Object>asList(7, "Grace", null, Date.valueOf("1906-12-09")), statements.get(0).getParameters());
+        assertEquals(Arrays.<Object>asList(12L, 3, "Zoë O'Neil, \"quoted\""), statements.get(1).getParameters());
+        assertEquals(Collections.emptyList(), statements.get(2).getParameters());
+    }
+
+    @Test
+    void recoversTheRecordsBeforeARecordCutShort() throws IOException
+    {
+        String journalFile = temporaryDirectory.resolve("test.journal").toString();
+        long sizeOfTwoRecords = appendRecords(journalFile, 2);
+        appendRecords(journalFile, 3);
+
+        // a crash in the middle of the write of the third record
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw"))
+        {
+            file.setLength(file.length() - 5);
+        }
+
+        assertRecoversTwoRecords(journalFile, sizeOfTwoRecords);
+    }
+
+    @Test
+    void recoversTheRecordsBeforeARecordWithAWrongChecksum() throws IOException
+    {
+        String journalFile = temporaryDirectory.resolve("test.journal").toString();
+        long sizeOfTwoRecords = appendRecords(journalFile, 2);
+        appendRecords(journalFile, 3);
+
+        // the last byte of the payload of the third record is not the one that was written
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw"))
+        {
+            file.seek(file.length() - 1);
+            int lastByte = file.read();
+            file.seek(file.length() - 1);
+            file.write(lastByte ^ 0xFF);
+        }
+
+        assertRecoversTwoRecords(journalFile, sizeOfTwoRecords);
+    }
+
+    @Test
+    void recoversTheRecordsBeforeAHeaderCutShort() throws IOException
+    {
+        String journalFile = temporaryDirectory.resolve("test.journal").toString();
+        long sizeOfTwoRecords = appendRecords(journalFile, 2);
+
+        // only 3 bytes of the 8 bytes of the length and the CRC32 of the next record
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw"))
+        {
+            file.seek(file.length());
+            file.write(new byte[]{0, 0, 1});
+        }
+
+        assertRecoversTwoRecords(journalFile, sizeOfTwoRecords);
+    }
+
+    @Test
+    void truncatesTheRecordsAfterTheGivenSize() throws IOException
+    {
+        String journalFile = temporaryDirectory.resolve("test.journal").toString();
+        try (MutationJournal mutationJournal = new MutationJournal(journalFile))
+        {
+            mutationJournal.readRecords();
+            mutationJournal.append(record(1, "Ada"));
+            long sizeBefore = mutationJournal.size();
+
+            // the second group was rolled back after it was appended
+            mutationJournal.append(record(2, "Grace"));
+            mutationJournal.truncate(sizeBefore);
+
+            mutationJournal.append(record(2, "Alan"));
+            mutationJournal.force();
+        }
+
+        List<MutationJournal.Record> records = readRecords(journalFile);
+        assertEquals(2, records.size());
+        assertEquals(2L, records.get(1).getSequence());
+        assertEquals(Arrays.<Object>asList(2, "Alan"), records.get(1).getStatements().get(0).getParameters());
+    }
+
+    // the records of the journal after a crash: the two complete records are read, the rest of the file is cut off,
+    // and the next record is appended after them
+    private static void assertRecoversTwoRecords(String journalFile, long sizeOfTwoRecords) throws IOException
+    {
+        try (MutationJournal mutationJournal = new MutationJournal(journalFile))
+        {
+            List<MutationJournal.Record> records = mutationJournal.readRecords();
+            assertEquals(2, records.size());
+            assertEquals(1L, records.get(0).getSequence());
+            assertEquals(2L, records.get(1).getSequence());
+            assertEquals(sizeOfTwoRecords, mutationJournal.size());
+
+            mutationJournal.append(record(3, "Edsger"));
+            mutationJournal.force();
+        }
+
+        List<MutationJournal.Record> records = readRecords(journalFile);
+        assertEquals(3, records.size());
+        assertEquals(3L, records.get(2).getSequence());
+        assertEquals(Arrays.<Object>asList(3, "Edsger"), records.get(2).getStatements().get(0).getParameters());
+    }
+
+    // appends the record of the given sequence after the records already in the journal
+    // @return the size of the journal
+    private static long appendRecords(String journalFile, long sequence) throws IOException
+    {
+        try (MutationJournal mutationJournal = new MutationJournal(journalFile))
+        {
+            long lastSequence = mutationJournal.readRecords().size();
+            for (long nextSequence = lastSequence + 1; nextSequence <= sequence; nextSequence++)
+            {
+                mutationJournal.append(record(nextSequence, "Student " + nextSequence));
+            }
+            mutationJournal.force();
+            return mutationJournal.size();
+        }
+    }
+
+    private static List<MutationJournal.Record> readRecords(String journalFile) throws IOException
+    {
+        try (MutationJournal mutationJournal = new MutationJournal(journalFile))
+        {
+            return mutationJournal.readRecords();
+        }
+    }
+
+    private static MutationJournal.Record record(long sequence, String firstName)
+    {
+        return new MutationJournal.Record(sequence, Collections.singletonList(new JournaledStatement(
+                "INSERT INTO students (id, first_name, last_name) VALUES (?, ?, 'Test');",
+                Arrays.<Object>asList((int) sequence, firstName)
+        )));
+    }
+}
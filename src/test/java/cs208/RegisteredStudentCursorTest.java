@@ -0,0 +1,51 @@
+package cs208;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RegisteredStudentCursorTest
+{
+    @Test
+    void decodesTheEncodedCursor()
+    {
+        RegisteredStudentCursor cursor = RegisteredStudentCursor.decode(
+                new RegisteredStudentCursor("O'Neil", "Zoë", "CS 208", 42, 7).encode());
+
+        assertEquals("O'Neil", cursor.getLastName());
+        assertEquals("Zoë", cursor.getFirstName());
+        assertEquals("CS 208", cursor.getCode());
+        assertEquals(42, cursor.getStudentId());
+        assertEquals(7, cursor.getClassId());
+    }
+
+    @Test
+    void decodesTheEncodedCursorOfAClassWithoutACode()
+    {
+        RegisteredStudentCursor cursor = RegisteredStudentCursor.decode(
+                new RegisteredStudentCursor("Lovelace", "Ada", null, 3, 11).encode());
+
+        assertNull(cursor.getCode());
+        assertEquals("Lovelace", cursor.getLastName());
+        assertEquals("Ada", cursor.getFirstName());
+        assertEquals(3, cursor.getStudentId());
+        assertEquals(11, cursor.getClassId());
+    }
+
+    @Test
+    void rejectsInvalidCursors()
+    {
+        String validCursor = new RegisteredStudentCursor("Lovelace", "Ada", "CS 208", 3, 11).encode();
+        byte[] validBytes = Base64.getUrlDecoder().decode(validCursor);
+        String truncatedCursor = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                java.util.Arrays.copyOf(validBytes, validBytes.length - 3));
+
+        assertThrows(IllegalArgumentException.class, () -> RegisteredStudentCursor.decode(""));
+        assertThrows(IllegalArgumentException.class, () -> RegisteredStudentCursor.decode("not a cursor!"));
+        assertThrows(IllegalArgumentException.class, () -> RegisteredStudentCursor.decode(truncatedCursor));
+    }
+}
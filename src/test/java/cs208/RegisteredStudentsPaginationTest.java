@@ -0,0 +1,124 @@
+package cs208;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.file.Path;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The keyset pagination of GET /registered_students (see {@link Database#listRegisteredStudentsPage(RegisteredStudentCursor, int)}),
+ * over students with the same name and classes without a code, where the cursor needs its tie breakers
+ */
+class RegisteredStudentsPaginationTest
+{
+    private static final String[][] STUDENT_NAMES = {
+            {"Ada", "Lovelace"}, {"Ada", "Lovelace"}, {"Ada", "Lovelace"},
+            {"Alan", "Turing"}, {"Alan", "Turing"},
+            {"Grace", "Hopper"},
+            {"Zoë", "O'Neil"},
+    };
+
+    @TempDir
+    Path temporaryDirectory;
+
+    private TemporaryDatabase temporaryDatabase;
+
+    @BeforeEach
+    void openDatabase() throws Exception
+    {
+        temporaryDatabase = TemporaryDatabase.open(temporaryDirectory);
+        Main.database = temporaryDatabase.database;
+
+        List<Integer> classIds = new ArrayList<>();
+        classIds.add(temporaryDatabase.database.addNewClass(new Class("CS 101", "Intro to CS Principles", "", 50)).getId());
+        classIds.add(temporaryDatabase.database.addNewClass(new Class(null, "No code class", "", 50)).getId());
+        classIds.add(temporaryDatabase.database.addNewClass(new Class("CS 208", "Intro to Databases", "", 50)).getId());
+        classIds.add(temporaryDatabase.database.addNewClass(new Class(null, "Another class without a code", "", 50)).getId());
+
+        List<EnrollmentRequest> enrollmentRequests = new ArrayList<>();
+        for (int i = 0; i < STUDENT_NAMES.length; i++)
+        {
+            Student student = temporaryDatabase.database.addNewStudent(
+                    new Student(STUDENT_NAMES[i][0], STUDENT_NAMES[i][1], Date.valueOf("2000-01-01")));
+            // three classes per student, so every page boundary falls somewhere in the ties
+            for (int j = 0; j < 3; j++)
+            {
+                enrollmentRequests.add(new EnrollmentRequest(student.getId(), classIds.get((i + j) % classIds.size())));
+            }
+        }
+        temporaryDatabase.database.addStudentsToClasses(enrollmentRequests);
+    }
+
+    @AfterEach
+    void closeDatabase()
+    {
+        Main.database = null;
+        temporaryDatabase.close();
+    }
+
+    @Test
+    void thePagesAreTheWholeList()
+    {
+        List<String> allRows = toStrings(temporaryDatabase.database.listAllRegisteredStudents());
+        assertEquals(STUDENT_NAMES.length * 3, allRows.size());
+
+        for (int limit : new int[]{1, 2, 3, 4, 7, 100})
+        {
+            List<String> pagedRows = new ArrayList<>();
+            RegisteredStudentCursor cursor = null;
+            int pages = 0;
+            while (true)
+            {
+                Page<RegisteredStudentJoinResult> page = temporaryDatabase.database.listRegisteredStudentsPage(cursor, limit);
+                pagedRows.addAll(toStrings(page.getItems()));
+                pages++;
+                if (page.getNextCursor() == null)
+                {
+                    break;
+                }
+                cursor = RegisteredStudentCursor.decode(page.getNextCursor());
+            }
+
+            assertEquals(allRows, pagedRows, "pages of " + limit + " rows");
+            assertEquals(Math.max(1, (allRows.size() + limit - 1) / limit), pages, "number of pages of " + limit + " rows");
+        }
+    }
+
+    @Test
+    void anInvalidCursorIsABadRequest()
+    {
+        RegisteredStudentsController registeredStudentsController = new RegisteredStudentsController(null);
+        ResponseStatusException registeredStudentsException = assertThrows(
+                ResponseStatusException.class,
+                () -> registeredStudentsController.registered_students("not a cursor!", null)
+        );
+        assertEquals(HttpStatus.BAD_REQUEST, registeredStudentsException.getStatus());
+
+        ClassesController classesController = new ClassesController(null);
+        ResponseStatusException searchException = assertThrows(
+                ResponseStatusException.class,
+                () -> classesController.search("databases", "AAAA", null)
+        );
+        assertEquals(HttpStatus.BAD_REQUEST, searchException.getStatus());
+    }
+
+    private static List<String> toStrings(List<RegisteredStudentJoinResult> rows)
+    {
+        List<String> strings = new ArrayList<>();
+        for (RegisteredStudentJoinResult row : rows)
+        {
+            strings.add(row.toString());
+        }
+        return strings;
+    }
+}
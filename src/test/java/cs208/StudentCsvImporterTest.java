@@ -0,0 +1,180 @@
+package cs208;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StudentCsvImporterTest
+{
+    @TempDir
+    Path temporaryDirectory;
+
+    private TemporaryDatabase temporaryDatabase;
+
+    @BeforeEach
+    void openDatabase() throws Exception
+    {
+        temporaryDatabase = TemporaryDatabase.open(temporaryDirectory);
+        Main.database = temporaryDatabase.database;
+    }
+
+    @AfterEach
+    void closeDatabase()
+    {
+        Main.database = null;
+        temporaryDatabase.close();
+    }
+
+    @Test
+    void splitsQuotedFields()
+    {
+        assertEquals(
+                Arrays.asList("Ada", "Lovelace, Countess of Lovelace", "1815-12-10"),
+                StudentCsvImporter.splitLine("Ada,\"Lovelace, Countess of Lovelace\",1815-12-10")
+        );
+        assertEquals(
+                Arrays.asList("Say \"hi\"", "", "x"),
+                StudentCsvImporter.splitLine("\"Say \"\"hi\"\"\",,x")
+        );
+        assertEquals(Arrays.asList("", ""), StudentCsvImporter.splitLine(","));
+    }
+
+    @Test
+    void rejectsAnUnclosedQuote() throws IOException
+    {
+        assertThrows(IllegalArgumentException.class, () -> StudentCsvImporter.splitLine("Ada,\"Lovelace,1815-12-10"));
+
+        StudentImportReport report = new StudentCsvImporter(500).importStudents(new StringReader(
+                "first_name,last_name,birth_date\n" +
+                        "Ada,\"Lovelace,1815-12-10\n" +
+                        "Grace,Hopper,1906-12-09\n"
+        ), 500);
+
+        assertEquals(2, report.getRowsRead());
+        assertEquals(1, report.getStudentsInserted());
+        assertEquals(1, report.getRowsRejected());
+        assertEquals(2, report.getRejectedRows().get(0).getLine());
+    }
+
+    @Test
+    void readsTheColumnsOfAHeaderAfterAByteOrderMark() throws IOException
+    {
+        StudentImportReport report = new StudentCsvImporter(500).importStudents(new StringReader(
+                "\uFEFFbirth_date,Last_Name,first_name\n" +
+                        "1906-12-09,Hopper,Grace\n" +
+                        "1815-12-10,\"Lovelace, Countess\",Ada\n"
+        ), 500);
+
+        assertEquals(2, report.getRowsRead());
+        assertEquals(2, report.getStudentsInserted());
+        assertEquals(0, report.getRowsRejected());
+
+        List<Student> students = temporaryDatabase.database.listAllStudents();
+        assertEquals(2, students.size());
+        assertEquals("Grace", students.get(0).getFirstName());
+        assertEquals("Hopper", students.get(0).getLastName());
+        assertEquals("1906-12-09", students.get(0).getBirthDate().toString());
+        assertEquals("Ada", students.get(1).getFirstName());
+        assertEquals("Lovelace, Countess", students.get(1).getLastName());
+    }
+
+    @Test
+    void readsTheDefaultColumnsWithoutAHeader() throws IOException
+    {
+        StudentImportReport report = new StudentCsvImporter(500).importStudents(new StringReader(
+                "Grace,Hopper,1906-12-09\n"
+        ), 500);
+
+        assertEquals(1, report.getStudentsInserted());
+        assertEquals("Hopper", temporaryDatabase.database.listAllStudents().get(0).getLastName());
+    }
+
+    @Test
+    void rejectsEveryLineOfAFailedChunk() throws IOException
+    {
+        String firstChunk =
+                "first_name,last_name,birth_date\n" +
+                        "Grace,Hopper,1906-12-09\n" +
+                        "Ada,Lovelace,1815-12-10\n";
+        String secondChunk =
+                "Alan,Turing,1912-06-23\n" +
+                        "Edsger,Dijkstra,1930-05-11\n";
+
+        // the students table disappears after the first chunk is committed, so the transaction of the second chunk fails
+        Reader reader = readerInTwoParts(firstChunk, this::dropTheStudentsTable, secondChunk);
+        StudentImportReport report = new StudentCsvImporter(2).importStudents(reader, 2);
+
+        assertEquals(4, report.getRowsRead());
+        assertEquals(2, report.getStudentsInserted());
+        assertEquals(1, report.getChunksCommitted());
+        assertEquals(2, report.getRowsRejected());
+        assertEquals(4, report.getRejectedRows().get(0).getLine());
+        assertEquals(5, report.getRejectedRows().get(1).getLine());
+        for (StudentImportReport.RejectedRow rejectedRow : report.getRejectedRows())
+        {
+            assertTrue(rejectedRow.getError().startsWith("failed to insert the chunk of this row"), rejectedRow.getError());
+        }
+    }
+
+    private void dropTheStudentsTable()
+    {
+        try (Connection connection = temporaryDatabase.database.getWriterConnection();
+             Statement statement = connection.createStatement())
+        {
+            statement.executeUpdate("DROP TABLE registered_students;");
+            statement.executeUpdate("DROP TABLE students;");
+        }
+        catch (SQLException sqlException)
+        {
+            throw new IllegalStateException(sqlException);
+        }
+    }
+
+    /**
+     * @return a reader of firstPart then secondPart, which runs beforeSecondPart when firstPart is all read
+     *         (the importer reads the file through a BufferedReader, so the lines of firstPart are all processed
+     *         before the reader is asked for more)
+     */
+    private static Reader readerInTwoParts(String firstPart, Runnable beforeSecondPart, String secondPart)
+    {
+        return new Reader()
+        {
+            private Reader currentPart = new StringReader(firstPart);
+            private boolean secondPartStarted = false;
+
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException
+            {
+                int count = currentPart.read(buffer, offset, length);
+                if (count < 0 && !secondPartStarted)
+                {
+                    secondPartStarted = true;
+                    beforeSecondPart.run();
+                    currentPart = new StringReader(secondPart);
+                    count = currentPart.read(buffer, offset, length);
+                }
+                return count;
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+    }
+}
@@ -0,0 +1,130 @@
+package cs208;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link Database} on a new SQLite file, created from schema.sql (without the rows of seeds.sql),
+ * and started the same way as {@link Main} starts it (indexes, write-behind pipeline, seat counters).
+ *
+ * The settings are the ones of application.properties, overridden by the given arguments, for example:
+ *     TemporaryDatabase.open(temporaryDirectory, "--cs208.database.write-coalescer.enabled=true")
+ */
+class TemporaryDatabase implements AutoCloseable
+{
+    final Path sqliteFile;
+    final Database database;
+
+    private TemporaryDatabase(Path sqliteFile, Database database)
+    {
+        this.sqliteFile = sqliteFile;
+        this.database = database;
+    }
+
+    static TemporaryDatabase open(Path directory, String... settingArguments) throws IOException, SQLException
+    {
+        Path sqliteFile = directory.resolve("cs208_test.sqlite");
+        if (!sqliteFile.toFile().exists())
+        {
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + sqliteFile))
+            {
+                executeScript(connection, "/sql/schema.sql");
+            }
+        }
+
+        List<String> arguments = new ArrayList<>(Arrays.asList(
+                "--cs208.trace.mode=off",
+                "--cs208.journal.file=" + directory.resolve("cs208_test.sqlite.journal")
+        ));
+        arguments.addAll(Arrays.asList(settingArguments));
+        ApplicationSettings settings = ApplicationSettings.load(arguments.toArray(new String[0]));
+
+        Database database = new Database(
+                sqliteFile.toString(),
+                StorageMode.fromSetting(settings.getString("cs208.database.storage-mode", "rollback-journal")),
+                settings
+        );
+        database.getWriterConnection().close();
+        database.createMissingIndexes();
+        database.createMissingSearchIndex();
+        database.startWriteBehindPipeline();
+        database.seedSeatCounters();
+        return new TemporaryDatabase(sqliteFile, database);
+    }
+
+    /**
+     * @return the first column of the first row of the query
+     */
+    int selectInt(String sql, Object... parameters) throws SQLException
+    {
+        try
+                (
+                        Connection connection = database.getDatabaseConnection();
+                        PreparedStatement sqlStatement = connection.prepareStatement(sql)
+                )
+        {
+            for (int i = 0; i < parameters.length; i++)
+            {
+                sqlStatement.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet resultSet = sqlStatement.executeQuery())
+            {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        database.close();
+    }
+
+    // the statements of the script end with a semicolon, and the triggers with END;
+    static void executeScript(Connection connection, String resourceName) throws IOException, SQLException
+    {
+        try (InputStream inputStream = TemporaryDatabase.class.getResourceAsStream(resourceName))
+        {
+            if (inputStream == null)
+            {
+                throw new IOException("missing resource " + resourceName);
+            }
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+            try (Statement statement = connection.createStatement())
+            {
+                StringBuilder sql = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    if (line.trim().startsWith("--"))
+                    {
+                        continue;
+                    }
+
+                    sql.append(line).append('\n');
+                    boolean insideTrigger = sql.toString().trim().toUpperCase().startsWith("CREATE TRIGGER");
+                    if (insideTrigger ? line.trim().equalsIgnoreCase("END;") : line.trim().endsWith(";"))
+                    {
+                        statement.execute(sql.toString());
+                        sql.setLength(0);
+                    }
+                }
+            }
+        }
+    }
+}
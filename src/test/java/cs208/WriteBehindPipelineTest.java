@@ -0,0 +1,299 @@
+package cs208;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The {@link WriteBehindPipeline} with a {@link MutationJournal}, on a SQLite file in the WAL storage mode
+ */
+class WriteBehindPipelineTest
+{
+    private static final String INSERT_NOTE = "INSERT INTO notes (id, text) VALUES (?, ?);";
+
+    @TempDir
+    Path temporaryDirectory;
+
+    private String journalFile;
+    // the writer connection of the pipeline, which does not close it (see nonClosingWriterConnection)
+    private Connection writerConnection;
+    private volatile boolean commitsFail = false;
+
+    private MutationJournal mutationJournal;
+    private WriteBehindPipeline pipeline;
+
+    @BeforeEach
+    void openDatabase() throws SQLException
+    {
+        journalFile = temporaryDirectory.resolve("notes.sqlite.journal").toString();
+        writerConnection = DriverManager.getConnection("jdbc:sqlite:" + temporaryDirectory.resolve("notes.sqlite"));
+        try (Statement sqlStatement = writerConnection.createStatement())
+        {
+            sqlStatement.executeQuery("PRAGMA journal_mode = WAL;").close();
+            sqlStatement.executeUpdate("CREATE TABLE notes (id INTEGER PRIMARY KEY, text TEXT NOT NULL);");
+        }
+    }
+
+    @AfterEach
+    void closeDatabase() throws SQLException
+    {
+        if (pipeline != null)
+        {
+            pipeline.close();
+        }
+        writerConnection.close();
+    }
+
+    @Test
+    void refusesTheJournalOutsideOfTheWalStorageMode() throws IOException
+    {
+        try (MutationJournal rollbackJournalModeJournal = new MutationJournal(journalFile))
+        {
+            assertThrows(IllegalArgumentException.class, () -> new WriteBehindPipeline(
+                    rollbackJournalModeJournal, this::nonClosingWriterConnection, false, 16, 0, Long.MAX_VALUE, 30000
+            ));
+        }
+    }
+
+    @Test
+    void removesTheGroupOfAFailedCommitFromTheJournal() throws Exception
+    {
+        startPipeline();
+        assertEquals(1, (int) pipeline.submit(insertNote(1, "first"), UnaryOperator.identity()));
+        long journalSizeAfterTheFirstGroup = mutationJournal.size();
+
+        commitsFail = true;
+        AtomicInteger undoneChanges = new AtomicInteger();
+        assertThrows(SQLException.class, () -> pipeline.submit(
+                connection ->
+                {
+                    pipeline.onRollback(undoneChanges::incrementAndGet);
+                    return insertNote(2, "second").apply(connection);
+                },
+                UnaryOperator.identity()
+        ));
+        commitsFail = false;
+
+        assertEquals(1, undoneChanges.get());
+        assertEquals(journalSizeAfterTheFirstGroup, mutationJournal.size());
+
+        assertEquals(1, (int) pipeline.submit(insertNote(3, "third"), UnaryOperator.identity()));
+        pipeline.close();
+        pipeline = null;
+
+        assertEquals(Arrays.asList("1|first", "3|third"), selectNotes());
+        assertEquals(2, selectAppliedSequence());
+
+        // the group of the failed commit is not replayed, and the group after it takes its sequence
+        List<MutationJournal.Record> records = readRecords();
+        assertEquals(2, records.size());
+        assertEquals(1L, records.get(0).getSequence());
+        assertEquals(2L, records.get(1).getSequence());
+        assertEquals(Arrays.<Object>asList(3, "third"), records.get(1).getStatements().get(0).getParameters());
+    }
+
+    @Test
+    void replaysTheGroupsThatDidNotReachTheDatabase() throws Exception
+    {
+        // the group 1 was committed, the group 2 was journaled but not committed (a crash before the commit),
+        // and the group 3 was cut short while it was appended
+        try (Statement sqlStatement = writerConnection.createStatement())
+        {
+            sqlStatement.executeUpdate(
+                    "CREATE TABLE mutation_journal_checkpoint (\n" +
+                            "    id INTEGER PRIMARY KEY CHECK (id = 1),\n" +
+                            "    applied_sequence INTEGER NOT NULL\n" +
+                            ");"
+            );
+            sqlStatement.executeUpdate("INSERT INTO mutation_journal_checkpoint (id, applied_sequence) VALUES (1, 1);");
+            sqlStatement.executeUpdate("INSERT INTO notes (id, text) VALUES (1, 'first');");
+        }
+        try (MutationJournal crashedJournal = new MutationJournal(journalFile))
+        {
+            crashedJournal.readRecords();
+            crashedJournal.append(new MutationJournal.Record(1, Collections.singletonList(
+                    new JournaledStatement(INSERT_NOTE, Arrays.<Object>asList(1, "first"))
+            )));
+            crashedJournal.append(new MutationJournal.Record(2, Arrays.asList(
+                    new JournaledStatement(INSERT_NOTE, Arrays.<Object>asList(2, "second")),
+                    new JournaledStatement("UPDATE notes SET text = ? WHERE id = ?;", Arrays.<Object>asList("first, edited", 1))
+            )));
+            crashedJournal.append(new MutationJournal.Record(3, Collections.singletonList(
+                    new JournaledStatement(INSERT_NOTE, Arrays.<Object>asList(3, "third"))
+            )));
+            crashedJournal.truncate(crashedJournal.size() - 4);
+        }
+
+        // the group 1 is not replayed (its INSERT would fail), so the pipeline starts
+        startPipeline();
+
+        assertEquals(Arrays.asList("1|first, edited", "2|second"), selectNotes());
+        assertEquals(2, selectAppliedSequence());
+        // the journal is emptied once the replayed groups are in the database file
+        assertEquals(0L, mutationJournal.size());
+
+        assertEquals(1, (int) pipeline.submit(insertNote(4, "fourth"), UnaryOperator.identity()));
+        assertEquals(3, selectAppliedSequence());
+        assertEquals(3L, readRecords().get(0).getSequence());
+    }
+
+    @Test
+    void replaysAGroupOfTheDatabaseJournaledBeforeACrash() throws Exception
+    {
+        String[] journalSettings = {"--cs208.database.storage-mode=wal", "--cs208.journal.enabled=true"};
+        long appliedSequence;
+        try (TemporaryDatabase temporaryDatabase = TemporaryDatabase.open(temporaryDirectory, journalSettings))
+        {
+            temporaryDatabase.database.addNewStudents(Arrays.asList(
+                    new Student("Ada", "Lovelace", Date.valueOf("1815-12-10")),
+                    new Student("Alan", "Turing", Date.valueOf("1912-06-23")),
+                    new Student("Grace", "Hopper", Date.valueOf("1906-12-09"))
+            ));
+            appliedSequence = temporaryDatabase.selectInt("SELECT applied_sequence FROM mutation_journal_checkpoint WHERE id = 1;");
+        }
+
+        String databaseJournalFile = temporaryDirectory.resolve("cs208_test.sqlite.journal").toString();
+        try (MutationJournal databaseJournal = new MutationJournal(databaseJournalFile))
+        {
+            // the batch of addNewStudents is journaled row by row, in the last group
+            List<MutationJournal.Record> records = databaseJournal.readRecords();
+            MutationJournal.Record lastRecord = records.get(records.size() - 1);
+            assertEquals(appliedSequence, lastRecord.getSequence());
+            List<String> insertedFirstNames = new ArrayList<>();
+            for (JournaledStatement journaledStatement : lastRecord.getStatements())
+            {
+                if (journaledStatement.getSql().startsWith("INSERT INTO students"))
+                {
+                    insertedFirstNames.add((String) journaledStatement.getParameters().get(1));
+                }
+            }
+            assertEquals(Arrays.asList("Ada", "Alan", "Grace"), insertedFirstNames);
+
+            // the next group was forced to the journal, and the server stopped before its commit
+            databaseJournal.append(new MutationJournal.Record(appliedSequence + 1, Collections.singletonList(new JournaledStatement(
+                    "INSERT INTO students (id, first_name, last_name, birth_date) VALUES (?, ?, ?, ?);",
+                    Arrays.<Object>asList(1000000, "Edsger", "Dijkstra", Date.valueOf("1930-05-11"))
+            ))));
+            databaseJournal.force();
+        }
+
+        try (TemporaryDatabase temporaryDatabase = TemporaryDatabase.open(temporaryDirectory, journalSettings))
+        {
+            assertEquals(1, temporaryDatabase.selectInt("SELECT COUNT(*) FROM students WHERE id = 1000000 AND first_name = 'Edsger';"));
+            assertEquals(4, temporaryDatabase.selectInt("SELECT COUNT(*) FROM students;"));
+            assertEquals(appliedSequence + 1, temporaryDatabase.selectInt("SELECT applied_sequence FROM mutation_journal_checkpoint WHERE id = 1;"));
+        }
+    }
+
+    private void startPipeline() throws SQLException, IOException
+    {
+        mutationJournal = new MutationJournal(journalFile);
+        pipeline = new WriteBehindPipeline(mutationJournal, this::nonClosingWriterConnection, true, 16, 0, Long.MAX_VALUE, 30000);
+        pipeline.start();
+    }
+
+    // the writer connection, which the pipeline closes after every group: the close is ignored,
+    // and the commit fails while commitsFail is true
+    private Connection nonClosingWriterConnection()
+    {
+        return (Connection) Proxy.newProxyInstance(
+                WriteBehindPipelineTest.class.getClassLoader(),
+                new java.lang.Class<?>[]{Connection.class},
+                (proxy, method, arguments) ->
+                {
+                    if (method.getName().equals("close"))
+                    {
+                        return null;
+                    }
+                    if (method.getName().equals("commit") && commitsFail)
+                    {
+                        throw new SQLException("the commit failed");
+                    }
+                    try
+                    {
+                        return method.invoke(writerConnection, arguments);
+                    }
+                    catch (InvocationTargetException invocationTargetException)
+                    {
+                        throw invocationTargetException.getCause();
+                    }
+                }
+        );
+    }
+
+    private static WriteBehindPipeline.Mutation<Integer> insertNote(int id, String text)
+    {
+        return connection ->
+        {
+            try (PreparedStatement sqlStatement = connection.prepareStatement(INSERT_NOTE))
+            {
+                sqlStatement.setInt(1, id);
+                sqlStatement.setString(2, text);
+                return sqlStatement.executeUpdate();
+            }
+        };
+    }
+
+    // read with a connection of their own, so only the committed rows are seen
+    private List<String> selectNotes() throws SQLException
+    {
+        List<String> notes = new ArrayList<>();
+        try
+                (
+                        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + temporaryDirectory.resolve("notes.sqlite"));
+                        Statement sqlStatement = connection.createStatement();
+                        ResultSet resultSet = sqlStatement.executeQuery("SELECT id, text FROM notes ORDER BY id;")
+                )
+        {
+            while (resultSet.next())
+            {
+                notes.add(resultSet.getInt("id") + "|" + resultSet.getString("text"));
+            }
+        }
+        return notes;
+    }
+
+    private long selectAppliedSequence() throws SQLException
+    {
+        try
+                (
+                        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + temporaryDirectory.resolve("notes.sqlite"));
+                        Statement sqlStatement = connection.createStatement();
+                        ResultSet resultSet = sqlStatement.executeQuery("SELECT applied_sequence FROM mutation_journal_checkpoint WHERE id = 1;")
+                )
+        {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private List<MutationJournal.Record> readRecords() throws IOException
+    {
+        try (MutationJournal journal = new MutationJournal(journalFile))
+        {
+            return journal.readRecords();
+        }
+    }
+}